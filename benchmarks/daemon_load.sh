@@ -0,0 +1,38 @@
+#!/bin/sh
+# Shows how "shell --daemon" scales with cores: for 1, 2, 4, ... up to all
+# of this machine's cores, starts a daemon pinned to that many (taskset) and
+# runs shell.DaemonLoad against it. The load generator is not pinned, so on
+# a machine with few cores it competes with the daemon for them.
+#
+# Usage: benchmarks/daemon_load.sh [SECONDS] [CLIENTS] [LINE]
+# Run "mvn -B package" first; e.g. "benchmarks/daemon_load.sh 10 32 'echo a | wc -c'".
+
+set -e
+SECONDS_=${1:-10}
+CLIENTS=${2:-16}
+LINE=${3:-echo hello}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+WORK=$(mktemp -d)
+SOCKET="$WORK/shell.sock"
+trap 'kill $DAEMON 2>/dev/null; rm -rf "$WORK"' EXIT
+
+CORES=$(nproc)
+counts=1
+c=2
+while [ "$c" -lt "$CORES" ]; do
+    counts="$counts $c"
+    c=$((c * 2))
+done
+[ "$CORES" -gt 1 ] && counts="$counts $CORES"
+
+for cores in $counts; do
+    taskset -c 0-$((cores - 1)) java -jar "$ROOT/shell/target/shell.jar" --daemon "$SOCKET" 2>/dev/null &
+    DAEMON=$!
+    while [ ! -S "$SOCKET" ]; do
+        sleep 0.1
+    done
+    echo "== $cores core(s)"
+    java -cp "$ROOT/benchmarks/target/benchmarks.jar" shell.DaemonLoad "$SOCKET" "$CLIENTS" "$SECONDS_" 10 "$LINE"
+    kill $DAEMON
+    wait $DAEMON 2>/dev/null || true
+done
@@ -0,0 +1,55 @@
+#!/bin/sh
+# Measures prompt round-trip latency: the time the shell needs to take a line
+# at the prompt, run a trivial builtin and print the next prompt. The shell
+# runs on a pseudo terminal (via script(1)) so the raw mode code path is used.
+#
+# Usage: benchmarks/prompt_latency.sh [LINES] [REV...]
+# Each REV (default: the working tree) is compiled into a temp directory and
+# measured; e.g. "benchmarks/prompt_latency.sh 500 HEAD~1 HEAD" compares two commits.
+
+set -e
+LINES=${1:-300}
+[ $# -gt 0 ] && shift
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+build() {
+    out="$WORK/$1"
+    mkdir -p "$out/src"
+    if [ "$1" = "worktree" ]; then
+        cp -r "$ROOT"/shell "$ROOT"/java "$out/src" 2>/dev/null || true
+    else
+        git -C "$ROOT" archive "$1" | tar -x -C "$out/src"
+    fi
+    # Revisions before the Maven layout kept the sources in java/, unpackaged
+    if [ -d "$out/src/shell/src/main/java" ]; then
+        javac -d "$out/classes" $(find "$out/src/shell/src/main/java" -name '*.java')
+        echo shell.Main > "$out/main"
+    else
+        javac -d "$out/classes" "$out"/src/java/*.java
+        echo Main > "$out/main"
+    fi
+}
+
+# Runs the shell under a pty with N "pwd" lines and prints elapsed milliseconds
+# (arguments: build directory, N)
+run() {
+    input="$WORK/input"
+    i=0
+    : > "$input"
+    while [ $i -lt "$2" ]; do echo pwd >> "$input"; i=$((i + 1)); done
+    echo exit >> "$input"
+    start=$(date +%s%N)
+    script -qec "java -cp $1/classes $(cat "$1/main")" /dev/null < "$input" > /dev/null
+    end=$(date +%s%N)
+    echo $(( (end - start) / 1000000 ))
+}
+
+for rev in ${@:-worktree}; do
+    build "$rev"
+    base=$(run "$WORK/$rev" 0)
+    total=$(run "$WORK/$rev" "$LINES")
+    per=$(awk "BEGIN { printf \"%.2f\", ($total - $base) / $LINES }")
+    echo "$rev: $LINES prompts in $((total - base)) ms after startup, $per ms/prompt"
+done
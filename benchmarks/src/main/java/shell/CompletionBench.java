@@ -0,0 +1,63 @@
+package shell;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+// Measures command-name completion latency through the trie against
+// scanning every PATH directory on each Tab.
+//
+//   mvn -B -q package
+//   java -cp benchmarks/target/benchmarks.jar shell.CompletionBench [PREFIX...]
+public class CompletionBench {
+
+    public static void main(String[] args) {
+        String path = System.getenv("PATH");
+        String[] directories = path != null ? path.split(File.pathSeparator) : new String[0];
+        String[] prefixes = args.length > 0 ? args : new String[] {"g", "gi", "py", "ls", "x"};
+        int rounds = 2000;
+
+        long start = System.nanoTime();
+        TabCompletion completion = new TabCompletion(Set.of("echo", "exit", "type", "pwd", "cd", "history"), directories);
+        completion.completeCommand(""); // builds the trie
+        System.out.printf("trie built in %.1f ms over %d PATH directories%n",
+                (System.nanoTime() - start) / 1e6, directories.length);
+
+        for (String prefix : prefixes) {
+            int count = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                count = completion.completeCommand(prefix).size();
+            }
+            long trie = (System.nanoTime() - t0) / rounds;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < rounds / 20; i++) {
+                scanPath(directories, prefix);
+            }
+            long scan = (System.nanoTime() - t0) / (rounds / 20);
+
+            System.out.printf("'%s' (%d candidates): trie %.3f ms, PATH scan %.3f ms%n",
+                    prefix, count, trie / 1e6, scan / 1e6);
+        }
+    }
+
+    private static List<String> scanPath(String[] directories, String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String dir : directories) {
+            File[] files = new File(dir).listFiles((d, name) -> name.startsWith(prefix));
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isFile() && file.canExecute() && !result.contains(file.getName())) {
+                    result.add(file.getName());
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
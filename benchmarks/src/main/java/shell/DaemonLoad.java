@@ -0,0 +1,111 @@
+package shell;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load test for "shell --daemon": CLIENTS threads each open a session, run
+// LINES command lines in it and close it, over and over, for SECONDS after a
+// warm-up. Reports sessions and commands per second and the latency of a
+// command (line sent to status received) and of a whole session.
+//
+//   java -jar shell/target/shell.jar --daemon /tmp/shell.sock &
+//   java -cp benchmarks/target/benchmarks.jar shell.DaemonLoad /tmp/shell.sock [CLIENTS] [SECONDS] [LINES] [LINE]
+//
+// LINE defaults to "echo hello"; a non-zero status fails the run.
+// benchmarks/daemon_load.sh runs it against a daemon pinned to 1, 2, 4, ...
+// cores to show how it scales.
+public class DaemonLoad {
+
+    private static final ShellStats.Latency command = new ShellStats.Latency("command");
+    private static final ShellStats.Latency session = new ShellStats.Latency("session");
+    private static final AtomicLong sessions = new AtomicLong();
+    private static volatile boolean measuring = false;
+    private static volatile boolean stopped = false;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: DaemonLoad SOCKET [CLIENTS] [SECONDS] [LINES] [LINE]");
+            System.exit(2);
+        }
+        Path socket = Paths.get(args[0]);
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int lines = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        String line = args.length > 4 ? args[4] : "echo hello";
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    client(socket, lines, line);
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                    stopped = true;
+                }
+            }, "client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        // Warm up the daemon (and this JVM) before measuring
+        Thread.sleep(Math.min(seconds, 3) * 1000L);
+        command.reset();
+        session.reset();
+        sessions.set(0);
+        measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!failures.isEmpty()) {
+            failures.get(0).printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.printf("clients: %d, lines per session: %d, line: %s%n", clients, lines, line);
+        System.out.printf("%.0f sessions/s, %.0f commands/s%n",
+                sessions.get() / elapsed, command.count() / elapsed);
+        System.out.printf("%-10s %8s %9s %9s %9s %9s%n", "latency", "count", "p50", "p99", "mean", "max");
+        for (ShellStats.Latency latency : new ShellStats.Latency[] {command, session}) {
+            System.out.printf("%-10s %8d %9s %9s %9s %9s%n", latency.name, latency.count(),
+                    ShellStats.duration(latency.percentile(0.50)), ShellStats.duration(latency.percentile(0.99)),
+                    ShellStats.duration(latency.mean()), ShellStats.duration(latency.max()));
+        }
+    }
+
+    private static void client(Path socket, int lines, String line) throws Exception {
+        File directory = new File(System.getProperty("user.dir"));
+        OutputStream discard = OutputStream.nullOutputStream();
+        while (!stopped) {
+            long opened = System.nanoTime();
+            try (ShellClient client = new ShellClient(socket, directory)) {
+                for (int i = 0; i < lines; i++) {
+                    long sent = System.nanoTime();
+                    int status = client.run(line, discard, discard);
+                    if (status != 0) {
+                        throw new IllegalStateException(line + ": status " + status);
+                    }
+                    if (measuring) {
+                        command.since(sent);
+                    }
+                }
+            }
+            if (measuring) {
+                session.since(opened);
+                sessions.incrementAndGet();
+            }
+        }
+    }
+}
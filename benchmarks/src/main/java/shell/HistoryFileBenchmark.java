@@ -0,0 +1,81 @@
+package shell;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Loads and saves history files of synthetic commands.
+//   load: what loadHistoryFromFile does on its background thread, with
+//         HISTSIZE equal to the file length
+//   save: the whole-file rewrite of "history -w"; exit itself only closes
+//         the journal, which already holds every command
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryFileBenchmark {
+
+    private static final String[] WORDS = {
+        "git", "commit", "-m", "push", "origin", "ls", "-la", "cd", "grep", "-r",
+        "docker", "run", "kubectl", "get", "pods", "mvn", "test", "make", "install", "ssh"
+    };
+
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+
+    private Path input;
+    private Path output;
+    private History loaded;
+
+    @Setup
+    public void setUp() throws IOException {
+        input = Files.createTempFile("history-bench", ".in");
+        output = Files.createTempFile("history-bench", ".out");
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            int words = 2 + random.nextInt(5);
+            for (int w = 0; w < words; w++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            text.append("file").append(random.nextInt(100_000)).append('\n');
+        }
+        Files.writeString(input, text);
+        loaded = load();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(input);
+        Files.delete(output);
+    }
+
+    @Benchmark
+    public History load() throws IOException {
+        History history = new History(lines, false);
+        history.load(input);
+        return history;
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        ShellSession.writeHistory(loaded, output.toString());
+    }
+}
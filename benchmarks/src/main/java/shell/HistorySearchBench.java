@@ -0,0 +1,79 @@
+package shell;
+
+import java.util.Random;
+
+// Measures Ctrl+R keystroke latency: each prefix of a query is searched the
+// way the line editor does while it is typed, against a history of
+// synthetic commands, and compared with a linear scan.
+//
+//   mvn -B -q package
+//   java -cp benchmarks/target/benchmarks.jar shell.HistorySearchBench [ENTRIES]
+public class HistorySearchBench {
+
+    private static final String[] WORDS = {
+        "git", "commit", "-m", "push", "origin", "ls", "-la", "cd", "grep", "-r",
+        "docker", "run", "kubectl", "get", "pods", "mvn", "test", "make", "install", "ssh"
+    };
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        History history = new History(entries, false);
+        Random random = new Random(42);
+        StringBuilder command = new StringBuilder();
+        for (int i = 0; i < entries; i++) {
+            command.setLength(0);
+            int words = 2 + random.nextInt(5);
+            for (int w = 0; w < words; w++) {
+                command.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            command.append("file").append(random.nextInt(100_000));
+            history.add(command.toString());
+        }
+
+        HistorySearch search = new HistorySearch(history);
+        long start = System.nanoTime();
+        search.catchUp();
+        System.out.printf("entries: %d, index built in %.0f ms%n", entries, (System.nanoTime() - start) / 1e6);
+
+        String[] queries = {"kubectl get", "file12345", "docker run ssh", "zzz-no-match"};
+        for (int round = 0; round < 3; round++) { // the last round is reported
+            if (round > 0) {
+                // Start from a fresh index so no failed query is remembered
+                search = new HistorySearch(history);
+                search.catchUp();
+            }
+            for (String query : queries) {
+                long indexed = 0;
+                long linear = 0;
+                for (int len = 1; len <= query.length(); len++) {
+                    String prefix = query.substring(0, len);
+
+                    long t0 = System.nanoTime();
+                    int a = search.search(prefix, history.size());
+                    long t1 = System.nanoTime();
+                    int b = linearSearch(history, prefix);
+                    long t2 = System.nanoTime();
+
+                    if (a != b) {
+                        throw new AssertionError(prefix + ": " + a + " != " + b);
+                    }
+                    indexed = Math.max(indexed, t1 - t0);
+                    linear = Math.max(linear, t2 - t1);
+                }
+                if (round == 2) {
+                    System.out.printf("%-16s worst keystroke: index %8.3f ms, linear scan %8.3f ms%n",
+                            "'" + query + "'", indexed / 1e6, linear / 1e6);
+                }
+            }
+        }
+    }
+
+    private static int linearSearch(History history, String query) {
+        for (int i = history.size() - 1; i >= history.first(); i--) {
+            if (history.get(i).contains(query)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
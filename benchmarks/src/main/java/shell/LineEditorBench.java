@@ -0,0 +1,90 @@
+package shell;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
+
+// Bytes written to the terminal per edit of a long line at the prompt, by
+// LineEditor's renderer, next to what the editor before it wrote for the
+// edits it had (it could only append and delete at the end, and redrew a
+// recalled history entry after "\b \b" for every character of the old one).
+//
+//   mvn -B -q package
+//   java -cp benchmarks/target/benchmarks.jar shell.LineEditorBench [LENGTH...]
+//
+// Each edit is made on a line of LENGTH characters (default 80, 400, 2000)
+// on a terminal 80 columns wide, where it wraps, and of unknown width.
+public class LineEditorBench {
+
+    // setUp moves the cursor (drawn, not counted), then edit is counted.
+    // old gives the previous editor's bytes for a line of a length, given
+    // the length of the line after the edit; null if it couldn't do it
+    private record Edit(String name, Consumer<LineEditor> setUp, Consumer<LineEditor> edit, IntBinaryOperator old) {
+    }
+
+    public static void main(String[] args) {
+        int[] lengths = args.length > 0
+                ? java.util.Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[] {80, 400, 2000};
+        for (int length : lengths) {
+            String line = line(length, "echo ");
+            String similar = line.substring(0, line.lastIndexOf(' ') + 1) + "changed";
+            String different = line(length, "printf ");
+            List<Edit> edits = List.of(
+                    new Edit("type at end", LineEditor::end, e -> e.insert('x'), (before, after) -> 1),
+                    new Edit("backspace at end", LineEditor::end, LineEditor::backspace, (before, after) -> 3),
+                    new Edit("insert mid-line", LineEditorBench::middle, e -> e.insert('x'), null),
+                    new Edit("delete mid-line", LineEditorBench::middle, LineEditor::delete, null),
+                    new Edit("backspace mid-line", LineEditorBench::middle, LineEditor::backspace, null),
+                    new Edit("left", LineEditorBench::middle, LineEditor::left, null),
+                    new Edit("word left", LineEditorBench::middle, LineEditor::wordLeft, null),
+                    new Edit("home", LineEditor::end, LineEditor::home, null),
+                    new Edit("end", LineEditor::home, LineEditor::end, null),
+                    new Edit("kill word (Ctrl+W)", LineEditor::end, LineEditor::deleteWordBefore, null),
+                    new Edit("recall similar entry", LineEditor::end, e -> e.set(similar),
+                            (before, after) -> 3 * before + after),
+                    new Edit("recall other entry", LineEditor::end, e -> e.set(different),
+                            (before, after) -> 3 * before + after));
+
+            for (int columns : new int[] {80, 0}) {
+                System.out.printf("%n%d character line, %s:%n", length,
+                        columns > 0 ? columns + " columns" : "unknown width");
+                System.out.printf("%-22s %8s %12s%n", "edit", "bytes", "old editor");
+                for (Edit edit : edits) {
+                    System.out.println(run(edit, line, columns));
+                }
+            }
+        }
+    }
+
+    // One edit is enough: its output is the same every time
+    private static String run(Edit edit, String line, int columns) {
+        LineEditor editor = new LineEditor("$ ", columns);
+        editor.set(line);
+        editor.render();
+        edit.setUp().accept(editor);
+        editor.render();
+
+        edit.edit().accept(editor);
+        int bytes = editor.render().length();
+        String old = edit.old() == null ? "-" : Integer.toString(edit.old().applyAsInt(line.length(), editor.length()));
+        return String.format("%-22s %8d %12s", edit.name(), bytes, old);
+    }
+
+    private static void middle(LineEditor editor) {
+        editor.home();
+        for (int i = editor.length() / 2; i > 0; i--) {
+            editor.right();
+        }
+    }
+
+    private static String line(int length, String command) {
+        StringBuilder sb = new StringBuilder(command);
+        String[] words = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit"};
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append(words[i % words.length]).append(' ');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+}
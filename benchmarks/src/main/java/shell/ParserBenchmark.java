@@ -0,0 +1,184 @@
+package shell;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parses history lines one per operation with Parser and with the
+// contains(" | ") / split / parseInput code it replaced. The corpus is the
+// `corpus` file parameter, else $HISTFILE or ~/.bash_history, else a
+// built-in sample of typical commands. Add -prof gc for allocation rates.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    private static final String[] SAMPLE = {
+        "ls -la",
+        "cd ~/projects/shell",
+        "git status",
+        "git commit -m \"Fix pipeline handling when a stage exits early\"",
+        "git log --oneline | head -20",
+        "grep -rn 'TODO' src/ | sort | uniq -c | sort -rn | head",
+        "find . -name '*.java' | xargs wc -l | tail -1",
+        "echo \"PATH is $PATH\"",
+        "cat /etc/os-release",
+        "docker run --rm -it -v \"$PWD\":/work -w /work maven:3-eclipse-temurin-17 mvn -B test",
+        "kubectl get pods -n kube-system | grep -v Running",
+        "ps aux | grep java | grep -v grep",
+        "ssh deploy@build-01 'tail -f /var/log/app/server.log'",
+        "mvn -B -q compile",
+        "history 20",
+        "echo 'single | quoted' \"double | quoted\" escaped\\ space",
+        "awk -F: '{ print $1 }' /etc/passwd | sort",
+        "tar czf backup.tar.gz --exclude=target --exclude=.git .",
+        "curl -s https://example.com/api/v1/items?limit=10 | jq '.items[] | .name'",
+        "pwd",
+        "type cat",
+        "vim shell/src/main/java/shell/Main.java",
+        "python3 -m http.server 8000",
+        "du -sh * | sort -h",
+        "sed -n '1,40p' README.md",
+    };
+
+    @Param("")
+    public String corpus;
+
+    private String[] lines;
+    private int next;
+    private final Parser parser = new Parser();
+
+    @Setup
+    public void setUp() throws IOException {
+        String file = !corpus.isEmpty() ? corpus : System.getenv("HISTFILE");
+        Path path = file != null ? Paths.get(file) : Paths.get(System.getProperty("user.home"), ".bash_history");
+        List<String> found = new ArrayList<>();
+        if (Files.isRegularFile(path)) {
+            for (String line : Files.readAllLines(path)) {
+                // Skip bash timestamps and blank lines
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    found.add(line.trim());
+                }
+            }
+        }
+        lines = found.isEmpty() ? SAMPLE : found.toArray(new String[0]);
+    }
+
+    private String nextLine() {
+        String line = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return line;
+    }
+
+    @Benchmark
+    public Object parser() {
+        try {
+            return parser.parse(nextLine());
+        } catch (Parser.SyntaxException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object legacy() {
+        return legacy(nextLine());
+    }
+
+    // What Main did before Parser: one list of words per pipeline stage
+    private static List<List<String>> legacy(String input) {
+        List<List<String>> stages = new ArrayList<>();
+        if (input.contains(" | ")) {
+            for (String cmd : input.split("\\s*\\|\\s*")) {
+                List<String> parsed = parseInput(cmd.trim());
+                if (!parsed.isEmpty()) {
+                    stages.add(parsed);
+                }
+            }
+        } else {
+            stages.add(parseInput(input));
+        }
+        return stages;
+    }
+
+    // Copy of the old Main.parseInput
+    private static List<String> parseInput(String input) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inSingle = false;
+        boolean inDouble = false;
+        boolean escape = false;
+
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+
+            if (escape) {
+                if (inSingle) {
+                    current.append('\\').append(c);
+                } else if (inDouble) {
+                    switch (c) {
+                        case '$', '`', '"', '\\', '\n' -> current.append(c);
+                        default -> current.append('\\').append(c);
+                    }
+                } else {
+                    current.append(c);
+                }
+                escape = false;
+                continue;
+            }
+
+            if (c == '\\') {
+                escape = true;
+                continue;
+            }
+
+            if (c == '\'' && !inDouble) {
+                inSingle = !inSingle;
+                continue;
+            }
+
+            if (c == '"' && !inSingle) {
+                inDouble = !inDouble;
+                continue;
+            }
+
+            if (Character.isWhitespace(c) && !inSingle && !inDouble) {
+                if (current.length() > 0) {
+                    result.add(current.toString());
+                    current.setLength(0);
+                }
+                continue;
+            }
+
+            current.append(c);
+        }
+
+        if (escape) {
+            current.append('\\');
+        }
+
+        if (current.length() > 0) {
+            result.add(current.toString());
+        }
+
+        return result;
+    }
+}
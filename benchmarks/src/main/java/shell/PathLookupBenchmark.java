@@ -0,0 +1,86 @@
+package shell;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Resolves a command on PATH the ways nullCommand and type do:
+//   type:   the type builtin, through the shell's hash table
+//   hashed: a warm CommandHashTable lookup
+//   cold:   a lookup right after "hash -r", i.e. a full PATH search
+//   scan:   the stat-every-directory loop used before the hash table
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathLookupBenchmark {
+
+    @Param({"ls", "no-such-command"})
+    public String command;
+
+    private String[] directories;
+    private CommandHashTable table;
+    private PrintStream stdout;
+    private ShellSession session;
+
+    @Setup
+    public void setUp() {
+        String path = System.getenv("PATH");
+        directories = path != null ? path.split(File.pathSeparator) : new String[0];
+        table = new CommandHashTable(directories);
+        table.lookup(command);
+
+        // type prints its answer
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        session = ShellSession.onStdio(null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void type() {
+        session.type(new String[] {command}, System.out);
+    }
+
+    @Benchmark
+    public File hashed() {
+        return table.lookup(command);
+    }
+
+    @Benchmark
+    public File cold() {
+        table.clear();
+        return table.lookup(command);
+    }
+
+    @Benchmark
+    public File scan() {
+        for (String dir : directories) {
+            File file = new File(dir, command);
+            if (file.exists() && file.canExecute()) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package shell;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Pushes a payload through ShellSession.executeMixedPipeline and reports the
+// throughput as the "megabytes" counter (MB/s).
+//   external: dd if=FILE | tr x y | dd of=/dev/null (OS pipes only; none of
+//             these has an in-process version, as cat now does)
+//   builtin:  echo PAYLOAD | tr x y | dd of=/dev/null (a builtin stage
+//             feeding the processes through a Java pipe and a pump)
+// The last stage discards its input so nothing reaches the JMH console.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"external", "builtin"})
+    public String source;
+
+    @Param({"1048576", "16777216"})
+    public int payloadBytes;
+
+    private Path file;
+    private Parser.Pipeline pipeline;
+    private ShellSession session;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException, Parser.SyntaxException {
+        // Text lines of 64 bytes; the builtin payload is one long word
+        // since echo adds just a newline
+        char[] line = new char[64];
+        Arrays.fill(line, 'x');
+        line[63] = '\n';
+        StringBuilder text = new StringBuilder(payloadBytes);
+        while (text.length() + line.length <= payloadBytes) {
+            text.append(line);
+        }
+
+        session = ShellSession.onStdio(null, null);
+        Parser parser = new Parser();
+        if (source.equals("external")) {
+            file = Files.createTempFile("pipeline-bench", ".txt");
+            Files.writeString(file, text);
+            pipeline = parser.parse("dd if=" + file + " bs=64K status=none | tr x y | dd of=/dev/null status=none");
+        } else {
+            String word = text.toString().replace('\n', 'x');
+            pipeline = parser.parse("echo " + word + " | tr x y | dd of=/dev/null status=none");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (file != null) {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public void pipeline(Throughput throughput) throws IOException, InterruptedException {
+        session.executeMixedPipeline(pipeline);
+        throughput.megabytes += payloadBytes / 1e6;
+    }
+}
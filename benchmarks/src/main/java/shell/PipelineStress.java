@@ -0,0 +1,56 @@
+package shell;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// Runs thousands of short pipelines through ShellSession.executeMixedPipeline and
+// reports throughput and thread usage.
+//
+//   mvn -B -q package
+//   java -cp benchmarks/target/benchmarks.jar shell.PipelineStress [COUNT] [builtin|mixed|PIPELINE] > /dev/null
+//
+// Add -Dshell.executor=platform to compare with pooled platform threads.
+// The report goes to stderr; pipeline output goes to stdout.
+public class PipelineStress {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String mode = args.length > 1 ? args[1] : "builtin";
+
+        // Builtin-only pipelines measure scheduling overhead, mixed ones add a
+        // process and its pumps per pipeline; anything else is run as given
+        Parser.Pipeline pipeline = new Parser().parse(switch (mode) {
+            case "mixed" -> "echo hello | tr a-z A-Z | pwd";
+            case "builtin" -> "echo hello | pwd | echo done";
+            default -> mode;
+        });
+
+        PrintStream report = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ShellSession session = ShellSession.onStdio(null, null);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        // Warm up before measuring
+        for (int i = 0; i < Math.min(200, count); i++) {
+            session.executeMixedPipeline(pipeline);
+        }
+        threads.resetPeakThreadCount();
+        long startedBefore = threads.getTotalStartedThreadCount();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            session.executeMixedPipeline(pipeline);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        report.printf("mode: %s, executor: %s%n", mode, System.getProperty("shell.executor", "virtual"));
+        report.printf("pipelines: %d in %.1f ms (%.0f pipelines/s)%n",
+                count, elapsed / 1e6, count / (elapsed / 1e9));
+        report.printf("platform threads started: %d, peak live: %d, live after run: %d%n",
+                threads.getTotalStartedThreadCount() - startedBefore,
+                threads.getPeakThreadCount(),
+                threads.getThreadCount());
+    }
+}
@@ -0,0 +1,103 @@
+package shell;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs command lines through ShellSession.execute from several sessions at
+// once, each on its own thread and in its own directory, and reports
+// commands per second. Every result is checked, so sessions leaking into
+// each other (a cd seen by another session, output in the wrong Result)
+// fail the run.
+//
+//   mvn -B -q package
+//   java -cp benchmarks/target/benchmarks.jar shell.SessionThroughput [SESSIONS] [COUNT] [builtin|pipeline|external|LINE]
+//
+// COUNT is the number of lines per session. builtin runs cd and pwd,
+// pipeline "echo ... | wc -w" (in-process stages), external runs basename; a
+// LINE is run as given and only its status is checked.
+public class SessionThroughput {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        String mode = args.length > 2 ? args[2] : "builtin";
+
+        Path root = Files.createTempDirectory("session-throughput");
+        ExecutorService threads = Executors.newFixedThreadPool(sessions);
+        try {
+            // Warm up before measuring
+            run(threads, root, sessions, Math.min(count, 2000), mode);
+            long start = System.nanoTime();
+            run(threads, root, sessions, count, mode);
+            long elapsed = System.nanoTime() - start;
+
+            long lines = (long) sessions * count;
+            System.out.printf("mode: %s, sessions: %d, lines per session: %d%n", mode, sessions, count);
+            System.out.printf("%d command lines in %.1f ms: %.0f lines/s (%.1f us per line per session)%n",
+                    lines, elapsed / 1e6, lines / (elapsed / 1e9), elapsed / 1e3 / count);
+        } finally {
+            threads.shutdown();
+            for (File dir : root.toFile().listFiles()) {
+                dir.delete();
+            }
+            Files.delete(root);
+        }
+    }
+
+    private static void run(ExecutorService threads, Path root, int sessions, int count, String mode)
+            throws Exception {
+        List<Future<?>> results = new ArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            Path dir = Files.createDirectories(root.resolve("s" + s));
+            results.add(threads.submit(() -> {
+                session(dir, count, mode);
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+    }
+
+    private static void session(Path dir, int count, String mode) throws Exception {
+        String name = dir.getFileName().toString();
+        Path home = dir.toRealPath();
+        Path parent = home.getParent();
+        try (ShellSession session = new ShellSession(dir.toFile(), System.getenv())) {
+            for (int i = 0; i < count; i++) {
+                switch (mode) {
+                    case "builtin" -> {
+                        // cd .., pwd, cd back, pwd: the session's directory
+                        // is its own whatever the others do
+                        switch (i % 4) {
+                            case 0 -> expect(session.execute("cd .."), "");
+                            case 1 -> expect(session.execute("pwd"), parent + "\n");
+                            case 2 -> expect(session.execute("cd " + name), "");
+                            default -> expect(session.execute("pwd"), home + "\n");
+                        }
+                    }
+                    case "pipeline" -> expect(session.execute("echo " + name + " " + i + " | wc -w"), "2\n");
+                    case "external" -> expect(session.execute("basename /tmp/" + name + "-" + i), name + "-" + i + "\n");
+                    default -> {
+                        ShellSession.Result result = session.execute(mode);
+                        if (result.status() != 0) {
+                            throw new IllegalStateException(mode + ": status " + result.status() + ": " + result.error());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void expect(ShellSession.Result result, String output) {
+        if (result.status() != 0 || !result.output().equals(output) || !result.error().isEmpty()) {
+            throw new IllegalStateException("expected \"" + output + "\", got " + result);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The pipe between in-process stages: StagePipe against the
+// PipedInputStream/PipedOutputStream pair it replaced, both 64 KiB.
+//   transfer: another thread writes 16 MiB in chunks of chunkBytes into a
+//             new pipe and closes it, this one reads it to the end; MB/s in
+//             the "megabytes" counter. "ring-direct" reads with
+//             Source.transferTo, straight out of the ring.
+//   pingPong: a byte goes to an echo thread through one pipe and comes back
+//             through another; the round trip time
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StagePipeBenchmark {
+
+    private static final int PAYLOAD = 16 * 1024 * 1024;
+
+    @Param({"piped", "ring", "ring-direct"})
+    public String pipe;
+
+    @Param({"128", "8192"})
+    public int chunkBytes;
+
+    private ExecutorService writer;
+    private byte[] chunk;
+    private byte[] readBuffer;
+
+    // Ping-pong pipes and the echo thread between them
+    private OutputStream ping;
+    private InputStream pong;
+    private Thread echo;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    private record Ends(OutputStream out, InputStream in) {
+    }
+
+    private Ends newPipe() throws IOException {
+        if (pipe.equals("piped")) {
+            PipedOutputStream out = new PipedOutputStream();
+            return new Ends(out, new PipedInputStream(out, 65536));
+        }
+        StagePipe ring = new StagePipe(65536);
+        return new Ends(ring.sink(), ring.source());
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        writer = Executors.newSingleThreadExecutor();
+        chunk = new byte[chunkBytes];
+        readBuffer = new byte[8192];
+
+        Ends there = newPipe();
+        Ends back = newPipe();
+        ping = there.out();
+        pong = back.in();
+        echo = new Thread(() -> {
+            try {
+                int b;
+                while ((b = there.in().read()) >= 0) {
+                    back.out().write(b);
+                    back.out().flush();
+                }
+            } catch (IOException e) {
+                // Closed at tear down
+            }
+        }, "echo");
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        writer.shutdown();
+        ping.close();
+        echo.join(1000);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long transfer(Throughput throughput) throws Exception {
+        Ends ends = newPipe();
+        Future<?> written = writer.submit(() -> {
+            try (OutputStream out = ends.out()) {
+                for (int sent = 0; sent < PAYLOAD; sent += chunk.length) {
+                    out.write(chunk, 0, chunk.length);
+                }
+            }
+            return null;
+        });
+        long total = 0;
+        if (pipe.equals("ring-direct")) {
+            total = ends.in().transferTo(OutputStream.nullOutputStream());
+        } else {
+            int n;
+            while ((n = ends.in().read(readBuffer)) >= 0) {
+                total += n;
+            }
+        }
+        written.get();
+        throughput.megabytes += total / 1e6;
+        return total;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int pingPong() throws IOException {
+        ping.write(1);
+        ping.flush();
+        return pong.read();
+    }
+}
@@ -0,0 +1,100 @@
+package shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+// Starts the shell on a pseudo terminal (via script(1), so it takes the
+// interactive path) and measures the time until the first prompt appears
+// and the JVM's resident memory at that point; then sends exit.
+//
+//   java -cp benchmarks/target/benchmarks.jar shell.StartupBench [RUNS] [-- COMMAND...]
+//
+// COMMAND defaults to "java -jar shell/target/shell.jar"; add JVM options
+// such as -XX:SharedArchiveFile=shell/target/shell.jsa to it to compare.
+// HISTFILE is passed through, so a large one shows what loading it costs.
+public class StartupBench {
+
+    public static void main(String[] args) throws Exception {
+        int runs = 10;
+        List<String> command = List.of("java", "-jar", "shell/target/shell.jar");
+        int separator = Arrays.asList(args).indexOf("--");
+        if (separator != 0 && args.length > 0) {
+            runs = Integer.parseInt(args[0]);
+        }
+        if (separator >= 0) {
+            command = Arrays.asList(args).subList(separator + 1, args.length);
+        }
+
+        // The first run pays for cold file caches
+        measure(command);
+        long[] millis = new long[runs];
+        long[] rss = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] result = measure(command);
+            millis[i] = result[0];
+            rss[i] = result[1];
+        }
+        Arrays.sort(millis);
+        Arrays.sort(rss);
+        System.out.printf("%s%n", String.join(" ", command));
+        System.out.printf("first prompt: median %d ms, min %d ms, max %d ms (%d runs)%n",
+                millis[runs / 2], millis[0], millis[runs - 1], runs);
+        System.out.printf("RSS at first prompt: median %.1f MiB%n", rss[runs / 2] / 1024.0);
+    }
+
+    // Returns {milliseconds to the first prompt, RSS in KiB}
+    private static long[] measure(List<String> command) throws IOException, InterruptedException {
+        List<String> script = new ArrayList<>(List.of("script", "-qfec", String.join(" ", command), "/dev/null"));
+        ProcessBuilder pb = new ProcessBuilder(script);
+        pb.redirectErrorStream(true);
+        long start = System.nanoTime();
+        Process process = pb.start();
+        InputStream out = process.getInputStream();
+        byte[] buffer = new byte[4096];
+        StringBuilder seen = new StringBuilder();
+        int n;
+        while (seen.indexOf("$ ") < 0 && (n = out.read(buffer)) > 0) {
+            seen.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+        }
+        long elapsed = System.nanoTime() - start;
+        if (seen.indexOf("$ ") < 0) {
+            throw new IOException("no prompt from " + command + ": " + seen);
+        }
+        long rss = jvm(process).map(StartupBench::residentKiB).orElse(0L);
+
+        OutputStream in = process.getOutputStream();
+        in.write("exit\n".getBytes(StandardCharsets.UTF_8));
+        in.flush();
+        out.transferTo(OutputStream.nullOutputStream());
+        process.waitFor();
+        return new long[] {elapsed / 1_000_000, rss};
+    }
+
+    // The java process script(1) started
+    private static Optional<ProcessHandle> jvm(Process script) {
+        return script.descendants()
+                .filter(p -> p.info().command().map(c -> c.endsWith("java")).orElse(false))
+                .findFirst();
+    }
+
+    private static long residentKiB(ProcessHandle process) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(process.pid()), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or already gone
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,51 @@
+#!/bin/sh
+# Measures time to the first prompt and the JVM's resident memory at that
+# point, with and without a class data sharing archive. The shell runs on a
+# pseudo terminal (via script(1), see StartupBench) so the interactive path
+# is taken; set HISTFILE to include loading a history file (a copy: each
+# run appends its exit to it and trims it to HISTFILESIZE like any session).
+#
+# Usage: benchmarks/startup.sh [RUNS] [REV...]
+# Each REV (default: the working tree) is built into a jar in a temp
+# directory, archived with a training run (shell/src/cds/train.sh, typing
+# shell/src/cds/training.sh at a prompt) and measured; e.g. "benchmarks/startup.sh 20 HEAD~1 HEAD" compares two commits.
+
+set -e
+RUNS=${1:-10}
+[ $# -gt 0 ] && shift
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+javac -d "$WORK/bench" "$ROOT/benchmarks/src/main/java/shell/StartupBench.java"
+
+build() {
+    out="$WORK/$1"
+    mkdir -p "$out/src"
+    if [ "$1" = "worktree" ]; then
+        cp -r "$ROOT"/shell "$ROOT"/java "$out/src" 2>/dev/null || true
+    else
+        git -C "$ROOT" archive "$1" | tar -x -C "$out/src"
+    fi
+    # Revisions before the Maven layout kept the sources in java/, unpackaged
+    if [ -d "$out/src/shell/src/main/java" ]; then
+        javac -d "$out/classes" $(find "$out/src/shell/src/main/java" -name '*.java')
+        main=shell.Main
+    else
+        javac -d "$out/classes" "$out"/src/java/*.java
+        main=Main
+    fi
+    jar --create --file "$out/shell.jar" --main-class "$main" -C "$out/classes" .
+    # Older revisions don't know every command in the training script;
+    # the classes they do load still end up in the archive
+    sh "$ROOT/shell/src/cds/train.sh" java "$out/shell.jsa" "$out/shell.jar" > /dev/null 2>&1 < /dev/null || true
+}
+
+for rev in ${@:-worktree}; do
+    build "$rev"
+    echo "== $rev"
+    java -cp "$WORK/bench" shell.StartupBench "$RUNS" -- java -jar "$WORK/$rev/shell.jar" | tail -n 2
+    echo "with CDS archive:"
+    java -cp "$WORK/bench" shell.StartupBench "$RUNS" -- \
+        java -XX:SharedArchiveFile="$WORK/$rev/shell.jsa" -jar "$WORK/$rev/shell.jar" | tail -n 2
+done
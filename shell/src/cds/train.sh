@@ -0,0 +1,50 @@
+#!/bin/sh
+# Writes a class data sharing archive of the classes a session loads, for
+# mvn -Pcds package and benchmarks/startup.sh. The shell runs on a pseudo
+# terminal (via script(1)) so the interactive path is archived too: raw
+# mode, the line editor, completion, history loading, search and HISTFILE
+# appends. Keys are typed once the prompt is up, as raw input; typed any
+# earlier the terminal would still be cooked and act on ^R, ^W and DEL
+# itself. The commands typed are training.sh's. Without script(1) that file
+# is run as a script instead, which archives the batch path only.
+#
+# Usage: train.sh JAVA ARCHIVE JAR
+
+set -e
+JAVA=$1
+ARCHIVE=$2
+JAR=$3
+DIR=$(cd "$(dirname "$0")" && pwd)
+
+if ! command -v script > /dev/null 2>&1; then
+    exec "$JAVA" -XX:ArchiveClassesAtExit="$ARCHIVE" -Xlog:cds=off -Xlog:cds+dynamic=off \
+        -jar "$JAR" "$DIR/training.sh" < /dev/null
+fi
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+# A history file to load in the background, search and append to, and
+# files to complete
+printf 'echo one\nls -d /\necho two\n' > "$WORK/history"
+mkdir "$WORK/dir"
+touch "$WORK/dir/file1" "$WORK/dir/file2"
+
+keys() {
+    sleep 2
+    grep -v '^#' "$DIR/training.sh" | while IFS= read -r line; do
+        printf '%s\r' "$line"
+        sleep 0.1
+    done
+    # Command and path completion, with the listing of a second Tab
+    printf 'ech\ttraining\r'
+    printf 'ls %s/di\tfi\t\t1\r' "$WORK"
+    # History recall, reverse search, and the editing keys
+    printf '\033[A\033[A\033[B\r'
+    printf '\022two\r'
+    printf 'echo abc def\033[D\033[D\177X\033[H\033[1;5C\033[F\027\025\r'
+    sleep 0.5
+    printf 'exit\r'
+}
+
+keys | HISTFILE="$WORK/history" TERM=xterm \
+    script -qec "'$JAVA' '-XX:ArchiveClassesAtExit=$ARCHIVE' -Xlog:cds=off -Xlog:cds+dynamic=off -jar '$JAR'" /dev/null
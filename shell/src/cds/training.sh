@@ -0,0 +1,17 @@
+# Training commands for the class data sharing archive (mvn -Pcds package):
+# train.sh types them at the prompt and the classes loaded are the ones
+# stored in shell/target/shell.jsa, so they touch the parser, builtins,
+# in-process filters, pipelines, redirections, history and job control.
+echo training | cat | head -n 1 | tail -n 1 | wc -l
+printf 'b\na\nb\n' | sort | uniq -c | grep -c a
+type echo ls > /dev/null 2>&1
+pwd >> /dev/null
+cd .
+hash -s > /dev/null
+history 1
+history -w /dev/null
+parallel -k echo ::: a b > /dev/null
+true &
+wait
+jobs
+shellstats > /dev/null
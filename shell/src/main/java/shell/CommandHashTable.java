@@ -0,0 +1,198 @@
+package shell;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Remembers where PATH commands were found (like bash's hash table) so a
+// command doesn't cost one stat per PATH entry every time it is run.
+class CommandHashTable {
+
+    // PATH directory mtimes are re-checked at most this often
+    private static final long REVALIDATE_INTERVAL_MS = 1000;
+
+    private static final class Entry {
+        final File file;
+        final int dirIndex;
+        int hits;
+
+        Entry(File file, int dirIndex) {
+            this.file = file;
+            this.dirIndex = dirIndex;
+        }
+    }
+
+    private final String[] directories;
+    private final long[] dirMtimes;
+    private final Map<String, Entry> table = new LinkedHashMap<>();
+    private long lastValidated = -1;
+
+    // Where a miss is resolved instead of searching PATH: a table shared
+    // with other sessions, which only ever learns from them. null for none.
+    private final CommandHashTable shared;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    CommandHashTable(String[] directories) {
+        this(directories, null);
+    }
+
+    // A session's own table on the shared table's PATH: its hash listing,
+    // hits and hash -r are its own, while what any session looked up is
+    // only searched for once
+    CommandHashTable(CommandHashTable shared) {
+        this(shared.directories, shared);
+    }
+
+    private CommandHashTable(String[] directories, CommandHashTable shared) {
+        this.directories = directories;
+        this.dirMtimes = new long[directories.length];
+        this.shared = shared;
+    }
+
+    // Returns the executable for the command, or null if it is not on PATH
+    synchronized File lookup(String command) {
+        ShellEvents.PathLookup event = ShellEvents.pathLookup();
+        long start = System.nanoTime();
+        long missesBefore = misses;
+        File file = find(command);
+        ShellStats.PATH_LOOKUP.since(start);
+        if (event != null) {
+            event.command = command;
+            event.found = file != null;
+            event.cached = misses == missesBefore;
+            event.commit();
+        }
+        return file;
+    }
+
+    private synchronized File find(String command) {
+        revalidateIfDue();
+
+        Entry entry = table.get(command);
+        if (entry != null) {
+            // The cached file must still be there, otherwise search again
+            if (entry.file.canExecute()) {
+                entry.hits++;
+                hits++;
+                return entry.file;
+            }
+            table.remove(command);
+            invalidations++;
+        }
+
+        misses++;
+        entry = search(command);
+        if (entry == null) {
+            return null;
+        }
+        entry.hits = 1;
+        table.put(command, entry);
+        return entry.file;
+    }
+
+    // Resolves and remembers the command without counting it as used
+    synchronized boolean add(String command) {
+        revalidateIfDue();
+        Entry entry = search(command);
+        if (entry == null) {
+            return false;
+        }
+        table.put(command, entry);
+        return true;
+    }
+
+    synchronized boolean forget(String command) {
+        return table.remove(command) != null;
+    }
+
+    synchronized void clear() {
+        table.clear();
+    }
+
+    synchronized void printTable(PrintStream out) {
+        if (table.isEmpty()) {
+            out.println("hash: hash table empty");
+            return;
+        }
+        out.println("hits\tcommand");
+        for (Entry entry : table.values()) {
+            out.printf("%4d\t%s%n", entry.hits, entry.file.getAbsolutePath());
+        }
+    }
+
+    synchronized void printStats(PrintStream out) {
+        out.println("entries: " + table.size());
+        out.println("hits: " + hits);
+        out.println("misses: " + misses);
+        out.println("invalidations: " + invalidations);
+    }
+
+    private Entry search(String command) {
+        if (shared != null) {
+            Entry entry = shared.resolve(command);
+            return entry != null ? new Entry(entry.file, entry.dirIndex) : null;
+        }
+        for (int i = 0; i < directories.length; i++) {
+            File file = new File(directories[i], command);
+            if (file.isFile() && file.canExecute()) {
+                return new Entry(file, i);
+            }
+        }
+        return null;
+    }
+
+    // For the sessions sharing this table: the entry for command, searched
+    // for only when no session has found it yet or it is gone
+    private synchronized Entry resolve(String command) {
+        revalidateIfDue();
+        Entry entry = table.get(command);
+        if (entry == null || !entry.file.canExecute()) {
+            misses++;
+            entry = search(command);
+            if (entry == null) {
+                table.remove(command);
+                return null;
+            }
+            table.put(command, entry);
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    private void revalidateIfDue() {
+        long now = System.currentTimeMillis();
+        if (lastValidated >= 0 && now - lastValidated < REVALIDATE_INTERVAL_MS) {
+            return;
+        }
+        boolean firstSnapshot = lastValidated < 0;
+        lastValidated = now;
+
+        // A change in directory i can add a command that shadows anything found
+        // in directory i or later, so those entries have to be resolved again
+        int firstChanged = directories.length;
+        for (int i = 0; i < directories.length; i++) {
+            long mtime = new File(directories[i]).lastModified();
+            if (mtime != dirMtimes[i]) {
+                dirMtimes[i] = mtime;
+                firstChanged = Math.min(firstChanged, i);
+            }
+        }
+        if (firstSnapshot || firstChanged == directories.length) {
+            return;
+        }
+
+        Iterator<Entry> it = table.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().dirIndex >= firstChanged) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+}
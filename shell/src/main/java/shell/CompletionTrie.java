@@ -0,0 +1,87 @@
+package shell;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Prefix tree of words for tab completion. Children are kept sorted, so
+// completions come out in alphabetical order without sorting.
+class CompletionTrie {
+
+    private static final class Node {
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        boolean terminal;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node childOrInsert(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int at = -i - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            System.arraycopy(labels, at, newLabels, at + 1, labels.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            newLabels[at] = c;
+            newChildren[at] = new Node();
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[at];
+        }
+    }
+
+    private final Node root = new Node();
+
+    void add(String word) {
+        Node node = root;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.childOrInsert(word.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    // Unmarks the word; the nodes stay, they are reused if it comes back
+    void remove(String word) {
+        Node node = find(word);
+        if (node != null) {
+            node.terminal = false;
+        }
+    }
+
+    // All words starting with the prefix, in sorted order
+    List<String> complete(String prefix) {
+        List<String> result = new ArrayList<>();
+        Node node = find(prefix);
+        if (node != null) {
+            collect(node, new StringBuilder(prefix), result);
+        }
+        return result;
+    }
+
+    private Node find(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    private static void collect(Node node, StringBuilder word, List<String> result) {
+        if (node.terminal) {
+            result.add(word.toString());
+        }
+        for (int i = 0; i < node.labels.length; i++) {
+            word.append(node.labels[i]);
+            collect(node.children[i], word, result);
+            word.setLength(word.length() - 1);
+        }
+    }
+}
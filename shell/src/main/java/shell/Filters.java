@@ -0,0 +1,659 @@
+package shell;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// In-process versions of the text filters pipelines use most (head, tail,
+// wc, grep, sort, uniq), run as pipeline stages instead of forking the real
+// programs. They work on bytes, like the C locale versions. create() only
+// returns a filter for the options it implements; anything else is left to
+// the program on PATH.
+class Filters {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    interface Filter {
+        // Returns the exit status
+        int run(InputStream in, OutputStream out, PrintStream err) throws IOException;
+    }
+
+    // Returns null when the command or one of its options isn't handled here.
+    // environment is the session's, for the variables a filter reads (sort's
+    // TMPDIR and locale)
+    static Filter create(ShellSession.ShellType type, String[] args, File dir, Map<String, String> environment) {
+        return switch (type) {
+            case HEAD -> HeadTail.parse(args, dir, false);
+            case TAIL -> HeadTail.parse(args, dir, true);
+            case WC -> Wc.parse(args, dir);
+            case GREP -> Grep.parse(args, dir);
+            case SORT -> Sort.parse(args, dir, environment);
+            case UNIQ -> Uniq.parse(args, dir);
+            default -> null;
+        };
+    }
+
+    // Walks getopt-style arguments: clustered flags (-rn), option values
+    // attached or separate (-n5, -n 5), operands anywhere and "--"
+    static final class Options {
+        private final String[] args;
+        private int index = 0;
+        private int offset = 0; // position in args[index] while inside a cluster
+        final List<String> operands = new ArrayList<>();
+
+        Options(String[] args) {
+            this.args = args;
+        }
+
+        // The next option letter, '?' for a long option, 0 at the end
+        char next() {
+            while (offset == 0) {
+                if (index == args.length) {
+                    return 0;
+                }
+                String arg = args[index];
+                if (arg.equals("--")) {
+                    operands.addAll(Arrays.asList(args).subList(index + 1, args.length));
+                    index = args.length;
+                    return 0;
+                }
+                if (arg.length() < 2 || arg.charAt(0) != '-') {
+                    operands.add(arg);
+                    index++;
+                    continue;
+                }
+                if (arg.charAt(1) == '-') {
+                    return '?';
+                }
+                offset = 1;
+            }
+            String arg = args[index];
+            char option = arg.charAt(offset++);
+            if (offset == arg.length()) {
+                index++;
+                offset = 0;
+            }
+            return option;
+        }
+
+        // The value of the option just returned, or null if it is missing
+        String value() {
+            if (offset > 0) {
+                String value = args[index].substring(offset);
+                index++;
+                offset = 0;
+                return value;
+            }
+            return index < args.length ? args[index++] : null;
+        }
+    }
+
+    static long parseCount(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Opens a file operand; "-" is the filter's standard input
+    static InputStream open(String name, InputStream stdin, File dir) throws IOException {
+        if (name.equals("-")) {
+            return stdin;
+        }
+        Path path = dir.toPath().resolve(name);
+        if (Files.isDirectory(path)) {
+            throw new FileNotFoundException("Is a directory");
+        }
+        return Files.newInputStream(path);
+    }
+
+    static String reason(IOException e) {
+        if (e instanceof NoSuchFileException) {
+            return "No such file or directory";
+        }
+        if (e instanceof AccessDeniedException) {
+            return "Permission denied";
+        }
+        return e.getMessage();
+    }
+
+    static void closeInput(InputStream in, InputStream stdin) throws IOException {
+        if (in != stdin) {
+            in.close();
+        }
+    }
+
+    static BufferedOutputStream buffered(OutputStream out) {
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    // head and tail: the first or last lines (-n) or bytes (-c) of each input
+    private static final class HeadTail implements Filter {
+        private final boolean tail;
+        private final boolean bytes;
+        private final long count;
+        private final boolean fromStart; // tail -n +N: from the Nth line on
+        private final List<String> files;
+        private final File dir;
+
+        private HeadTail(boolean tail, boolean bytes, long count, boolean fromStart, List<String> files, File dir) {
+            this.tail = tail;
+            this.bytes = bytes;
+            this.count = count;
+            this.fromStart = fromStart;
+            this.files = files;
+            this.dir = dir;
+        }
+
+        static Filter parse(String[] args, File dir, boolean tail) {
+            // The obsolete -NUM form, as in "head -5"
+            if (args.length > 0 && args[0].length() > 1 && args[0].charAt(0) == '-'
+                    && args[0].chars().skip(1).allMatch(Character::isDigit)) {
+                String[] rest = new String[args.length + 1];
+                rest[0] = "-n";
+                rest[1] = args[0].substring(1);
+                System.arraycopy(args, 1, rest, 2, args.length - 1);
+                args = rest;
+            }
+
+            Options options = new Options(args);
+            boolean bytes = false;
+            String value = "10";
+            for (char c = options.next(); c != 0; c = options.next()) {
+                switch (c) {
+                    case 'n' -> {
+                        bytes = false;
+                        value = options.value();
+                    }
+                    case 'c' -> {
+                        bytes = true;
+                        value = options.value();
+                    }
+                    default -> {
+                        return null;
+                    }
+                }
+            }
+
+            boolean fromStart = tail && value != null && value.startsWith("+");
+            long count = parseCount(fromStart ? value.substring(1) : value);
+            if (count < 0) {
+                // Negative counts (all but the last N) and size suffixes
+                return null;
+            }
+            return new HeadTail(tail, bytes, count, fromStart, options.operands, dir);
+        }
+
+        @Override
+        public int run(InputStream stdin, OutputStream output, PrintStream err) throws IOException {
+            BufferedOutputStream out = buffered(output);
+            List<String> inputs = files.isEmpty() ? List.of("-") : files;
+            int status = 0;
+            boolean first = true;
+            for (String name : inputs) {
+                InputStream in;
+                try {
+                    in = open(name, stdin, dir);
+                } catch (IOException e) {
+                    err.println((tail ? "tail" : "head") + ": cannot open '" + name + "' for reading: " + reason(e));
+                    status = 1;
+                    continue;
+                }
+                if (inputs.size() > 1) {
+                    String header = (first ? "" : "\n") + "==> " + (name.equals("-") ? "standard input" : name) + " <==\n";
+                    out.write(header.getBytes(StandardCharsets.UTF_8));
+                }
+                first = false;
+                try {
+                    if (!tail) {
+                        head(in, out);
+                    } else if (fromStart) {
+                        skip(in, out);
+                    } else if (in == stdin || !lastLinesOfFile(name, out)) {
+                        last(in, out);
+                    }
+                } finally {
+                    closeInput(in, stdin);
+                }
+            }
+            out.flush();
+            return status;
+        }
+
+        // Stops reading as soon as it has enough; the stage's input is closed
+        // when it returns, which stops the writer upstream
+        private void head(InputStream in, BufferedOutputStream out) throws IOException {
+            if (bytes) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long left = count;
+                while (left > 0) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                    if (n < 0) {
+                        break;
+                    }
+                    out.write(buffer, 0, n);
+                    left -= n;
+                }
+                return;
+            }
+            LineReader lines = new LineReader(in, out);
+            for (long i = 0; i < count && lines.next(); i++) {
+                writeLine(lines, out);
+            }
+        }
+
+        // tail -n +N / -c +N
+        private void skip(InputStream in, BufferedOutputStream out) throws IOException {
+            long toSkip = Math.max(0, count - 1);
+            if (bytes) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    int from = (int) Math.min(n, toSkip);
+                    toSkip -= from;
+                    out.write(buffer, from, n - from);
+                }
+                return;
+            }
+            LineReader lines = new LineReader(in, out);
+            for (long i = 0; lines.next(); i++) {
+                if (i >= toSkip) {
+                    writeLine(lines, out);
+                }
+            }
+        }
+
+        // Keeps the last lines (or bytes) in a ring while reading through
+        private void last(InputStream in, BufferedOutputStream out) throws IOException {
+            if (count == 0) {
+                return;
+            }
+            if (bytes) {
+                int size = (int) Math.min(count, Integer.MAX_VALUE - 8);
+                byte[] ring = new byte[size];
+                long total = 0;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    for (int i = 0; i < n; i++) {
+                        ring[(int) (total++ % size)] = buffer[i];
+                    }
+                }
+                int kept = (int) Math.min(total, size);
+                int from = (int) ((total - kept) % size);
+                for (int i = 0; i < kept; i++) {
+                    out.write(ring[(from + i) % size]);
+                }
+                return;
+            }
+
+            ArrayDeque<byte[]> ring = new ArrayDeque<>();
+            boolean lastHasNewline = true;
+            LineReader lines = new LineReader(in, null);
+            while (lines.next()) {
+                if (ring.size() == count) {
+                    ring.removeFirst();
+                }
+                ring.addLast(Arrays.copyOfRange(lines.buffer(), lines.start(), lines.end()));
+                lastHasNewline = lines.hasNewline();
+            }
+            while (!ring.isEmpty()) {
+                out.write(ring.removeFirst());
+                if (!ring.isEmpty() || lastHasNewline) {
+                    out.write('\n');
+                }
+            }
+        }
+
+        // Reads a regular file backwards from its end until it has passed
+        // enough newlines, so tail of a big file doesn't read all of it.
+        // Returns false when the file can't be read that way.
+        private boolean lastLinesOfFile(String name, BufferedOutputStream out) throws IOException {
+            Path path = dir.toPath().resolve(name);
+            if (!Files.isRegularFile(path)) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size == 0) {
+                    return false; // /proc files report no size
+                }
+                long start;
+                if (bytes) {
+                    start = Math.max(0, size - count);
+                } else {
+                    start = lineStartFromEnd(channel, size);
+                }
+                out.flush();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                for (long position = start; position < size; ) {
+                    buffer.clear();
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        break;
+                    }
+                    out.write(buffer.array(), 0, n);
+                    position += n;
+                }
+                return true;
+            }
+        }
+
+        private long lineStartFromEnd(FileChannel channel, long size) throws IOException {
+            if (count == 0) {
+                return size;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long newlines = 0;
+            long end = size;
+            // A newline ending the file doesn't start another line
+            boolean skipLast = true;
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                channel.read(buffer, start);
+                byte[] data = buffer.array();
+                for (int i = (int) (end - start) - 1; i >= 0; i--) {
+                    if (data[i] == '\n') {
+                        if (skipLast && start + i == size - 1) {
+                            continue;
+                        }
+                        if (++newlines == count) {
+                            return start + i + 1;
+                        }
+                    }
+                }
+                skipLast = false;
+                end = start;
+            }
+            return 0;
+        }
+    }
+
+    static void writeLine(LineReader lines, OutputStream out) throws IOException {
+        out.write(lines.buffer(), lines.start(), lines.length());
+        if (lines.hasNewline()) {
+            out.write('\n');
+        }
+    }
+
+    // wc: newline, word and byte counts
+    private static final class Wc implements Filter {
+        private final boolean lines;
+        private final boolean words;
+        private final boolean bytes;
+        private final List<String> files;
+        private final File dir;
+
+        private Wc(boolean lines, boolean words, boolean bytes, List<String> files, File dir) {
+            this.lines = lines;
+            this.words = words;
+            this.bytes = bytes;
+            this.files = files;
+            this.dir = dir;
+        }
+
+        static Filter parse(String[] args, File dir) {
+            Options options = new Options(args);
+            boolean lines = false;
+            boolean words = false;
+            boolean bytes = false;
+            for (char c = options.next(); c != 0; c = options.next()) {
+                switch (c) {
+                    case 'l' -> lines = true;
+                    case 'w' -> words = true;
+                    case 'c' -> bytes = true;
+                    default -> {
+                        // -m counts characters, which depends on the locale
+                        return null;
+                    }
+                }
+            }
+            if (!lines && !words && !bytes) {
+                lines = words = bytes = true;
+            }
+            return new Wc(lines, words, bytes, options.operands, dir);
+        }
+
+        @Override
+        public int run(InputStream stdin, OutputStream output, PrintStream err) throws IOException {
+            List<String> inputs = files.isEmpty() ? List.of("-") : files;
+            long[][] counts = new long[inputs.size()][];
+            int status = 0;
+            for (int i = 0; i < inputs.size(); i++) {
+                String name = inputs.get(i);
+                try {
+                    InputStream in = open(name, stdin, dir);
+                    try {
+                        counts[i] = count(in);
+                    } finally {
+                        closeInput(in, stdin);
+                    }
+                } catch (IOException e) {
+                    err.println("wc: " + name + ": " + reason(e));
+                    status = 1;
+                }
+            }
+
+            int width = numberWidth(inputs);
+            StringBuilder text = new StringBuilder();
+            long[] total = new long[3];
+            for (int i = 0; i < inputs.size(); i++) {
+                if (counts[i] == null) {
+                    continue;
+                }
+                for (int k = 0; k < 3; k++) {
+                    total[k] += counts[i][k];
+                }
+                format(text, counts[i], width, files.isEmpty() ? null : inputs.get(i));
+            }
+            if (inputs.size() > 1) {
+                format(text, total, width, "total");
+            }
+            output.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            return status;
+        }
+
+        private static long[] count(InputStream in) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long lines = 0;
+            long words = 0;
+            long bytes = 0;
+            boolean inWord = false;
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                bytes += n;
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        lines++;
+                    }
+                    boolean space = b == ' ' || (b >= '\t' && b <= '\r');
+                    if (!space && !inWord) {
+                        words++;
+                    }
+                    inWord = !space;
+                }
+            }
+            return new long[] {lines, words, bytes};
+        }
+
+        // Like GNU wc: wide enough for the total size of the regular files,
+        // at least 7 when reading a pipe, and unpadded for a single count
+        // of a single input
+        private int numberWidth(List<String> inputs) {
+            int shown = (lines ? 1 : 0) + (words ? 1 : 0) + (bytes ? 1 : 0);
+            if (shown == 1 && inputs.size() == 1) {
+                return 1;
+            }
+            int minimum = 1;
+            long regularTotal = 0;
+            for (String name : inputs) {
+                File file = dir.toPath().resolve(name).toFile();
+                if (!name.equals("-") && file.isFile()) {
+                    regularTotal += file.length();
+                } else {
+                    minimum = 7;
+                }
+            }
+            int width = 1;
+            for (; regularTotal >= 10; regularTotal /= 10) {
+                width++;
+            }
+            return Math.max(width, minimum);
+        }
+
+        private void format(StringBuilder text, long[] counts, int width, String name) {
+            boolean[] shown = {lines, words, bytes};
+            boolean first = true;
+            for (int k = 0; k < 3; k++) {
+                if (!shown[k]) {
+                    continue;
+                }
+                if (!first) {
+                    text.append(' ');
+                }
+                String number = Long.toString(counts[k]);
+                for (int pad = number.length(); pad < width; pad++) {
+                    text.append(' ');
+                }
+                text.append(number);
+                first = false;
+            }
+            if (name != null) {
+                text.append(' ').append(name);
+            }
+            text.append('\n');
+        }
+    }
+
+    // uniq: collapses runs of equal adjacent lines
+    private static final class Uniq implements Filter {
+        private final boolean count;
+        private final boolean repeatedOnly;
+        private final boolean uniqueOnly;
+        private final boolean ignoreCase;
+        private final String file;
+        private final File dir;
+
+        private Uniq(boolean count, boolean repeatedOnly, boolean uniqueOnly, boolean ignoreCase, String file, File dir) {
+            this.count = count;
+            this.repeatedOnly = repeatedOnly;
+            this.uniqueOnly = uniqueOnly;
+            this.ignoreCase = ignoreCase;
+            this.file = file;
+            this.dir = dir;
+        }
+
+        static Filter parse(String[] args, File dir) {
+            Options options = new Options(args);
+            boolean count = false;
+            boolean repeatedOnly = false;
+            boolean uniqueOnly = false;
+            boolean ignoreCase = false;
+            for (char c = options.next(); c != 0; c = options.next()) {
+                switch (c) {
+                    case 'c' -> count = true;
+                    case 'd' -> repeatedOnly = true;
+                    case 'u' -> uniqueOnly = true;
+                    case 'i' -> ignoreCase = true;
+                    default -> {
+                        // Field and character skipping are left to uniq
+                        return null;
+                    }
+                }
+            }
+            if (options.operands.size() > 1) {
+                // An output file operand
+                return null;
+            }
+            String file = options.operands.isEmpty() ? "-" : options.operands.get(0);
+            return new Uniq(count, repeatedOnly, uniqueOnly, ignoreCase, file, dir);
+        }
+
+        @Override
+        public int run(InputStream stdin, OutputStream output, PrintStream err) throws IOException {
+            InputStream in;
+            try {
+                in = open(file, stdin, dir);
+            } catch (IOException e) {
+                err.println("uniq: " + file + ": " + reason(e));
+                return 1;
+            }
+            BufferedOutputStream out = buffered(output);
+            try {
+                LineReader lines = new LineReader(in, out);
+                byte[] previous = null;
+                long repeats = 0;
+                while (lines.next()) {
+                    if (previous != null && same(previous, lines)) {
+                        repeats++;
+                        continue;
+                    }
+                    if (previous != null) {
+                        emit(previous, repeats, out);
+                    }
+                    previous = Arrays.copyOfRange(lines.buffer(), lines.start(), lines.end());
+                    repeats = 1;
+                }
+                if (previous != null) {
+                    emit(previous, repeats, out);
+                }
+            } finally {
+                closeInput(in, stdin);
+            }
+            out.flush();
+            return 0;
+        }
+
+        private boolean same(byte[] previous, LineReader lines) {
+            if (previous.length != lines.length()) {
+                return false;
+            }
+            byte[] buffer = lines.buffer();
+            int start = lines.start();
+            for (int i = 0; i < previous.length; i++) {
+                byte a = previous[i];
+                byte b = buffer[start + i];
+                if (a != b && (!ignoreCase || Sort.upper(a) != Sort.upper(b))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void emit(byte[] line, long repeats, OutputStream out) throws IOException {
+            if ((repeatedOnly && repeats == 1) || (uniqueOnly && repeats > 1)) {
+                return;
+            }
+            if (count) {
+                out.write(String.format("%7d ", repeats).getBytes(StandardCharsets.US_ASCII));
+            }
+            out.write(line);
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package shell;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// grep with the common options (-i -v -c -n -l -q -s -h -H -w -x -m, -e,
+// -F/-G/-E). Patterns without metacharacters are searched for as bytes;
+// the rest are translated from POSIX basic or extended syntax to
+// java.util.regex and matched against an ASCII view of each line, so only
+// lines with non-ASCII bytes are decoded.
+class Grep implements Filters.Filter {
+
+    private static final String STDIN_NAME = "(standard input)";
+
+    private final byte[][] literals; // null when matching with the regex
+    private final Pattern regex;
+    private final boolean ignoreCase;
+    private final boolean invert;
+    private final boolean countOnly;
+    private final boolean lineNumbers;
+    private final boolean listFiles;
+    private final boolean quiet;
+    private final boolean noMessages;
+    private final boolean wholeLine;
+    private final long maxCount;
+    private final Boolean withFileName; // null: only with several files
+    private final List<String> files;
+    private final File dir;
+
+    private Grep(byte[][] literals, Pattern regex, boolean ignoreCase, boolean invert, boolean countOnly,
+                 boolean lineNumbers, boolean listFiles, boolean quiet, boolean noMessages, boolean wholeLine,
+                 long maxCount, Boolean withFileName, List<String> files, File dir) {
+        this.literals = literals;
+        this.regex = regex;
+        this.ignoreCase = ignoreCase;
+        this.invert = invert;
+        this.countOnly = countOnly;
+        this.lineNumbers = lineNumbers;
+        this.listFiles = listFiles;
+        this.quiet = quiet;
+        this.noMessages = noMessages;
+        this.wholeLine = wholeLine;
+        this.maxCount = maxCount;
+        this.withFileName = withFileName;
+        this.files = files;
+        this.dir = dir;
+    }
+
+    static Filters.Filter parse(String[] args, File dir) {
+        Filters.Options options = new Filters.Options(args);
+        List<String> patterns = new ArrayList<>();
+        boolean fixed = false;
+        boolean extended = false;
+        boolean ignoreCase = false;
+        boolean invert = false;
+        boolean countOnly = false;
+        boolean lineNumbers = false;
+        boolean listFiles = false;
+        boolean quiet = false;
+        boolean noMessages = false;
+        boolean words = false;
+        boolean wholeLine = false;
+        long maxCount = Long.MAX_VALUE;
+        Boolean withFileName = null;
+        for (char c = options.next(); c != 0; c = options.next()) {
+            switch (c) {
+                case 'e' -> {
+                    String value = options.value();
+                    if (value == null) {
+                        return null;
+                    }
+                    patterns.add(value);
+                }
+                case 'F' -> fixed = true;
+                case 'E' -> extended = true;
+                case 'G' -> extended = false;
+                case 'i' -> ignoreCase = true;
+                case 'v' -> invert = true;
+                case 'c' -> countOnly = true;
+                case 'n' -> lineNumbers = true;
+                case 'l' -> listFiles = true;
+                case 'q' -> quiet = true;
+                case 's' -> noMessages = true;
+                case 'w' -> words = true;
+                case 'x' -> wholeLine = true;
+                case 'h' -> withFileName = false;
+                case 'H' -> withFileName = true;
+                case 'm' -> {
+                    maxCount = Filters.parseCount(options.value());
+                    if (maxCount < 0) {
+                        return null;
+                    }
+                }
+                default -> {
+                    // Context, -o, -r, -P and long options are left to grep
+                    return null;
+                }
+            }
+        }
+
+        List<String> operands = new ArrayList<>(options.operands);
+        if (patterns.isEmpty()) {
+            if (operands.isEmpty()) {
+                return null;
+            }
+            patterns.add(operands.remove(0));
+        }
+        // A newline separates patterns, like -e
+        List<String> split = new ArrayList<>();
+        for (String pattern : patterns) {
+            split.addAll(List.of(pattern.split("\n", -1)));
+        }
+
+        byte[][] literals = null;
+        Pattern regex = null;
+        boolean ere = extended;
+        boolean plain = fixed || split.stream().noneMatch(p -> hasMetacharacters(p, ere));
+        boolean asciiCase = !ignoreCase || split.stream().allMatch(p -> p.chars().allMatch(ch -> ch < 0x80));
+        if (plain && !words && !wholeLine && asciiCase) {
+            literals = new byte[split.size()][];
+            for (int i = 0; i < split.size(); i++) {
+                literals[i] = split.get(i).getBytes(StandardCharsets.UTF_8);
+                if (ignoreCase) {
+                    for (int k = 0; k < literals[i].length; k++) {
+                        literals[i][k] = Sort.upper(literals[i][k]);
+                    }
+                }
+            }
+        } else {
+            StringBuilder joined = new StringBuilder();
+            for (String pattern : split) {
+                String translated = plain ? Pattern.quote(pattern) : toJava(pattern, extended);
+                if (translated == null) {
+                    // Let grep report the error in its own words
+                    return null;
+                }
+                if (joined.length() > 0) {
+                    joined.append('|');
+                }
+                joined.append("(?:").append(translated).append(')');
+            }
+            String expression = joined.toString();
+            if (words) {
+                expression = "(?<![\\p{Alnum}_])(?:" + expression + ")(?![\\p{Alnum}_])";
+            }
+            try {
+                // Only \n ends a line, for ., ^ and $ too: a \r before it is
+                // an ordinary character, as in grep
+                int flags = Pattern.UNIX_LINES | (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+                regex = Pattern.compile(expression, flags);
+            } catch (PatternSyntaxException e) {
+                // Let grep report the error in its own words
+                return null;
+            }
+        }
+        return new Grep(literals, regex, ignoreCase, invert, countOnly, lineNumbers, listFiles, quiet,
+                noMessages, wholeLine, maxCount, withFileName, operands, dir);
+    }
+
+    static boolean hasMetacharacters(String pattern, boolean extended) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if ("\\.[]*^$".indexOf(c) >= 0 || (extended && "+?(){}|".indexOf(c) >= 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Translates a POSIX basic (or extended) regular expression; null if it
+    // is malformed in a way Java would accept
+    static String toJava(String pattern, boolean extended) {
+        StringBuilder out = new StringBuilder();
+        int length = pattern.length();
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            if (c == '[') {
+                i = bracket(pattern, i, out);
+                if (i < 0) {
+                    return null;
+                }
+                continue;
+            }
+            if (c == '\\' && i + 1 < length) {
+                char next = pattern.charAt(++i);
+                if (!extended && "(){}|+?".indexOf(next) >= 0) {
+                    out.append(next);
+                } else if (next >= '1' && next <= '9') {
+                    out.append('\\').append(next);
+                } else if (next == '<' || next == '>') {
+                    out.append("\\b");
+                } else if ("wWsSbB".indexOf(next) >= 0) {
+                    out.append('\\').append(next);
+                } else {
+                    out.append(Pattern.quote(String.valueOf(next)));
+                }
+                continue;
+            }
+            boolean atStart = i == 0 || (!extended && pattern.startsWith("\\(", i - 2)) || (extended && pattern.charAt(i - 1) == '(');
+            if (!extended && "(){}|+?".indexOf(c) >= 0) {
+                out.append('\\').append(c);
+            } else if (c == '*' && atStart) {
+                out.append("\\*");
+            } else if (c == '^' && !extended && !atStart) {
+                out.append("\\^");
+            } else if (c == '$' && !extended && i != length - 1 && !pattern.startsWith("\\)", i + 1)) {
+                out.append("\\$");
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    // Copies a bracket expression; returns the index of its closing ']', or
+    // -1 when there is none (grep's "Unmatched [" error)
+    private static int bracket(String pattern, int open, StringBuilder out) {
+        int i = open + 1;
+        StringBuilder set = new StringBuilder("[");
+        if (i < pattern.length() && pattern.charAt(i) == '^') {
+            set.append('^');
+            i++;
+        }
+        boolean first = true;
+        for (; i < pattern.length(); i++, first = false) {
+            char c = pattern.charAt(i);
+            if (c == ']' && !first) {
+                out.append(set).append(']');
+                return i;
+            }
+            if (c == '[' && i + 1 < pattern.length() && pattern.charAt(i + 1) == ':') {
+                int close = pattern.indexOf(":]", i + 2);
+                if (close > 0) {
+                    String name = pattern.substring(i + 2, close);
+                    set.append(name.equals("xdigit") ? "\\p{XDigit}" : "\\p{" + Character.toUpperCase(name.charAt(0)) + name.substring(1) + "}");
+                    i = close + 1;
+                    continue;
+                }
+            }
+            if (c == '\\' || c == '[' || c == ']' || c == '&') {
+                set.append('\\');
+            }
+            set.append(c);
+        }
+        return -1;
+    }
+
+    @Override
+    public int run(InputStream stdin, OutputStream output, PrintStream err) throws IOException {
+        List<String> inputs = files.isEmpty() ? List.of("-") : files;
+        boolean names = withFileName != null ? withFileName : inputs.size() > 1;
+        BufferedOutputStream out = Filters.buffered(output);
+        boolean matched = false;
+        boolean failed = false;
+        for (String name : inputs) {
+            InputStream in;
+            try {
+                in = Filters.open(name, stdin, dir);
+            } catch (IOException e) {
+                if (!noMessages) {
+                    err.println("grep: " + name + ": " + Filters.reason(e));
+                }
+                failed = true;
+                continue;
+            }
+            String label = name.equals("-") ? STDIN_NAME : name;
+            try {
+                long count = search(in, out, names ? label : null);
+                if (count > 0) {
+                    matched = true;
+                    if (quiet) {
+                        break;
+                    }
+                }
+                if (countOnly) {
+                    write(out, (names ? label + ":" : "") + count + "\n");
+                } else if (listFiles && count > 0) {
+                    write(out, label + "\n");
+                }
+            } finally {
+                Filters.closeInput(in, stdin);
+            }
+        }
+        out.flush();
+        if (matched && quiet) {
+            return 0;
+        }
+        return failed ? 2 : matched ? 0 : 1;
+    }
+
+    // Returns the number of selected lines; stops early when that's all
+    // that is needed
+    private long search(InputStream in, BufferedOutputStream out, String label) throws IOException {
+        boolean print = !countOnly && !listFiles && !quiet;
+        long limit = (quiet || listFiles) ? 1 : maxCount;
+        LineReader lines = new LineReader(in, out);
+        AsciiView view = new AsciiView();
+        Matcher matcher = regex != null ? regex.matcher("") : null;
+        long count = 0;
+        long number = 0;
+        while (count < limit && lines.next()) {
+            number++;
+            if (matches(lines, view, matcher) == invert) {
+                continue;
+            }
+            count++;
+            if (print) {
+                if (label != null) {
+                    write(out, label + ":");
+                }
+                if (lineNumbers) {
+                    write(out, number + ":");
+                }
+                out.write(lines.buffer(), lines.start(), lines.length());
+                out.write('\n');
+            }
+        }
+        return count;
+    }
+
+    private boolean matches(LineReader lines, AsciiView view, Matcher matcher) {
+        byte[] buffer = lines.buffer();
+        int start = lines.start();
+        int end = lines.end();
+        if (literals != null) {
+            for (byte[] literal : literals) {
+                if (indexOf(buffer, start, end, literal) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        CharSequence text = view.reset(buffer, start, end)
+                ? view
+                : new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        matcher.reset(text);
+        return wholeLine ? matcher.matches() : matcher.find();
+    }
+
+    private int indexOf(byte[] buffer, int start, int end, byte[] literal) {
+        int last = end - literal.length;
+        if (literal.length == 0) {
+            return start;
+        }
+        byte first = literal[0];
+        for (int i = start; i <= last; i++) {
+            byte b = ignoreCase ? Sort.upper(buffer[i]) : buffer[i];
+            if (b != first) {
+                continue;
+            }
+            int k = 1;
+            while (k < literal.length
+                    && (ignoreCase ? Sort.upper(buffer[i + k]) : buffer[i + k]) == literal[k]) {
+                k++;
+            }
+            if (k == literal.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // A line of ASCII bytes seen as characters without copying them
+    private static final class AsciiView implements CharSequence {
+        private byte[] buffer;
+        private int start;
+        private int length;
+
+        // Returns false when the line has non-ASCII bytes and must be decoded
+        boolean reset(byte[] buffer, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (buffer[i] < 0) {
+                    return false;
+                }
+            }
+            this.buffer = buffer;
+            this.start = start;
+            this.length = end - start;
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) buffer[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new String(buffer, start + from, to - from, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, start, length, StandardCharsets.US_ASCII);
+        }
+    }
+}
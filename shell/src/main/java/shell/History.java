@@ -0,0 +1,310 @@
+package shell;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Command history with a fixed capacity (HISTSIZE). Entries are kept as
+// UTF-8 bytes in one shared arena, indexed by a ring of offsets, and only
+// become Strings when read. Numbering is absolute like bash: when old
+// entries fall out of the ring, first() moves on but indexes stay valid.
+//
+// History files are memory-mapped and scanned backwards, so only the last
+// `capacity` lines are ever touched however big the file is. Those lines
+// are copied out rather than read from the mapping later: HISTFILE is
+// compacted in place and rewritten by other shells, which would change the
+// mapped bytes under us.
+class History {
+
+    private final int capacity;
+    private final boolean ignoreDups;
+
+    // Ring of entries: slot (head + k) % offsets.length holds entry first + k
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int head = 0;
+    private int count = 0;
+    private int first = 0;
+
+    // Entry bytes, appended at arenaEnd; space of evicted entries is
+    // reclaimed by compacting when the end is reached
+    private byte[] arena = new byte[4096];
+    private int arenaEnd = 0;
+    private long liveBytes = 0;
+
+    private int loaded = 0;          // entries that came from files
+    private boolean loading = false; // a background load is running
+
+    History(int capacity, boolean ignoreDups) {
+        this.capacity = capacity;
+        this.ignoreDups = ignoreDups;
+    }
+
+    synchronized void add(String command) {
+        awaitLoad();
+        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        if (ignoreDups && count > 0 && sameAsLast(bytes)) {
+            return;
+        }
+        append(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    // Absolute index one past the newest entry. Like first() it doesn't wait
+    // for a background load: until that has finished it leaves out the
+    // file's entries, so callers about to number entries call waitForLoad()
+    synchronized int size() {
+        return first + count;
+    }
+
+    // The most entries kept at once (HISTSIZE)
+    int capacity() {
+        return capacity;
+    }
+
+    // Absolute index of the oldest entry still kept
+    synchronized int first() {
+        return first;
+    }
+
+    // Returns once a background load has added the file's entries
+    synchronized void waitForLoad() {
+        awaitLoad();
+    }
+
+    synchronized String get(int index) {
+        awaitLoad();
+        if (index < first || index >= first + count) {
+            throw new IndexOutOfBoundsException("history index " + index);
+        }
+        int slot = (head + index - first) % offsets.length;
+        return new String(arena, offsets[slot], lengths[slot], StandardCharsets.UTF_8);
+    }
+
+    // Number of entries (including ones since evicted) that came from files
+    synchronized int loadedCount() {
+        awaitLoad();
+        return loaded;
+    }
+
+    // Appends the last lines of a file
+    synchronized void load(Path file) throws IOException {
+        awaitLoad();
+        Tail tail = readTail(file);
+        if (tail != null) {
+            append(tail);
+        }
+    }
+
+    // Like load(), but returns at once, before the file is even opened. The
+    // file is read without holding this history's lock, so size() and
+    // first() answer meanwhile (without the file's entries); get(), add()
+    // and the other calls wait until it has finished, so commands added
+    // meanwhile still come after the file's.
+    synchronized void loadInBackground(Path file) {
+        awaitLoad();
+        loading = true;
+        Thread loader = new Thread(() -> {
+            Tail tail = null;
+            try {
+                tail = readTail(file);
+            } catch (IOException | RuntimeException e) {
+                // Unreadable, or it changed underneath us: keep what was loaded
+            }
+            synchronized (this) {
+                try {
+                    if (tail != null) {
+                        append(tail);
+                    }
+                } finally {
+                    loading = false;
+                    notifyAll();
+                }
+            }
+        }, "history-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private void awaitLoad() {
+        boolean interrupted = false;
+        while (loading) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The last lines of a file, oldest first: their bytes one after the
+    // other, and each one's length
+    private record Tail(byte[] bytes, int[] lengths, int count) {
+    }
+
+    private Tail readTail(Path file) throws IOException {
+        MappedByteBuffer map = map(file);
+        return map != null ? tail(map) : null;
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return null;
+            }
+            // A single mapping holds at most 2 GB, older lines can't be reached anyway
+            long base = Math.max(0, size - Integer.MAX_VALUE);
+            return channel.map(FileChannel.MapMode.READ_ONLY, base, size - base);
+        }
+    }
+
+    // Walks the mapping backwards collecting up to `capacity` non-blank
+    // lines, then copies them out oldest first
+    private Tail tail(MappedByteBuffer map) {
+        int[] starts = new int[Math.max(16, Math.min(capacity, 1024))];
+        int[] ends = new int[starts.length];
+        int found = 0;
+
+        int end = map.limit();
+        int i = end - 1;
+        while (i >= -1 && found < capacity) {
+            if (i == -1 || map.get(i) == '\n') {
+                int start = i + 1;
+                int lineEnd = end;
+                if (lineEnd > start && map.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                if (!isBlank(map, start, lineEnd)) {
+                    if (found == starts.length) {
+                        starts = Arrays.copyOf(starts, found * 2);
+                        ends = Arrays.copyOf(ends, found * 2);
+                    }
+                    starts[found] = start;
+                    ends[found] = lineEnd;
+                    found++;
+                }
+                end = i;
+            }
+            i--;
+        }
+
+        long total = 0;
+        for (int k = 0; k < found; k++) {
+            total += ends[k] - starts[k];
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new OutOfMemoryError("history file tail too large");
+        }
+        byte[] bytes = new byte[(int) total];
+        int[] lengths = new int[found];
+        int position = 0;
+        for (int k = found - 1; k >= 0; k--) {
+            int length = ends[k] - starts[k];
+            map.get(starts[k], bytes, position, length);
+            lengths[found - 1 - k] = length;
+            position += length;
+        }
+        return new Tail(bytes, lengths, found);
+    }
+
+    private void append(Tail tail) {
+        ByteBuffer bytes = ByteBuffer.wrap(tail.bytes());
+        int position = 0;
+        for (int k = 0; k < tail.count(); k++) {
+            append(bytes, position, tail.lengths()[k]);
+            position += tail.lengths()[k];
+        }
+        loaded += tail.count();
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((buffer.get(i) & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameAsLast(byte[] bytes) {
+        int slot = (head + count - 1) % offsets.length;
+        return lengths[slot] == bytes.length
+                && Arrays.equals(arena, offsets[slot], offsets[slot] + lengths[slot], bytes, 0, bytes.length);
+    }
+
+    private void append(ByteBuffer source, int start, int length) {
+        if (capacity <= 0) {
+            return;
+        }
+        if (count == capacity) {
+            evictOldest();
+        } else if (count == offsets.length) {
+            growRing();
+        }
+        if (arenaEnd + length > arena.length) {
+            makeRoom(length);
+        }
+
+        source.get(start, arena, arenaEnd, length);
+        int slot = (head + count) % offsets.length;
+        offsets[slot] = arenaEnd;
+        lengths[slot] = length;
+        arenaEnd += length;
+        liveBytes += length;
+        count++;
+    }
+
+    private void evictOldest() {
+        liveBytes -= lengths[head];
+        head = (head + 1) % offsets.length;
+        count--;
+        first++;
+    }
+
+    private void growRing() {
+        int newLength = (int) Math.min((long) offsets.length * 2, capacity);
+        int[] newOffsets = new int[newLength];
+        int[] newLengths = new int[newLength];
+        for (int k = 0; k < count; k++) {
+            int slot = (head + k) % offsets.length;
+            newOffsets[k] = offsets[slot];
+            newLengths[k] = lengths[slot];
+        }
+        offsets = newOffsets;
+        lengths = newLengths;
+        head = 0;
+    }
+
+    // Moves the live entries to the front of the arena (they are stored in
+    // ring order, so this only ever copies downwards), growing it when the
+    // live data would still fill most of it
+    private void makeRoom(int length) {
+        long needed = liveBytes + length;
+        byte[] target = arena;
+        if (needed > arena.length - arena.length / 4) {
+            long newLength = Math.max((long) arena.length * 2, needed);
+            if (newLength > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("history arena too large");
+            }
+            target = new byte[(int) newLength];
+        }
+
+        int position = 0;
+        for (int k = 0; k < count; k++) {
+            int slot = (head + k) % offsets.length;
+            System.arraycopy(arena, offsets[slot], target, position, lengths[slot]);
+            offsets[slot] = position;
+            position += lengths[slot];
+        }
+        arena = target;
+        arenaEnd = position;
+    }
+}
@@ -0,0 +1,261 @@
+package shell;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Appends commands to the history file as they are accepted, so nothing is
+// lost if the JVM dies and exit doesn't have to rewrite the whole file.
+// When the file grows past a threshold it is compacted in the background
+// down to its last maxLines lines.
+//
+// Other shells may append to the same file, so it is never replaced: writes
+// and compaction take a lock on it, and compaction moves the kept lines to
+// the front and truncates the same file. Everyone's open descriptors stay
+// valid, and its permissions and a symlink to it are kept as they were.
+class HistoryJournal {
+
+    enum SyncPolicy {
+        ALWAYS, // fsync after every write
+        BATCH,  // fsync every SYNC_BATCH_ENTRIES entries, or SYNC_INTERVAL_MS after an unsynced write
+        NEVER;  // leave it to the OS (data still survives a JVM crash)
+
+        static SyncPolicy parse(String value) {
+            if (value == null) {
+                return BATCH;
+            }
+            return switch (value.toLowerCase()) {
+                case "always" -> ALWAYS;
+                case "never" -> NEVER;
+                default -> BATCH;
+            };
+        }
+    }
+
+    private static final int SYNC_BATCH_ENTRIES = 32;
+    private static final long SYNC_INTERVAL_MS = 1000;
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+    private static final int MOVE_BUFFER_SIZE = 64 * 1024;
+    private static final long LOCK_RETRY_MS = 5;
+
+    private final Path file;
+    private final SyncPolicy policy;
+    private final int maxLines;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private int unsyncedEntries = 0;
+    private boolean syncScheduled = false;
+    private long compactThreshold;
+    private boolean compacting = false;
+    private boolean closed = false;
+
+    HistoryJournal(Path file, SyncPolicy policy, int maxLines) throws IOException {
+        this.file = file;
+        this.policy = policy;
+        this.maxLines = maxLines;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.compactThreshold = MIN_COMPACT_BYTES;
+    }
+
+    // Buffers one entry; it reaches the file on the next flush()
+    synchronized void append(String command) {
+        byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < bytes.length + 1) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes.length + 1));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        buffer.put(bytes).put((byte) '\n');
+        unsyncedEntries++;
+    }
+
+    // Writes the buffered entries in one go and syncs according to the
+    // policy. While the file is being compacted they stay in the buffer,
+    // so the prompt doesn't wait for it; the compaction flushes them when
+    // it is done.
+    synchronized void flush() throws IOException {
+        if (compacting) {
+            return;
+        }
+        if (buffer.position() > 0) {
+            buffer.flip();
+            // Not in the middle of another shell's compaction
+            FileLock lock = lock(channel);
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                lock.release();
+                // Whatever a failed write left is kept for the next flush
+                buffer.compact();
+            }
+        }
+
+        if (policy == SyncPolicy.ALWAYS && unsyncedEntries > 0
+                || policy == SyncPolicy.BATCH && unsyncedEntries >= SYNC_BATCH_ENTRIES) {
+            sync();
+        } else if (policy == SyncPolicy.BATCH && unsyncedEntries > 0 && !syncScheduled) {
+            // Synced even if no other command follows
+            syncScheduled = true;
+            CompletableFuture.delayedExecutor(SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS).execute(this::syncLater);
+        }
+
+        if (channel.size() > compactThreshold) {
+            compacting = true;
+            Thread compactor = new Thread(this::compact, "history-compaction");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    // The file's lock, through the given channel. The OS arbitrates between
+    // processes, but within the JVM a lock held through another channel
+    // (a compaction, or another journal on the same file) makes lock()
+    // throw rather than wait, so that is waited out here.
+    private static FileLock lock(FileChannel channel) throws IOException {
+        while (true) {
+            try {
+                return channel.lock();
+            } catch (OverlappingFileLockException e) {
+                try {
+                    Thread.sleep(LOCK_RETRY_MS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for the history file's lock");
+                }
+            }
+        }
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        unsyncedEntries = 0;
+    }
+
+    private synchronized void syncLater() {
+        syncScheduled = false;
+        if (!closed && unsyncedEntries > 0) {
+            try {
+                sync();
+            } catch (IOException e) {
+                // Tried again after the next write
+            }
+        }
+    }
+
+    synchronized void close() throws IOException {
+        boolean interrupted = false;
+        while (compacting) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            flush();
+            if (policy != SyncPolicy.NEVER) {
+                channel.force(false);
+            }
+            channel.close();
+            closed = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Cuts the file down to its last maxLines lines, in place and holding
+    // the file's lock so no shell appends meanwhile. The kept lines are
+    // copied to the front before the file is truncated: if the copy is
+    // interrupted some lines end up in the file twice, but none are lost.
+    // The monitor is only held to read and update the journal's state, so
+    // append() and flush() carry on while the file is copied and synced.
+    private void compact() {
+        long threshold;
+        synchronized (this) {
+            threshold = compactThreshold;
+        }
+        try {
+            // Positioned writes need a channel not in append mode. Its lock
+            // is the one held: closing a second descriptor would drop a lock
+            // taken through the first. Closing it releases the lock.
+            try (FileChannel file = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                lock(file);
+                long size = file.size();
+                long start = tailStart(file, size);
+                if (start > 0) {
+                    moveToFront(file, start, size);
+                    file.truncate(size - start);
+                    file.force(false);
+                }
+                // Don't compact again until the file has doubled
+                threshold = Math.max(MIN_COMPACT_BYTES, 2 * (size - start));
+            }
+        } catch (IOException e) {
+            // Leave the file as it is, it will be retried when it grows further
+            threshold *= 2;
+        }
+        synchronized (this) {
+            compactThreshold = threshold;
+            compacting = false;
+            notifyAll();
+            if (!closed) {
+                try {
+                    // What was entered meanwhile
+                    flush();
+                } catch (IOException e) {
+                    // Still buffered, written with the next entry
+                }
+            }
+        }
+    }
+
+    // Copies [from, to) to offset 0; from is ahead of every write, so
+    // nothing is overwritten before it is read
+    private static void moveToFront(FileChannel file, long from, long to) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(MOVE_BUFFER_SIZE);
+        long read = from;
+        long written = 0;
+        while (read < to) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), to - read));
+            int n = file.read(chunk, read);
+            if (n < 0) {
+                break;
+            }
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                written += file.write(chunk, written);
+            }
+            read += n;
+        }
+    }
+
+    // Offset of the first of the last maxLines lines before end
+    private long tailStart(FileChannel in, long end) throws IOException {
+        long base = Math.max(0, end - Integer.MAX_VALUE);
+        MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, base, end - base);
+        int lines = 0;
+        // The last byte is normally the final newline, skip it
+        for (int i = map.limit() - 2; i >= 0; i--) {
+            if (map.get(i) == '\n' && ++lines == maxLines) {
+                return base + i + 1;
+            }
+        }
+        return base;
+    }
+}
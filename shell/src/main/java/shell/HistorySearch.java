@@ -0,0 +1,332 @@
+package shell;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Trigram index over the history for incremental reverse search (Ctrl-R).
+// Every entry is filed under each 3-byte sequence of its UTF-8 text, so a
+// query only has to look at entries that contain all of the query's
+// trigrams instead of scanning the whole history on every keystroke.
+// Queries shorter than a trigram scan per-entry byte and byte-pair
+// signatures instead of the entries themselves.
+// Entries are indexed lazily as the history grows; postings for entries
+// that have fallen out of the history are skipped and trimmed as found,
+// and swept from every list as the history moves on, so the index stays
+// in proportion to HISTSIZE however long the session runs.
+class HistorySearch {
+
+    private final History history;
+    private int indexed = 0; // entries below this absolute index are in the index
+
+    // Open addressing map from trigram key to its sorted postings list
+    private int[] keys = new int[1024];
+    private int[][] postings = new int[1024][];
+    private int[] lengths = new int[1024];
+    private int used = 0;
+    private int sweptBefore = 0; // first() when postings were last swept
+
+    // 64-bit signatures of the bytes and byte pairs in each entry, at entry - maskBase
+    private long[] byteMasks = new long[1024];
+    private long[] pairMasks = new long[1024];
+    private int maskBase = 0;
+
+    // Once a query fails, extending it can't match anything older either
+    private String failedQuery;
+    private int failedBefore;
+
+    HistorySearch(History history) {
+        this.history = history;
+    }
+
+    // Indexes whatever has been added since the last call, off the prompt thread
+    void catchUpInBackground() {
+        Thread indexer = new Thread(this::catchUp, "history-search-index");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    // Returns the absolute index of the newest entry below `before` that
+    // contains the query, or -1
+    synchronized int search(String query, int before) {
+        catchUp();
+        int first = history.first();
+        before = Math.min(before, history.size());
+        if (query.isEmpty() || before <= first) {
+            return -1;
+        }
+
+        if (failedQuery != null && query.startsWith(failedQuery) && before <= failedBefore) {
+            return -1;
+        }
+        int found = find(query, before, first);
+        if (found < 0) {
+            failedQuery = query;
+            failedBefore = before;
+        }
+        return found;
+    }
+
+    private int find(String query, int before, int first) {
+        byte[] needle = query.getBytes(StandardCharsets.UTF_8);
+        if (needle.length < 3) {
+            // Too short for the trigrams, filter on the signatures instead
+            long bytes = byteMask(needle);
+            long pairs = pairMask(needle);
+            for (int i = before - 1; i >= first; i--) {
+                int at = i - maskBase;
+                if ((byteMasks[at] & bytes) == bytes && (pairMasks[at] & pairs) == pairs
+                        && history.get(i).contains(query)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Walk the shortest postings list newest first and check the rest
+        int[] slots = new int[needle.length - 2];
+        int shortest = -1;
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slotOf(trigram(needle, i));
+            if (slot < 0) {
+                return -1;
+            }
+            trimEvicted(slot, first);
+            slots[i] = slot;
+            if (shortest < 0 || lengths[slot] < lengths[shortest]) {
+                shortest = slot;
+            }
+        }
+
+        int[] candidates = postings[shortest];
+        int from = lowerBound(candidates, lengths[shortest], before) - 1;
+        for (int c = from; c >= 0; c--) {
+            int entry = candidates[c];
+            if (entry < first) {
+                break;
+            }
+            if (inAll(slots, shortest, entry) && history.get(entry).contains(query)) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    // Postings held across all trigrams
+    synchronized long postingsCount() {
+        long total = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            total += lengths[slot];
+        }
+        return total;
+    }
+
+    synchronized void catchUp() {
+        history.waitForLoad();
+        int size = history.size();
+        int first = history.first();
+        dropMasksBefore(first);
+        if (first - sweptBefore >= Math.max(1, history.capacity() / 4)) {
+            // Lists of trigrams that are never searched for aren't trimmed
+            // by find(), so every list is, each time a quarter of the
+            // history has been replaced
+            resize(tableSizeFor(sweep(first)), first);
+            sweptBefore = first;
+        }
+        for (int i = Math.max(indexed, first); i < size; i++) {
+            add(i, history.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        indexed = size;
+    }
+
+    private void add(int entry, byte[] text) {
+        int at = entry - maskBase;
+        if (at >= byteMasks.length) {
+            byteMasks = Arrays.copyOf(byteMasks, Math.max(at + 1, byteMasks.length * 2));
+            pairMasks = Arrays.copyOf(pairMasks, byteMasks.length);
+        }
+        byteMasks[at] = byteMask(text);
+        pairMasks[at] = pairMask(text);
+
+        for (int i = 0; i + 3 <= text.length; i++) {
+            int key = trigram(text, i);
+            int slot = findOrInsert(key);
+            int length = lengths[slot];
+            int[] list = postings[slot];
+            // A trigram repeated within one entry is filed once
+            if (length > 0 && list[length - 1] == entry) {
+                continue;
+            }
+            if (length == list.length) {
+                list = Arrays.copyOf(list, length * 2);
+                postings[slot] = list;
+            }
+            list[length] = entry;
+            lengths[slot] = length + 1;
+        }
+    }
+
+    // Forgets the signatures of evicted entries once they are half the array
+    private void dropMasksBefore(int first) {
+        int dead = Math.min(first, indexed) - maskBase;
+        if (dead > 0 && dead >= byteMasks.length / 2) {
+            System.arraycopy(byteMasks, dead, byteMasks, 0, byteMasks.length - dead);
+            System.arraycopy(pairMasks, dead, pairMasks, 0, pairMasks.length - dead);
+            maskBase += dead;
+        }
+    }
+
+    private static long byteMask(byte[] text) {
+        long mask = 0;
+        for (byte b : text) {
+            mask |= 1L << (b & 63);
+        }
+        return mask;
+    }
+
+    private static long pairMask(byte[] text) {
+        long mask = 0;
+        for (int i = 0; i + 1 < text.length; i++) {
+            mask |= 1L << (((text[i] & 0xff) * 31 + (text[i + 1] & 0xff)) & 63);
+        }
+        return mask;
+    }
+
+    private boolean inAll(int[] slots, int skip, int entry) {
+        for (int slot : slots) {
+            if (slot != skip && Arrays.binarySearch(postings[slot], 0, lengths[slot], entry) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Drops postings of entries that are no longer in the history once they
+    // make up a noticeable part of the list
+    private void trimEvicted(int slot, int first) {
+        int[] list = postings[slot];
+        int length = lengths[slot];
+        int dead = lowerBound(list, length, first);
+        if (dead > 0 && dead >= length / 4) {
+            System.arraycopy(list, dead, list, 0, length - dead);
+            lengths[slot] = length - dead;
+        }
+    }
+
+    private static int lowerBound(int[] list, int length, int value) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int trigram(byte[] text, int i) {
+        // +1 keeps every key non-zero, zero marks an empty slot
+        return ((text[i] & 0xff) << 16 | (text[i + 1] & 0xff) << 8 | (text[i + 2] & 0xff)) + 1;
+    }
+
+    private int slotOf(int key) {
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private int findOrInsert(int key) {
+        if (used * 2 >= keys.length) {
+            rehash();
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                postings[slot] = new int[4];
+                used++;
+                return slot;
+            }
+        }
+    }
+
+    // Drops the postings of entries before `first` from every list, and
+    // shrinks lists left mostly unused; returns how many trigrams still
+    // have postings
+    private int sweep(int first) {
+        int live = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == 0) {
+                continue;
+            }
+            int[] list = postings[slot];
+            int dead = lowerBound(list, lengths[slot], first);
+            int length = lengths[slot] - dead;
+            if (length > 0 && list.length > 4 * Math.max(4, length)) {
+                postings[slot] = Arrays.copyOfRange(list, dead, dead + Math.max(4, 2 * length));
+            } else if (dead > 0) {
+                System.arraycopy(list, dead, list, 0, length);
+            }
+            lengths[slot] = length;
+            if (length > 0) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    // A table at most a quarter full with `live` trigrams
+    private static int tableSizeFor(int live) {
+        int size = 1024;
+        while (size < 4 * live) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    private void rehash() {
+        resize(keys.length * 2, 0);
+    }
+
+    // Moves the trigrams to a table of `size` slots, leaving out those with
+    // no postings at or after `first`
+    private void resize(int size, int first) {
+        int[] oldKeys = keys;
+        int[][] oldPostings = postings;
+        int[] oldLengths = lengths;
+        keys = new int[size];
+        postings = new int[size][];
+        lengths = new int[size];
+        used = 0;
+        int mask = size - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0 || oldLengths[i] == 0 || oldPostings[i][oldLengths[i] - 1] < first) {
+                continue;
+            }
+            int slot = mix(oldKeys[i]) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            postings[slot] = oldPostings[i];
+            lengths[slot] = oldLengths[i];
+            used++;
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,222 @@
+package shell;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntSupplier;
+
+// Pipelines started with a trailing &. Each job has a waiter thread that
+// joins its stage scope, so the pump threads and processes of a finished
+// job are cleaned up even if nobody ever waits for it; the job then stays
+// in the table, done, until it is reported or waited for.
+class JobTable {
+
+    static final class Job {
+        final int id;
+        final String command;
+        private final StageScope scope;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile int status;
+
+        private Job(int id, String command, StageScope scope) {
+            this.id = id;
+            this.command = command;
+            this.scope = scope;
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        // Blocks until the job has finished and returns its exit status
+        int waitFor() throws InterruptedException {
+            done.await();
+            return status;
+        }
+
+        List<Process> processes() {
+            return scope.processes();
+        }
+
+        // Stopped by a signal (kill -STOP) rather than finished; only
+        // visible through /proc, so elsewhere jobs are never stopped
+        boolean isStopped() {
+            if (isDone()) {
+                return false;
+            }
+            for (Process p : processes()) {
+                if (p.isAlive() && processState(p.pid()) == 'T') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String state() {
+            if (!isDone()) {
+                return isStopped() ? "Stopped" : "Running";
+            }
+            return status == 0 ? "Done" : "Exit " + status;
+        }
+    }
+
+    private final TreeMap<Integer, Job> jobs = new TreeMap<>();
+    private final PrintStream err; // The session's, for failures nobody waits to hear about
+    private Job current;  // %+, the most recently started job
+    private Job previous; // %-
+
+    JobTable(PrintStream err) {
+        this.err = err;
+    }
+
+    // Registers a started pipeline; status is read once its scope has joined
+    // (the exit value of its last process, or what its last built-in set)
+    synchronized Job start(String command, StageScope scope, IntSupplier status) {
+        int id = jobs.isEmpty() ? 1 : jobs.lastKey() + 1;
+        Job job = new Job(id, command, scope);
+        jobs.put(id, job);
+        previous = current;
+        current = job;
+
+        Thread waiter = new Thread(() -> {
+            try (scope) {
+                StageScope.report(scope.join(), err);
+                job.status = status.getAsInt();
+            } catch (InterruptedException e) {
+                job.status = 130;
+            } finally {
+                job.done.countDown();
+            }
+        }, "job-" + id);
+        waiter.setDaemon(true);
+        waiter.start();
+        return job;
+    }
+
+    synchronized List<Job> jobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    synchronized void remove(Job job) {
+        jobs.remove(job.id);
+        if (current == job) {
+            current = previous;
+            previous = null;
+        } else if (previous == job) {
+            previous = null;
+        }
+        if (current != null && previous == null) {
+            // The next most recent job becomes %-
+            for (Integer id : jobs.descendingKeySet()) {
+                if (id != current.id) {
+                    previous = jobs.get(id);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Prints a notice for each finished job and forgets it
+    synchronized void reportFinished(PrintStream out) {
+        List<Job> finished = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.isDone()) {
+                print(job, out);
+                finished.add(job);
+            }
+        }
+        for (Job job : finished) {
+            remove(job);
+        }
+    }
+
+    // %N, %+ / %% / % alone, %-, %PREFIX (of the command), or the pid of
+    // one of a job's processes; null when nothing matches
+    synchronized Job find(String spec) {
+        if (spec.equals("%") || spec.equals("%%") || spec.equals("%+")) {
+            return current;
+        }
+        if (spec.equals("%-")) {
+            return previous;
+        }
+        if (spec.startsWith("%")) {
+            String rest = spec.substring(1);
+            try {
+                return jobs.get(Integer.parseInt(rest));
+            } catch (NumberFormatException e) {
+                Job found = null;
+                for (Job job : jobs.values()) {
+                    if (job.command.startsWith(rest)) {
+                        found = job;
+                    }
+                }
+                return found;
+            }
+        }
+        try {
+            long pid = Long.parseLong(spec);
+            for (Job job : jobs.values()) {
+                for (Process p : job.processes()) {
+                    if (p.pid() == pid) {
+                        return job;
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Not a pid either
+        }
+        return null;
+    }
+
+    // "[1]+  Running                 sleep 10 &", as bash prints it
+    synchronized void print(Job job, PrintStream out) {
+        char mark = job == current ? '+' : job == previous ? '-' : ' ';
+        String state = job.state();
+        String command = state.equals("Running") ? job.command + " &" : job.command;
+        out.printf("[%d]%c  %-24s%s%n", job.id, mark, state, command);
+    }
+
+    // Stops every job that is still running, e.g. when the session ends
+    synchronized void shutdown() {
+        for (Job job : jobs.values()) {
+            job.scope.shutdown();
+        }
+    }
+
+    // Lets stopped processes carry on; there is no Java API for signals
+    void resume(Job job) {
+        List<String> command = new ArrayList<>(List.of("kill", "-CONT"));
+        for (Process p : job.processes()) {
+            if (p.isAlive()) {
+                command.add(String.valueOf(p.pid()));
+            }
+        }
+        if (command.size() == 2 || !job.isStopped()) {
+            return;
+        }
+        try {
+            new ProcessBuilder(command).inheritIO().start().waitFor();
+        } catch (IOException e) {
+            err.println("cannot resume job " + job.id + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The state letter from /proc/PID/stat, or 0 when it can't be read
+    private static char processState(long pid) {
+        try {
+            String stat = Files.readString(Path.of("/proc", String.valueOf(pid), "stat"));
+            // The command name is in parentheses and may itself contain them
+            int end = stat.lastIndexOf(')');
+            return end >= 0 && end + 2 < stat.length() ? stat.charAt(end + 2) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
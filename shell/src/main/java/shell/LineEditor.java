@@ -0,0 +1,304 @@
+package shell;
+
+// The line being edited at the prompt, and what the terminal shows of it.
+// Edits only change the text and the cursor; render() then works out the
+// output that takes the screen from what it showed to the new state, so a
+// keystroke costs one write of a few bytes whatever the line's length:
+// the text that differs (or insert/delete character sequences when that is
+// shorter), and the shortest cursor motion. With the terminal's width lines
+// that wrap are followed row by row; without it a line is taken to fit on
+// one row.
+final class LineEditor {
+
+    private static final String CSI = "\033[";
+
+    private final String prompt;
+    private final int columns; // 0 when unknown
+
+    private final StringBuilder text = new StringBuilder();
+    private int cursor = 0;
+
+    // What the screen shows after the prompt, and where its cursor is
+    private final StringBuilder shown = new StringBuilder();
+    private int shownCursor = 0;
+
+    // prompt has just been printed; columns is the terminal's width, or 0
+    LineEditor(String prompt, int columns) {
+        this.prompt = prompt;
+        this.columns = columns;
+    }
+
+    String text() {
+        return text.toString();
+    }
+
+    int cursor() {
+        return cursor;
+    }
+
+    int length() {
+        return text.length();
+    }
+
+    String beforeCursor() {
+        return text.substring(0, cursor);
+    }
+
+    // Replaces the line (a recalled history entry) with the cursor at its end
+    void set(CharSequence line) {
+        text.setLength(0);
+        text.append(line);
+        cursor = text.length();
+    }
+
+    void insert(CharSequence s) {
+        text.insert(cursor, s);
+        cursor += s.length();
+    }
+
+    void insert(char c) {
+        text.insert(cursor, c);
+        cursor++;
+    }
+
+    // Deletes the character before the cursor; false if there is none
+    boolean backspace() {
+        if (cursor == 0) {
+            return false;
+        }
+        text.deleteCharAt(--cursor);
+        return true;
+    }
+
+    // Deletes the character under the cursor; false if there is none
+    boolean delete() {
+        if (cursor == text.length()) {
+            return false;
+        }
+        text.deleteCharAt(cursor);
+        return true;
+    }
+
+    void left() {
+        cursor = Math.max(0, cursor - 1);
+    }
+
+    void right() {
+        cursor = Math.min(text.length(), cursor + 1);
+    }
+
+    void home() {
+        cursor = 0;
+    }
+
+    void end() {
+        cursor = text.length();
+    }
+
+    // To the start of this word, or of the previous one between words
+    void wordLeft() {
+        cursor = wordStart(cursor);
+    }
+
+    // To the end of this word, or of the next one between words
+    void wordRight() {
+        int i = cursor;
+        while (i < text.length() && text.charAt(i) == ' ') {
+            i++;
+        }
+        while (i < text.length() && text.charAt(i) != ' ') {
+            i++;
+        }
+        cursor = i;
+    }
+
+    // Ctrl+W
+    void deleteWordBefore() {
+        int start = wordStart(cursor);
+        text.delete(start, cursor);
+        cursor = start;
+    }
+
+    // Ctrl+K
+    void killToEnd() {
+        text.setLength(cursor);
+    }
+
+    // Ctrl+U
+    void killToStart() {
+        text.delete(0, cursor);
+        cursor = 0;
+    }
+
+    private int wordStart(int from) {
+        int i = from;
+        while (i > 0 && text.charAt(i - 1) == ' ') {
+            i--;
+        }
+        while (i > 0 && text.charAt(i - 1) != ' ') {
+            i--;
+        }
+        return i;
+    }
+
+    // The prompt was printed again (after a listing, or by reverse search)
+    // and nothing of the line is on the screen yet
+    void reset() {
+        shown.setLength(0);
+        shownCursor = 0;
+    }
+
+    // Moves the screen's cursor to the end of the line, for output below
+    // it; the caller prints the newline
+    String toEnd() {
+        StringBuilder out = new StringBuilder();
+        moveCursor(out, shownCursor, shown.length());
+        shownCursor = shown.length();
+        return out.toString();
+    }
+
+    // Moves to the start of the line and erases it, prompt and all, for
+    // output that takes over the prompt's rows
+    String erase() {
+        StringBuilder out = new StringBuilder();
+        int up = row(shownCursor);
+        if (up > 0) {
+            out.append(CSI).append(count(up)).append('A');
+        }
+        out.append('\r').append(CSI).append('J');
+        reset();
+        return out.toString();
+    }
+
+    // What to write so the screen shows the line as it is now; empty when
+    // it already does
+    String render() {
+        StringBuilder out = new StringBuilder();
+        int oldLength = shown.length();
+        int newLength = text.length();
+        int prefix = 0;
+        int limit = Math.min(oldLength, newLength);
+        while (prefix < limit && shown.charAt(prefix) == text.charAt(prefix)) {
+            prefix++;
+        }
+
+        if (prefix == oldLength && prefix == newLength) {
+            moveCursor(out, shownCursor, cursor);
+        } else {
+            int suffix = 0;
+            while (suffix < limit - prefix
+                    && shown.charAt(oldLength - 1 - suffix) == text.charAt(newLength - 1 - suffix)) {
+                suffix++;
+            }
+            // Write everything from the first change on, then clear what
+            // is left of the old line
+            moveCursor(out, shownCursor, prefix);
+            writeText(out, prefix, newLength);
+            if (newLength < oldLength) {
+                clearAfter(out, newLength, oldLength);
+            }
+            moveCursor(out, newLength, cursor);
+
+            // On one row, the unchanged end can be shifted into place by
+            // the terminal instead of written again
+            if (suffix > 0 && onOneRow(Math.max(oldLength, newLength))) {
+                StringBuilder shift = new StringBuilder();
+                int added = newLength - suffix - prefix;
+                int removed = oldLength - suffix - prefix;
+                moveCursor(shift, shownCursor, prefix);
+                if (added > removed) {
+                    shift.append(CSI).append(count(added - removed)).append('@');
+                }
+                shift.append(text, prefix, prefix + added);
+                if (removed > added) {
+                    shift.append(CSI).append(count(removed - added)).append('P');
+                }
+                moveCursor(shift, prefix + added, cursor);
+                if (shift.length() < out.length()) {
+                    out = shift;
+                }
+            }
+        }
+        shown.setLength(0);
+        shown.append(text);
+        shownCursor = cursor;
+        return out.toString();
+    }
+
+    // Writes text[from, to), the cursor being at from. A line ending on the
+    // last column leaves the cursor there until the next character, so it
+    // is moved to the next row explicitly to be where it is counted.
+    private void writeText(StringBuilder out, int from, int to) {
+        out.append(text, from, to);
+        if (columns > 0 && to > from && column(to) == 0) {
+            out.append("\r\n");
+        }
+    }
+
+    // Clears the rest of the old line, from the cursor at from to end
+    private void clearAfter(StringBuilder out, int from, int end) {
+        if (end - from == 1 && row(from) == row(end) && (columns == 0 || column(from) < columns - 1)) {
+            out.append(" \b");
+        } else {
+            out.append(CSI).append(row(end) > row(from) ? 'J' : 'K');
+        }
+    }
+
+    private void moveCursor(StringBuilder out, int from, int to) {
+        if (from == to) {
+            return;
+        }
+        int fromRow = row(from);
+        int toRow = row(to);
+        if (toRow < fromRow) {
+            out.append(CSI).append(count(fromRow - toRow)).append('A');
+        } else if (toRow > fromRow) {
+            out.append(CSI).append(count(toRow - fromRow)).append('B');
+        }
+        int fromColumn = column(from);
+        int toColumn = column(to);
+        if (fromColumn == toColumn) {
+            return;
+        }
+        String direct = fromColumn > toColumn
+                ? left(fromColumn - toColumn)
+                : right(toRow, fromColumn, toColumn);
+        String fromStart = toColumn == 0 ? "\r" : "\r" + right(toRow, 0, toColumn);
+        out.append(direct.length() <= fromStart.length() ? direct : fromStart);
+    }
+
+    private static String left(int n) {
+        return n <= 3 ? "\b".repeat(n) : CSI + n + "D";
+    }
+
+    // Writing what is already there moves right too, and is shorter for a
+    // few columns
+    private String right(int row, int fromColumn, int toColumn) {
+        int n = toColumn - fromColumn;
+        if (n > 3) {
+            return CSI + n + "C";
+        }
+        StringBuilder sb = new StringBuilder(n);
+        int start = row * Math.max(columns, 1) + fromColumn;
+        for (int position = start; position < start + n; position++) {
+            sb.append(position < prompt.length() ? prompt.charAt(position) : text.charAt(position - prompt.length()));
+        }
+        return sb.toString();
+    }
+
+    private static String count(int n) {
+        return n == 1 ? "" : Integer.toString(n);
+    }
+
+    private boolean onOneRow(int length) {
+        return columns == 0 || prompt.length() + length < columns;
+    }
+
+    private int row(int index) {
+        return columns == 0 ? 0 : (prompt.length() + index) / columns;
+    }
+
+    private int column(int index) {
+        return columns == 0 ? prompt.length() + index : (prompt.length() + index) % columns;
+    }
+}
@@ -0,0 +1,105 @@
+package shell;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Splits a byte stream into lines without decoding it. After next() the
+// current line is buffer()[start() .. end()), without its newline; the
+// bytes are only valid until the following call.
+class LineReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final Flushable beforeBlocking;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0; // start of the unread bytes
+    private int limit = 0;    // end of the bytes read so far
+    private boolean eof = false;
+
+    private int lineStart;
+    private int lineEnd;
+    private boolean newline;
+
+    // beforeBlocking (may be null) is flushed whenever the next read would
+    // wait for input, so output keeps up with a slow producer
+    LineReader(InputStream in, Flushable beforeBlocking) {
+        this.in = in;
+        this.beforeBlocking = beforeBlocking;
+    }
+
+    boolean next() throws IOException {
+        int scanFrom = position;
+        while (true) {
+            for (int i = scanFrom; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    lineStart = position;
+                    lineEnd = i;
+                    newline = true;
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (position == limit) {
+                    return false;
+                }
+                // Last line without a newline
+                lineStart = position;
+                lineEnd = limit;
+                newline = false;
+                position = limit;
+                return true;
+            }
+            scanFrom = limit - position;
+            fill();
+        }
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int start() {
+        return lineStart;
+    }
+
+    int end() {
+        return lineEnd;
+    }
+
+    int length() {
+        return lineEnd - lineStart;
+    }
+
+    // False only for a last line that wasn't terminated
+    boolean hasNewline() {
+        return newline;
+    }
+
+    // Moves the unread bytes to the front (growing the buffer for a line
+    // longer than it) and reads more after them
+    private void fill() throws IOException {
+        int pending = limit - position;
+        if (pending == buffer.length) {
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, position, bigger, 0, pending);
+            buffer = bigger;
+        } else if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, pending);
+        }
+        position = 0;
+        limit = pending;
+
+        if (beforeBlocking != null && in.available() == 0) {
+            beforeBlocking.flush();
+        }
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+}
@@ -0,0 +1,552 @@
+package shell;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+// The command-line shell: a ShellSession on the process's own descriptors,
+// with a prompt, line editing, completion and HISTFILE when interactive
+public class Main {
+
+    private static final String PROMPT = "$ ";
+    private static final String HISTFILE = System.getenv("HISTFILE");
+    private static HistoryJournal historyJournal; // Appends to HISTFILE as commands are entered
+    private static final Terminal terminal = new Terminal();
+    private static final FileChannel STDOUT = new FileOutputStream(FileDescriptor.out).getChannel();
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static BufferedReader stdin; // Shared so lines it has buffered aren't lost
+    private static ShellSession session;
+    private static History commandHistory;
+
+    // The holder classes below are initialized by the JVM the first time
+    // they are used, not before the first prompt: the completion index and
+    // history search index once Tab or Ctrl+R is pressed or the startup
+    // work gets to them
+    private static final class Completion {
+        static final TabCompletion tabCompletion = new TabCompletion(ShellSession.builtinNames(),
+                ShellSession.pathDirectories(System.getenv("PATH")));
+    }
+
+    private static final class Search {
+        static final HistorySearch historySearch = new HistorySearch(commandHistory);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ShellOutput.install(STDOUT);
+        session = ShellSession.onStdio(STDOUT, terminal);
+        commandHistory = session.history();
+
+        // With -c, a script file or input that isn't a terminal there is no
+        // prompt, line editing or history: commands are read through one
+        // buffered reader and the shell exits with the last command's status
+        if (args.length > 0) {
+            exit(runScript(args));
+        }
+        if (!Terminal.stdinIsTerminal()) {
+            exit(runCommands(stdinReader()));
+        }
+        
+        session.interactive = true;
+
+        boolean started = false;
+        while (true) {
+            session.reportFinishedJobs();
+            System.out.print(PROMPT);
+            System.out.flush();
+            if (!started) {
+                // Everything the first prompt doesn't need happens once it
+                // is up, while the user starts typing
+                startInteractiveSession();
+                started = true;
+            }
+            
+            String input = readLineWithHistory();
+            
+            if (input == null) {
+                break;
+            }
+            
+            if (input.trim().isEmpty()) continue;
+            long entered = System.nanoTime();
+            
+            // Add command to our history list
+            commandHistory.add(input.trim());
+            journalHistory();
+
+            if (session.run(input)) {
+                break;
+            }
+            ShellStats.PROMPT_TO_PROMPT.since(entered);
+        }
+        
+        // Save history to file on exit
+        saveHistoryToFile();
+        terminal.suspend();
+        
+        System.out.println(); // Final newline before exit
+        exit(session.status());
+    }
+
+    // History is loaded (in the background), HISTFILE opened for appending,
+    // and the search and completion indexes built off the prompt thread
+    private static void startInteractiveSession() {
+        loadHistoryFromFile();
+        openHistoryJournal();
+        Search.historySearch.catchUpInBackground();
+        Completion.tabCompletion.buildInBackground();
+    }
+
+    // "-c COMMANDS", "--daemon SOCKET" or "SCRIPT"
+    private static int runScript(String[] args) throws IOException, InterruptedException {
+        if (args[0].equals("--daemon")) {
+            if (args.length < 2) {
+                System.err.println("shell: --daemon: option requires an argument");
+                return 2;
+            }
+            return ShellDaemon.serve(Paths.get(args[1]));
+        }
+        if (args[0].equals("-c")) {
+            if (args.length < 2) {
+                System.err.println("shell: -c: option requires an argument");
+                return 2;
+            }
+            return runCommands(new BufferedReader(new StringReader(args[1])));
+        }
+        Path script = session.directory().toPath().resolve(args[0]);
+        BufferedReader reader;
+        try {
+            reader = Files.newBufferedReader(script);
+        } catch (IOException e) {
+            System.err.println("shell: " + args[0] + ": No such file or directory");
+            return 127;
+        }
+        try (reader) {
+            return runCommands(reader);
+        }
+    }
+
+    private static BufferedReader stdinReader() {
+        if (stdin == null) {
+            stdin = new BufferedReader(new InputStreamReader(System.in), COPY_BUFFER_SIZE);
+        }
+        return stdin;
+    }
+
+    private static int runCommands(BufferedReader reader) throws IOException, InterruptedException {
+        String line;
+        while (true) {
+            if (!reader.ready()) {
+                // Whoever is feeding us may be waiting for the output
+                System.out.flush();
+            }
+            if ((line = reader.readLine()) == null) {
+                break;
+            }
+            long read = System.nanoTime();
+            if (session.run(line)) {
+                break;
+            }
+            ShellStats.PROMPT_TO_PROMPT.since(read);
+        }
+        return session.status();
+    }
+
+    private static void exit(int status) {
+        System.out.flush();
+        System.exit(status);
+    }
+
+
+    private static void loadHistoryFromFile() {
+        if (HISTFILE == null || HISTFILE.isEmpty()) {
+            return;
+        }
+        
+        File histFile = new File(HISTFILE);
+        if (!histFile.exists()) {
+            return;
+        }
+        
+        // The file is mapped and its last HISTSIZE lines are loaded in the
+        // background, so typing doesn't wait for it; errors reading it are
+        // ignored there
+        commandHistory.loadInBackground(histFile.toPath());
+    }
+    
+    private static void openHistoryJournal() {
+        if (HISTFILE == null || HISTFILE.isEmpty()) {
+            return;
+        }
+        
+        // Like bash, the file keeps as many lines as the in-memory history
+        // unless HISTFILESIZE says otherwise
+        int histsize = ShellSession.historyLimit(System.getenv(), "HISTSIZE", ShellSession.DEFAULT_HISTSIZE);
+        int maxLines = Math.max(1, ShellSession.historyLimit(System.getenv(), "HISTFILESIZE", histsize));
+        
+        try {
+            HistoryJournal.SyncPolicy policy = HistoryJournal.SyncPolicy.parse(System.getenv("HISTSYNC"));
+            historyJournal = new HistoryJournal(Paths.get(HISTFILE), policy, maxLines);
+        } catch (IOException e) {
+            // Silently ignore errors opening history file
+        }
+    }
+    
+    // Appends the commands HISTFILE hasn't seen yet, using the same
+    // bookkeeping as "history -a"
+    private static void journalHistory() {
+        if (historyJournal == null) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        ShellEvents.HistoryIO event = ShellEvents.historyIO("journal", HISTFILE);
+        int startIndex = session.appendStart(HISTFILE);
+        for (int i = startIndex; i < commandHistory.size(); i++) {
+            historyJournal.append(commandHistory.get(i));
+        }
+        session.appended(HISTFILE);
+        
+        try {
+            historyJournal.flush();
+        } catch (IOException e) {
+            // Silently ignore errors writing history file
+        }
+        ShellStats.HISTORY_IO.since(start);
+        if (event != null) {
+            event.finish(commandHistory.size() - startIndex, -1);
+        }
+    }
+    
+    private static void saveHistoryToFile() {
+        if (historyJournal == null) {
+            return;
+        }
+        
+        // Everything is already in the file, just sync and close it
+        journalHistory();
+        try {
+            historyJournal.close();
+        } catch (IOException e) {
+            // Silently ignore errors writing history file
+        }
+    }
+
+    private static String readLineWithHistory() throws IOException {
+        // Raw mode is switched on once per session for arrow key support
+        if (!terminal.enableRawMode()) {
+            // Fall back to simple readline, through the one reader so no
+            // input buffered by an earlier call is lost
+            return stdinReader().readLine();
+        }
+        terminal.resume();
+        
+        // Raw mode enabled successfully: every key edits the line, and the
+        // screen is brought up to date with one write once no more input
+        // is waiting (so a paste is drawn once)
+        LineEditor line = new LineEditor(PROMPT, terminal.columns());
+        StringBuilder output = new StringBuilder(); // Goes out before the line's update
+        int historyIndex = -1; // Where up and down arrow are in the history, once used
+        String savedLine = "";
+        int previous = -1;
+        
+        while (true) {
+            int c = System.in.read();
+            boolean doubleTab = c == '\t' && previous == '\t';
+            previous = c;
+            
+            if (c == -1) {
+                return null;
+            }
+            
+            // Handle Tab (completion, a second Tab lists the candidates)
+            if (c == '\t') {
+                output.append(completeLine(line, doubleTab));
+            } else if (c == '\n' || c == '\r') {
+                // Enter: the next output starts below the whole line
+                show(output.append(line.render()).append(line.toEnd()).append("\r\n"));
+                return line.text();
+            } else if (c == 127 || c == 8) {
+                line.backspace();
+            } else if (c == 27) {
+                // Escape sequences: arrows, Home/End, Delete, word moves
+                switch (readEscape()) {
+                    case "[A", "OA" -> { // Up arrow
+                        historyIndex = historyIndex(historyIndex);
+                        if (historyIndex > commandHistory.first()) {
+                            if (historyIndex == commandHistory.size()) {
+                                savedLine = line.text();
+                            }
+                            historyIndex--;
+                            line.set(commandHistory.get(historyIndex));
+                        }
+                    }
+                    case "[B", "OB" -> { // Down arrow
+                        historyIndex = historyIndex(historyIndex);
+                        if (historyIndex < commandHistory.size()) {
+                            historyIndex++;
+                            line.set(historyIndex == commandHistory.size()
+                                    ? savedLine
+                                    : commandHistory.get(historyIndex));
+                        }
+                    }
+                    case "[C", "OC" -> line.right();
+                    case "[D", "OD" -> line.left();
+                    case "[H", "OH", "[1~", "[7~" -> line.home();
+                    case "[F", "OF", "[4~", "[8~" -> line.end();
+                    case "[3~" -> line.delete();
+                    case "[1;5C", "[1;3C", "f" -> line.wordRight(); // Ctrl/Alt+Right, Alt+F
+                    case "[1;5D", "[1;3D", "b" -> line.wordLeft();  // Ctrl/Alt+Left, Alt+B
+                    case "\177" -> line.deleteWordBefore();         // Alt+Backspace
+                    default -> {
+                        // Not a key we edit with
+                    }
+                }
+            } else if (c == 18) {
+                // Ctrl+R (reverse incremental search) takes over the prompt's row
+                show(output.append(line.render()).append(line.erase()));
+                StringBuilder found = new StringBuilder(line.text());
+                boolean accepted = reverseSearch(found);
+                line.set(found);
+                line.reset();
+                output.append("\r\033[K").append(PROMPT).append(line.render());
+                if (accepted) {
+                    show(output.append("\r\n"));
+                    return line.text();
+                }
+            } else if (c == 3) {
+                // Ctrl+C
+                show(output.append(line.render()).append(line.toEnd()).append("^C\r\n"));
+                return "";
+            } else if (c == 4) {
+                // Ctrl+D: end of input on an empty line, else delete
+                if (line.length() == 0) {
+                    return null;
+                }
+                line.delete();
+            } else if (c == 1) { // Ctrl+A
+                line.home();
+            } else if (c == 5) { // Ctrl+E
+                line.end();
+            } else if (c == 2) { // Ctrl+B
+                line.left();
+            } else if (c == 6) { // Ctrl+F
+                line.right();
+            } else if (c == 11) { // Ctrl+K
+                line.killToEnd();
+            } else if (c == 21) { // Ctrl+U
+                line.killToStart();
+            } else if (c == 23) { // Ctrl+W
+                line.deleteWordBefore();
+            } else if (c >= 32 && c < 127) {
+                // Regular character; we echo it since the tty doesn't
+                line.insert((char) c);
+            }
+            
+            if (System.in.available() == 0) {
+                show(output.append(line.render()));
+            }
+        }
+    }
+    
+    // Writes what a key changed on the screen in one go
+    private static void show(StringBuilder output) {
+        if (output.length() > 0) {
+            System.out.print(output);
+            System.out.flush();
+            output.setLength(0);
+        }
+    }
+    
+    // The rest of an escape sequence after ESC: "[" or "O", its parameters
+    // and final byte ("[A", "[1;5C", "[3~"), or the one key pressed with Alt
+    private static String readEscape() throws IOException {
+        int c = System.in.read();
+        if (c != '[' && c != 'O') {
+            return c < 0 ? "" : String.valueOf((char) c);
+        }
+        StringBuilder sequence = new StringBuilder().append((char) c);
+        while ((c = System.in.read()) >= 0) {
+            sequence.append((char) c);
+            if (c >= 0x40 && c <= 0x7e) {
+                break;
+            }
+        }
+        return sequence.toString();
+    }
+    
+    // The history position for an arrow key: the end of the history the
+    // first time, which waits for HISTFILE if it is still loading, so
+    // showing the prompt never does
+    private static int historyIndex(int current) {
+        if (current >= 0) {
+            return current;
+        }
+        commandHistory.waitForLoad();
+        return commandHistory.size();
+    }
+
+    // Runs a Ctrl+R search session. The line ends up holding the match (or
+    // its old text if cancelled); returns true if Enter was pressed. The
+    // search stays on the screen for the caller to replace with the prompt.
+    private static boolean reverseSearch(StringBuilder line) throws IOException {
+        String original = line.toString();
+        StringBuilder query = new StringBuilder();
+        int match = -1;
+        boolean failed = false;
+        
+        while (true) {
+            String shown = match >= 0 ? commandHistory.get(match) : (failed ? line.toString() : "");
+            System.out.print("\r\033[K(" + (failed ? "failed " : "") + "reverse-i-search)`" + query + "': " + shown);
+            System.out.flush();
+            
+            int c = System.in.read();
+            if (c == -1 || c == '\n' || c == '\r' || c == 27) {
+                if (c == 27) {
+                    readEscape(); // Arrow keys end the search, keep the match for editing
+                }
+                return c == '\n' || c == '\r';
+            }
+            if (c == 7 || c == 3) { // Ctrl+G / Ctrl+C cancel
+                line.setLength(0);
+                line.append(original);
+                return false;
+            }
+            
+            int before;
+            if (c == 18) { // Ctrl+R again: next older match
+                before = match >= 0 ? match : commandHistory.size();
+            } else if (c == 127 || c == 8) {
+                if (query.length() > 0) {
+                    query.setLength(query.length() - 1);
+                }
+                before = commandHistory.size();
+            } else if (c >= 32 && c < 127) {
+                query.append((char) c);
+                // A longer query can still match the current entry
+                before = match >= 0 ? match + 1 : commandHistory.size();
+            } else {
+                continue;
+            }
+            
+            int found = Search.historySearch.search(query.toString(), before);
+            failed = found < 0 && query.length() > 0;
+            if (found >= 0) {
+                match = found;
+                line.setLength(0);
+                line.append(commandHistory.get(found));
+            } else if (query.length() == 0) {
+                match = -1;
+            }
+        }
+    }
+    
+    // Completes the word before the cursor, which may escape characters
+    // with backslashes; what is inserted is escaped the same way. Returns
+    // what to print besides the line's update: a bell, the candidates, or
+    // nothing.
+    private static String completeLine(LineEditor line, boolean listCandidates) {
+        String head = line.beforeCursor();
+        int start = wordStart(head);
+        String word = unescape(head.substring(start));
+        String before = head.substring(0, start).trim();
+        boolean command = (before.isEmpty() || before.endsWith("|")) && !word.contains("/");
+        
+        List<String> candidates = command
+                ? Completion.tabCompletion.completeCommand(word)
+                : Completion.tabCompletion.completePath(session.directory(), word);
+        if (candidates.isEmpty()) {
+            return "\007";
+        }
+        
+        String common = candidates.get(0);
+        for (String candidate : candidates) {
+            int n = 0;
+            while (n < common.length() && n < candidate.length() && common.charAt(n) == candidate.charAt(n)) {
+                n++;
+            }
+            common = common.substring(0, n);
+        }
+        if (candidates.size() == 1 && !common.endsWith("/")) {
+            common += " ";
+        }
+        
+        if (common.length() > word.length()) {
+            String added = common.substring(word.length());
+            boolean space = added.endsWith(" ") && candidates.size() == 1;
+            if (space) {
+                added = added.substring(0, added.length() - 1);
+            }
+            line.insert(escape(added, word.isEmpty()) + (space ? " " : ""));
+            return "";
+        }
+        if (!listCandidates) {
+            return "\007";
+        }
+        // The list goes below the line, which is then drawn again
+        int nameStart = word.lastIndexOf('/') + 1;
+        StringBuilder listing = new StringBuilder(line.toEnd()).append("\r\n");
+        for (String candidate : candidates) {
+            listing.append(candidate, nameStart, candidate.length()).append("  ");
+        }
+        listing.append("\r\n").append(PROMPT);
+        line.reset();
+        return listing.toString();
+    }
+
+    // Characters the parser would otherwise split on, expand or treat as
+    // syntax, as bash escapes them in completions
+    private static final String COMPLETION_SPECIALS = " \t\n\\\"'|&;()<>$`*?[]{}!#";
+
+    // Where the word ending at the end of `head` starts: after the last
+    // space that isn't escaped with a backslash
+    private static int wordStart(String head) {
+        int start = 0;
+        for (int i = 0; i < head.length(); i++) {
+            char c = head.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ' ') {
+                start = i + 1;
+            }
+        }
+        return start;
+    }
+
+    private static String unescape(String word) {
+        StringBuilder sb = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c == '\\' && i + 1 < word.length()) {
+                c = word.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // A leading ~ is only special at the start of a word
+    private static String escape(String text, boolean wordStart) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (COMPLETION_SPECIALS.indexOf(c) >= 0 || (c == '~' && wordStart && i == 0)) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
+
+
+// git add .
+// git commit -m "Added Histfile environment variable"
\ No newline at end of file
@@ -0,0 +1,304 @@
+package shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// parallel [-j N] [-k] [--halt never|soon,fail=N|now,fail=N] COMMAND [ARGS...] [::: INPUTS...]
+//
+// Runs COMMAND once per input (the words after :::, or else the lines of
+// standard input), with {} in its arguments replaced by the input or the
+// input appended when there is no {}. Up to N commands (default: one per
+// core) run at once on a work-stealing pool, and inputs are scheduled as
+// they are read, so `find | parallel` starts before find is done. Each
+// command's output is collected and written in one piece, in completion
+// order or with -k in input order, so lines of different commands never
+// interleave.
+class Parallel implements Filters.Filter {
+
+    // --halt: keep going, stop starting new commands, or also kill the running ones
+    enum Halt { NEVER, SOON, NOW }
+
+    private static final int MAX_STATUS = 101; // Failures counted in the exit status, as in GNU parallel
+
+    private final List<String> template;
+    private final List<String> inputs; // null: read standard input
+    private final int jobs;
+    private final boolean keepOrder;
+    private final Halt halt;
+    private final int failLimit;
+    private final Function<List<String>, ProcessBuilder> processes; // The session's directory and environment
+    private final Function<String, File> lookup;
+
+    // Shared by the commands of one run
+    private final Set<Process> running = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, Result> pending = new HashMap<>(); // -k results waiting for their turn
+    private ForkJoinPool pool;
+    private ExecutorService errorReaders;
+    private OutputStream out;
+    private PrintStream err;
+    private int nextToWrite = 0;
+    private int failures = 0;
+    private int haltStatus = -1;
+    private volatile boolean halted = false;
+
+    private record Result(byte[] output, byte[] errors, int status) {
+    }
+
+    private Parallel(List<String> template, List<String> inputs, int jobs, boolean keepOrder,
+                     Halt halt, int failLimit, Function<List<String>, ProcessBuilder> processes,
+                     Function<String, File> lookup) {
+        this.template = template;
+        this.inputs = inputs;
+        this.jobs = jobs;
+        this.keepOrder = keepOrder;
+        this.halt = halt;
+        this.failLimit = failLimit;
+        this.processes = processes;
+        this.lookup = lookup;
+    }
+
+    // Throws IllegalArgumentException with the message to show for bad usage
+    static Parallel parse(String[] args, Function<List<String>, ProcessBuilder> processes,
+                          Function<String, File> lookup) {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        boolean keepOrder = false;
+        Halt halt = Halt.NEVER;
+        int failLimit = 1;
+
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-") && args[i].length() > 1; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                i++;
+                break;
+            }
+            if (arg.equals("-k") || arg.equals("--keep-order")) {
+                keepOrder = true;
+            } else if (arg.startsWith("-j") || arg.equals("--jobs")) {
+                String value = arg.startsWith("-j") && arg.length() > 2 ? arg.substring(2)
+                        : ++i < args.length ? args[i] : null;
+                long n = Filters.parseCount(value);
+                if (n < 0 || n > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("parallel: invalid number of jobs: " + value);
+                }
+                // -j 0: as many as there are inputs, up to the pool's limit
+                jobs = n == 0 ? Short.MAX_VALUE : (int) n;
+            } else if (arg.equals("--halt")) {
+                String value = ++i < args.length ? args[i] : "";
+                if (value.equals("never")) {
+                    halt = Halt.NEVER;
+                } else if (value.startsWith("soon,fail=") || value.startsWith("now,fail=")) {
+                    halt = value.startsWith("soon") ? Halt.SOON : Halt.NOW;
+                    long n = Filters.parseCount(value.substring(value.indexOf('=') + 1));
+                    if (n < 1 || n > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("parallel: invalid --halt: " + value);
+                    }
+                    failLimit = (int) n;
+                } else {
+                    throw new IllegalArgumentException("parallel: invalid --halt: " + value);
+                }
+            } else {
+                throw new IllegalArgumentException("parallel: " + arg + ": unknown option");
+            }
+        }
+
+        List<String> rest = Arrays.asList(args).subList(i, args.length);
+        int separator = rest.indexOf(":::");
+        List<String> template = separator < 0 ? rest : rest.subList(0, separator);
+        List<String> inputs = separator < 0 ? null : rest.subList(separator + 1, rest.size());
+        if (template.isEmpty()) {
+            throw new IllegalArgumentException("parallel: usage: parallel [-j N] [-k] [--halt POLICY] command [args] [::: inputs]");
+        }
+        if (inputs != null && inputs.contains(":::")) {
+            throw new IllegalArgumentException("parallel: only one ::: input source is supported");
+        }
+        return new Parallel(List.copyOf(template), inputs, jobs, keepOrder, halt, failLimit, processes, lookup);
+    }
+
+    @Override
+    public int run(InputStream in, OutputStream output, PrintStream errors) throws IOException {
+        out = output;
+        err = errors;
+        pool = new ForkJoinPool(jobs);
+        errorReaders = Executors.newCachedThreadPool(task -> {
+            Thread t = new Thread(task, "parallel-stderr");
+            t.setDaemon(true);
+            return t;
+        });
+        int submitted = 0;
+        try {
+            if (inputs != null) {
+                for (String input : inputs) {
+                    if (halted) {
+                        break;
+                    }
+                    submit(submitted++, input);
+                }
+            } else {
+                LineReader lines = new LineReader(in, null);
+                Charset charset = Charset.defaultCharset();
+                while (!halted && lines.next()) {
+                    if (lines.length() > 0) {
+                        submit(submitted++, new String(lines.buffer(), lines.start(), lines.length(), charset));
+                    }
+                }
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Commands can run for as long as they like
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRunning();
+            return 130;
+        } finally {
+            pool.shutdownNow();
+            errorReaders.shutdownNow();
+        }
+        out.flush();
+        synchronized (this) {
+            return haltStatus >= 0 ? haltStatus : Math.min(failures, MAX_STATUS);
+        }
+    }
+
+    private void submit(int index, String input) {
+        pool.execute(() -> complete(index, halted ? null : execute(input)));
+    }
+
+    // Runs one command and collects its output; null if it was never started
+    // or killed by --halt now
+    private Result execute(String input) {
+        List<String> command = substitute(input);
+        String name = command.get(0);
+        if (lookup.apply(name) == null) {
+            return new Result(new byte[0], (name + ": command not found\n").getBytes(), 127);
+        }
+        Process process = null;
+        try {
+            ProcessBuilder pb = processes.apply(command);
+            ShellEvents.SpawnTimer spawn = new ShellEvents.SpawnTimer(name, 1);
+            process = pb.start();
+            InputStream stdout = spawn.started(process.getInputStream());
+            running.add(process);
+            process.getOutputStream().close();
+            InputStream stderr = process.getErrorStream();
+            Future<byte[]> errorBytes = errorReaders.submit(stderr::readAllBytes);
+            byte[] output = stdout.readAllBytes();
+            int status = process.waitFor();
+            byte[] errorOutput = errorBytes.get();
+            return halted && halt == Halt.NOW ? null : new Result(output, errorOutput, status);
+        } catch (IOException e) {
+            if (process == null) {
+                ShellStats.spawnFailures.incrementAndGet();
+            }
+            return new Result(new byte[0], (name + ": " + e.getMessage() + "\n").getBytes(), 127);
+        } catch (Exception e) {
+            // Interrupted or failed reading stderr: the run is being stopped
+            if (process != null) {
+                StageScope.destroy(process);
+            }
+            return null;
+        } finally {
+            if (process != null) {
+                running.remove(process);
+            }
+        }
+    }
+
+    // {} is the input, {.} without its extension, {/} its last path
+    // component, {//} its directory and {/.} the last component without
+    // its extension; without any of them the input is appended
+    private List<String> substitute(String input) {
+        List<String> command = new ArrayList<>(template.size() + 1);
+        boolean replaced = false;
+        for (String word : template) {
+            if (word.indexOf('{') < 0) {
+                command.add(word);
+                continue;
+            }
+            String base = input.substring(input.lastIndexOf('/') + 1);
+            int slash = input.lastIndexOf('/');
+            String expanded = word
+                    .replace("{//}", slash < 0 ? "." : slash == 0 ? "/" : input.substring(0, slash))
+                    .replace("{/.}", withoutExtension(base))
+                    .replace("{/}", base)
+                    .replace("{.}", withoutExtension(input))
+                    .replace("{}", input);
+            replaced |= !expanded.equals(word);
+            command.add(expanded);
+        }
+        if (!replaced) {
+            command.add(input);
+        }
+        return command;
+    }
+
+    private static String withoutExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot > path.lastIndexOf('/') + 1 ? path.substring(0, dot) : path;
+    }
+
+    // Writes a finished command's output (or with -k, every result that is
+    // now next in line) and applies the --halt policy
+    private synchronized void complete(int index, Result result) {
+        if (keepOrder) {
+            pending.put(index, result);
+            while (pending.containsKey(nextToWrite)) {
+                write(pending.remove(nextToWrite++));
+            }
+        } else {
+            write(result);
+        }
+        if (result == null || result.status == 0 || halted) {
+            return;
+        }
+        failures++;
+        if (halt != Halt.NEVER && failures >= failLimit) {
+            halted = true;
+            haltStatus = result.status;
+            if (halt == Halt.NOW) {
+                stopRunning();
+            }
+        }
+    }
+
+    private void write(Result result) {
+        if (result == null) {
+            return;
+        }
+        try {
+            out.write(result.output);
+            out.flush();
+        } catch (IOException e) {
+            // The reader went away; the remaining commands still run, like
+            // GNU parallel, but their output has nowhere to go
+        }
+        err.write(result.errors, 0, result.errors.length);
+        err.flush();
+    }
+
+    private void stopRunning() {
+        halted = true;
+        for (Process p : running) {
+            // Its children too, or they keep the output pipe open
+            StageScope.destroy(p);
+        }
+    }
+}
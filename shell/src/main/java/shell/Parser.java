@@ -0,0 +1,356 @@
+package shell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns an input line into a small syntax tree in one pass: a pipeline of
+// commands, each a list of words. Quotes and backslashes are resolved while
+// scanning, so an operator inside quotes (echo 'a | b') stays part of its
+// word. Words without quoting are cut straight out of the line; the others
+// are assembled in a scratch buffer that is reused from line to line.
+// Redirections (<, >, >>, 2>, 2>&1, &>...) are collected per command, and
+// a trailing & marks the pipeline to run in the background. A leading
+// `time [-p] [-v]` is a keyword that marks the pipeline to be timed.
+class Parser {
+
+    static final class Command {
+        final List<String> words = new ArrayList<>(4);
+        final List<Redirect> redirects = new ArrayList<>(0); // In the order they were written
+
+        // "" for a command that is only redirections (> file)
+        String name() {
+            return words.isEmpty() ? "" : words.get(0);
+        }
+
+        boolean isEmpty() {
+            return words.isEmpty() && redirects.isEmpty();
+        }
+
+        String[] arguments() {
+            return words.isEmpty() ? new String[0] : words.subList(1, words.size()).toArray(new String[0]);
+        }
+    }
+
+    // fd < target, fd > target, fd >> target, or fd >& other fd
+    static final class Redirect {
+        enum Kind { INPUT, OUTPUT, APPEND, DUPLICATE }
+
+        final int fd;
+        final Kind kind;
+        final String target; // A file name, or the descriptor number to duplicate
+
+        Redirect(int fd, Kind kind, String target) {
+            this.fd = fd;
+            this.kind = kind;
+            this.target = target;
+        }
+    }
+
+    static final class Pipeline {
+        final List<Command> commands = new ArrayList<>(2);
+        boolean background;
+        boolean timed;
+        boolean posixTime;    // time -p: POSIX output format
+        boolean stageMetrics; // time -v: a line per stage as well
+
+        boolean isEmpty() {
+            return commands.isEmpty();
+        }
+    }
+
+    static final class SyntaxException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxException(String token) {
+            super("syntax error near unexpected token `" + token + "'");
+        }
+    }
+
+    private char[] scratch = new char[256];
+
+    Pipeline parse(String line) throws SyntaxException {
+        Pipeline pipeline = new Pipeline();
+        Command command = new Command();
+        int length = line.length();
+        int i = time(line, pipeline);
+
+        while (true) {
+            while (i < length && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            if (i == length || line.charAt(i) == '#') {
+                // A # starting a word comments out the rest of the line
+                // (which also covers a script's #! line)
+                break;
+            }
+            if (startsRedirect(line, i)) {
+                i = redirect(line, i, command.redirects);
+                continue;
+            }
+            if (line.charAt(i) == '|') {
+                if (command.isEmpty()) {
+                    throw new SyntaxException("|");
+                }
+                pipeline.commands.add(command);
+                command = new Command();
+                i++;
+                continue;
+            }
+            if (line.charAt(i) == '&') {
+                // Only allowed at the end of the line
+                if (i + 1 < length && line.charAt(i + 1) == '&') {
+                    throw new SyntaxException("&&");
+                }
+                if (command.isEmpty()) {
+                    throw new SyntaxException("&");
+                }
+                int rest = i + 1;
+                while (rest < length && Character.isWhitespace(line.charAt(rest))) {
+                    rest++;
+                }
+                if (rest < length && line.charAt(rest) != '#') {
+                    int end = rest;
+                    while (end < length && !Character.isWhitespace(line.charAt(end))) {
+                        end++;
+                    }
+                    throw new SyntaxException(line.substring(rest, end));
+                }
+                pipeline.background = true;
+                i = length;
+                continue;
+            }
+            i = word(line, i, command.words);
+        }
+
+        if (!command.isEmpty()) {
+            pipeline.commands.add(command);
+        } else if (!pipeline.commands.isEmpty()) {
+            // A trailing pipe with nothing to feed
+            throw new SyntaxException("newline");
+        }
+        return pipeline;
+    }
+
+    // Reads a leading `time` and its options, returning where the pipeline starts
+    private static int time(String line, Pipeline pipeline) {
+        int i = skipKeyword(line, 0, "time");
+        if (i < 0) {
+            return 0;
+        }
+        pipeline.timed = true;
+        while (true) {
+            int next = skipKeyword(line, i, "-p");
+            if (next >= 0) {
+                pipeline.posixTime = true;
+                i = next;
+                continue;
+            }
+            next = skipKeyword(line, i, "-v");
+            if (next >= 0) {
+                pipeline.stageMetrics = true;
+                i = next;
+                continue;
+            }
+            return i;
+        }
+    }
+
+    // The position after `word` if it is the next unquoted word, else -1
+    private static int skipKeyword(String line, int start, String word) {
+        int i = start;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        int end = i + word.length();
+        if (!line.startsWith(word, i) || (end < line.length() && !Character.isWhitespace(line.charAt(end))
+                && line.charAt(end) != '|' && line.charAt(end) != '&')) {
+            return -1;
+        }
+        return end;
+    }
+
+    // <, >, &> or a descriptor number right before < or >
+    private static boolean startsRedirect(String line, int i) {
+        int length = line.length();
+        char c = line.charAt(i);
+        if (c == '<' || c == '>') {
+            return true;
+        }
+        if (c == '&') {
+            return i + 1 < length && line.charAt(i + 1) == '>';
+        }
+        int j = i;
+        while (j < length && line.charAt(j) >= '0' && line.charAt(j) <= '9') {
+            j++;
+        }
+        return j > i && j < length && (line.charAt(j) == '<' || line.charAt(j) == '>');
+    }
+
+    // Reads the redirection starting at `start`, adds it and returns where it ended
+    private int redirect(String line, int start, List<Redirect> redirects) throws SyntaxException {
+        int length = line.length();
+        int i = start;
+        boolean both = false; // &> and &>> send stdout and stderr to the file
+        int fd = -1;
+        if (line.charAt(i) == '&') {
+            both = true;
+            i++;
+        } else if (line.charAt(i) != '<' && line.charAt(i) != '>') {
+            int digits = i;
+            while (line.charAt(i) != '<' && line.charAt(i) != '>') {
+                i++;
+            }
+            try {
+                fd = Integer.parseInt(line.substring(digits, i));
+            } catch (NumberFormatException e) {
+                throw new SyntaxException(line.substring(digits, i));
+            }
+        }
+
+        Redirect.Kind kind;
+        if (line.charAt(i++) == '<') {
+            kind = Redirect.Kind.INPUT;
+            if (i < length && line.charAt(i) == '&') {
+                kind = Redirect.Kind.DUPLICATE;
+                i++;
+            }
+            fd = fd < 0 ? 0 : fd;
+        } else {
+            kind = Redirect.Kind.OUTPUT;
+            if (i < length && line.charAt(i) == '>') {
+                kind = Redirect.Kind.APPEND;
+                i++;
+            } else if (i < length && line.charAt(i) == '&' && !both) {
+                kind = Redirect.Kind.DUPLICATE;
+                i++;
+            } else if (i < length && line.charAt(i) == '|') {
+                i++; // >| is > without noclobber, which is never set
+            }
+            fd = fd < 0 ? 1 : fd;
+        }
+
+        while (i < length && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            throw new SyntaxException("newline");
+        }
+        char c = line.charAt(i);
+        if (c == '|' || c == '&' || c == '<' || c == '>') {
+            throw new SyntaxException(String.valueOf(c));
+        }
+        List<String> target = new ArrayList<>(1);
+        i = word(line, i, target);
+        String name = target.get(0);
+
+        if (kind == Redirect.Kind.DUPLICATE && !isNumber(name)) {
+            if (fd != 1 || line.charAt(start) != '>') {
+                throw new SyntaxException(name);
+            }
+            // >&file is another way to write &>file
+            kind = Redirect.Kind.OUTPUT;
+            both = true;
+        }
+        redirects.add(new Redirect(fd, kind, name));
+        if (both) {
+            redirects.add(new Redirect(2, Redirect.Kind.DUPLICATE, "1"));
+        }
+        return i;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.isEmpty() || s.length() > 9) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reads the word starting at `start`, adds it and returns where it ended
+    private int word(String line, int start, List<String> words) {
+        int length = line.length();
+        int i = start;
+
+        // Plain words, by far the most common, need no copying
+        while (i < length) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c) || c == '|' || c == '&' || c == '<' || c == '>') {
+                words.add(line.substring(start, i));
+                return i;
+            }
+            if (c == '\'' || c == '"' || c == '\\') {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            words.add(line.substring(start));
+            return i;
+        }
+
+        int size = i - start;
+        ensure(size + (length - i));
+        line.getChars(start, i, scratch, 0);
+
+        boolean inSingle = false;
+        boolean inDouble = false;
+        for (; i < length; i++) {
+            char c = line.charAt(i);
+
+            if (inSingle) {
+                // Everything up to the closing quote is literal
+                if (c == '\'') {
+                    inSingle = false;
+                } else {
+                    scratch[size++] = c;
+                }
+                continue;
+            }
+
+            if (c == '\\') {
+                if (i + 1 == length) {
+                    scratch[size++] = '\\';
+                    continue;
+                }
+                char next = line.charAt(++i);
+                if (inDouble && next != '$' && next != '`' && next != '"' && next != '\\' && next != '\n') {
+                    scratch[size++] = '\\';
+                }
+                scratch[size++] = next;
+                continue;
+            }
+
+            if (c == '"') {
+                inDouble = !inDouble;
+                continue;
+            }
+            if (inDouble) {
+                scratch[size++] = c;
+                continue;
+            }
+
+            if (c == '\'') {
+                inSingle = true;
+                continue;
+            }
+            if (Character.isWhitespace(c) || c == '|' || c == '&' || c == '<' || c == '>') {
+                break;
+            }
+            scratch[size++] = c;
+        }
+
+        // An unterminated quote runs to the end of the line
+        words.add(new String(scratch, 0, size));
+        return i;
+    }
+
+    private void ensure(int capacity) {
+        if (scratch.length < capacity) {
+            scratch = new char[Math.max(capacity, scratch.length * 2)];
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package shell;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Per-stage numbers for `time -v`: wall time, bytes into and out of each
+// stage as seen by the shell's pumps and in-process stages, time spent
+// blocked writing into the next stage (a full pipe means the next stage is
+// the slow one) and exit status. Bytes that go stage to stage through an OS
+// pipe never pass through the shell and are shown as "-". A disabled
+// instance hands every stream back unchanged.
+class PipelineMetrics {
+
+    private static final class Stage {
+        final String command;
+        volatile long start;
+        volatile long end;
+        volatile long bytesIn = -1;
+        volatile long bytesOut = -1;
+        volatile long stalled;
+        volatile int status;
+        CompletableFuture<?> exit; // For processes, completes when end is set
+
+        Stage(String command) {
+            this.command = command;
+        }
+    }
+
+    private final Stage[] stages;
+
+    PipelineMetrics(List<Parser.Command> commands, boolean enabled) {
+        stages = enabled ? new Stage[commands.size()] : null;
+        if (enabled) {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new Stage(String.join(" ", commands.get(i).words));
+            }
+        }
+    }
+
+    void started(int stage) {
+        if (stages != null) {
+            stages[stage].start = System.nanoTime();
+        }
+    }
+
+    void finished(int stage, int status) {
+        if (stages != null) {
+            stages[stage].end = System.nanoTime();
+            stages[stage].status = status;
+        }
+    }
+
+    void watch(int stage, Process process) {
+        if (stages != null) {
+            Stage s = stages[stage];
+            s.start = System.nanoTime();
+            s.exit = process.onExit().thenAccept(p -> {
+                s.end = System.nanoTime();
+                s.status = p.exitValue();
+            });
+        }
+    }
+
+    // What a stage reads from its input
+    InputStream input(int stage, InputStream in) {
+        if (stages == null) {
+            return in;
+        }
+        Stage s = stages[stage];
+        s.bytesIn = 0;
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    s.bytesIn++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    s.bytesIn += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    // What the shell writes into a process stage's stdin
+    OutputStream feed(int stage, OutputStream toStage) {
+        if (stages == null) {
+            return toStage;
+        }
+        Stage s = stages[stage];
+        s.bytesIn = 0;
+        return new FilterOutputStream(toStage) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                s.bytesIn += len;
+            }
+        };
+    }
+
+    // What a stage writes to the next one; time spent inside write is time
+    // the stage was held up by the stage after it
+    OutputStream output(int stage, OutputStream out) {
+        if (stages == null) {
+            return out;
+        }
+        Stage s = stages[stage];
+        s.bytesOut = 0;
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                long t = System.nanoTime();
+                out.write(b);
+                s.stalled += System.nanoTime() - t;
+                s.bytesOut++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long t = System.nanoTime();
+                out.write(b, off, len);
+                s.stalled += System.nanoTime() - t;
+                s.bytesOut += len;
+            }
+        };
+    }
+
+    // What the shell reads from a process stage's stdout
+    InputStream drain(int stage, InputStream fromStage) {
+        if (stages == null) {
+            return fromStage;
+        }
+        Stage s = stages[stage];
+        s.bytesOut = 0;
+        return new FilterInputStream(fromStage) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    s.bytesOut += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    // The time a drained stage's pump spent blocked on the next stage
+    OutputStream pumpOutput(int stage, OutputStream out) {
+        if (stages == null) {
+            return out;
+        }
+        Stage s = stages[stage];
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                long t = System.nanoTime();
+                out.write(b, off, len);
+                s.stalled += System.nanoTime() - t;
+            }
+        };
+    }
+
+    void print(PrintStream err) {
+        if (stages == null) {
+            return;
+        }
+        err.printf("%-5s %-24s %10s %10s %10s %10s %6s%n", "stage", "command", "wall", "in", "out", "stalled", "status");
+        for (int i = 0; i < stages.length; i++) {
+            Stage s = stages[i];
+            if (s.exit != null) {
+                s.exit.join();
+            }
+            String command = s.command.length() > 24 ? s.command.substring(0, 21) + "..." : s.command;
+            boolean ran = s.start != 0 && s.end != 0;
+            err.printf("%-5d %-24s %10s %10s %10s %10s %6s%n", i + 1, command,
+                    ran ? seconds(s.end - s.start) : "-", bytes(s.bytesIn), bytes(s.bytesOut),
+                    s.bytesOut >= 0 ? seconds(s.stalled) : "-", ran ? String.valueOf(s.status) : "-");
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return String.format("%.3fs", nanos / 1e9);
+    }
+
+    private static String bytes(long n) {
+        if (n < 0) {
+            return "-";
+        }
+        if (n < 1024) {
+            return n + "B";
+        }
+        if (n < 1024 * 1024) {
+            return String.format("%.1fK", n / 1024.0);
+        }
+        return String.format("%.1fM", n / (1024.0 * 1024));
+    }
+
+    // User and sys CPU time of a timed command, in nanoseconds: that of the
+    // threads that ran it in the shell (builtins and in-process stages) and
+    // that of each process it started. Counters for the whole JVM would
+    // also take in other sessions, background jobs and the JVM's own GC and
+    // compiler threads, and Java has no wait4() to get one child's rusage,
+    // so each process started while the clock runs is wrapped in a /bin/sh
+    // that appends its `times` to a report file when the command exits.
+    // That costs a fork per process, which shows in the real time but not
+    // in user or sys: the sh's own CPU time is on a line of its own.
+    static final class CpuClock {
+
+        private static final String REPORT = "\"$@\"; s=$?; times >> \"$0\"; exit $s";
+        private static final Pattern TIME = Pattern.compile("(\\d+)m([0-9.]+)s");
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final long[] start;
+        private Path report; // Shared by every process the clock wraps
+        private boolean unreported; // The report file couldn't be made
+        private long user;
+        private long sys;
+
+        CpuClock() {
+            start = threadTimes();
+        }
+
+        // The command to start in place of `command`, which reports its CPU
+        // time and exits with its status
+        synchronized List<String> wrap(List<String> command) {
+            if (report == null && !unreported) {
+                try {
+                    report = Files.createTempFile("shell-time", null);
+                } catch (IOException e) {
+                    unreported = true;
+                }
+            }
+            if (report == null) {
+                return command; // Run it uncounted
+            }
+            List<String> wrapped = new ArrayList<>(command.size() + 4);
+            wrapped.addAll(List.of("/bin/sh", "-c", REPORT, report.toString()));
+            wrapped.addAll(command);
+            return wrapped;
+        }
+
+        // Called by each in-process stage on its own thread when it starts,
+        // and with what that returned when it is done
+        long[] threadStarted() {
+            return threadTimes();
+        }
+
+        void threadFinished(long[] started) {
+            long[] now = threadTimes();
+            // User time is counted in clock ticks and total time more
+            // finely, so their difference can briefly look negative
+            long userTime = now[0] - started[0];
+            long sysTime = Math.max(0, now[1] - started[1] - userTime);
+            synchronized (this) {
+                user += userTime;
+                sys += sysTime;
+            }
+        }
+
+        // {user, sys} so far; the processes must have exited
+        synchronized long[] stop() {
+            threadFinished(start);
+            if (report != null) {
+                try {
+                    // Two lines from each process, written at once: the
+                    // sh's "0m0.001s 0m0.000s", then its child's
+                    List<String> lines = Files.readAllLines(report);
+                    for (int i = 1; i < lines.size(); i += 2) {
+                        Matcher m = TIME.matcher(lines.get(i));
+                        if (m.find()) {
+                            user += nanos(m);
+                        }
+                        if (m.find()) {
+                            sys += nanos(m);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Not counted
+                } finally {
+                    try {
+                        Files.deleteIfExists(report);
+                    } catch (IOException e) {
+                        // Left in the temporary directory
+                    }
+                    report = null;
+                }
+            }
+            return new long[] {user, sys};
+        }
+
+        // The current thread's {user, user + sys}, zeros where the JVM
+        // can't say (virtual threads, or no thread CPU time support)
+        private long[] threadTimes() {
+            try {
+                long cpu = threads.getCurrentThreadCpuTime();
+                long userTime = threads.getCurrentThreadUserTime();
+                return cpu >= 0 && userTime >= 0 ? new long[] {userTime, cpu} : new long[2];
+            } catch (UnsupportedOperationException e) {
+                return new long[2];
+            }
+        }
+
+        private static long nanos(Matcher m) {
+            return Long.parseLong(m.group(1)) * 60_000_000_000L
+                    + new BigDecimal(m.group(2)).movePointRight(9).longValue();
+        }
+    }
+
+    // bash's format, or POSIX's with -p
+    static void printTimes(PrintStream err, long real, long user, long sys, boolean posix) {
+        if (posix) {
+            err.printf("real %.2f%nuser %.2f%nsys %.2f%n", real / 1e9, user / 1e9, sys / 1e9);
+            return;
+        }
+        err.println();
+        err.println("real\t" + minutes(real));
+        err.println("user\t" + minutes(user));
+        err.println("sys\t" + minutes(sys));
+    }
+
+    private static String minutes(long nanos) {
+        long millis = nanos / 1_000_000;
+        return (millis / 60_000) + "m" + String.format("%d.%03ds", millis / 1000 % 60, millis % 1000);
+    }
+}
@@ -0,0 +1,272 @@
+package shell;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where a command's standard input, output and error end up once its
+// redirections are applied left to right, as in sh: `>f 2>&1` sends both
+// to f, `2>&1 >f` only stdout. Files are opened (created, truncated) while
+// resolving, so a bad target fails before the command runs. External
+// commands get the files as ProcessBuilder redirects and the OS writes them
+// directly; built-ins write through a buffered FileChannel.
+class Redirections implements Closeable {
+
+    static final class RedirectException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        RedirectException(String message) {
+            super(message);
+        }
+    }
+
+    // A descriptor's destination: the stream the command would have had
+    // anyway (0, 1 or 2), or a file
+    private static final class Target {
+        final int inherited;
+        final File file;
+        final FileChannel channel;
+        FileOutput output; // Built-in writes, shared by descriptors sharing the target
+
+        Target(int inherited) {
+            this(inherited, null, null);
+        }
+
+        Target(int inherited, File file, FileChannel channel) {
+            this.inherited = inherited;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    // Buffered writes to a file; cat asks for the channel to copy into it directly
+    static final class FileOutput extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(Filters.BUFFER_SIZE);
+
+        FileOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > buffer.remaining()) {
+                flush();
+                if (len > buffer.capacity()) {
+                    // Too big to be worth copying into the buffer
+                    ByteBuffer data = ByteBuffer.wrap(b, off, len);
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    return;
+                }
+            }
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // The file, with everything written so far already in it
+        FileChannel channel() throws IOException {
+            flush();
+            return channel;
+        }
+    }
+
+    private static final Redirections NONE = new Redirections();
+    private static final File STDOUT_FILE = new File("/dev/stdout");
+    private static final File STDERR_FILE = new File("/dev/stderr");
+
+    private final Target[] targets = {new Target(0), new Target(1), new Target(2)};
+    private final List<Target> opened = new ArrayList<>();
+
+    // Opens every file in the list; on failure closes what was opened
+    static Redirections resolve(List<Parser.Redirect> redirects, File dir) throws RedirectException {
+        if (redirects.isEmpty()) {
+            return NONE;
+        }
+        Redirections result = new Redirections();
+        try {
+            for (Parser.Redirect redirect : redirects) {
+                result.apply(redirect, dir);
+            }
+        } catch (RedirectException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    private void apply(Parser.Redirect redirect, File dir) throws RedirectException {
+        if (redirect.fd > 2) {
+            throw new RedirectException(redirect.fd + ": only descriptors 0, 1 and 2 can be redirected");
+        }
+        if (redirect.kind == Parser.Redirect.Kind.DUPLICATE) {
+            int from = Integer.parseInt(redirect.target);
+            if (from > 2) {
+                throw new RedirectException(from + ": Bad file descriptor");
+            }
+            targets[redirect.fd] = targets[from];
+            return;
+        }
+
+        Path path = dir.toPath().resolve(redirect.target);
+        FileChannel channel;
+        try {
+            channel = switch (redirect.kind) {
+                case INPUT -> FileChannel.open(path, StandardOpenOption.READ);
+                case APPEND -> FileChannel.open(path, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                default -> FileChannel.open(path, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            };
+        } catch (IOException e) {
+            if (Files.isDirectory(path)) {
+                throw new RedirectException(redirect.target + ": Is a directory");
+            }
+            throw new RedirectException(redirect.target + ": " + Filters.reason(e));
+        }
+        Target target = new Target(-1, path.toFile(), channel);
+        opened.add(target);
+        targets[redirect.fd] = target;
+    }
+
+    boolean isEmpty() {
+        return this == NONE;
+    }
+
+    // Whether stdin or stdout is moved, which takes a pipeline stage off
+    // the pipe it would otherwise read or write
+    static boolean movesStdio(Parser.Command command) {
+        for (Parser.Redirect redirect : command.redirects) {
+            if (redirect.fd <= 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Applies the redirections on top of what the builder already has for
+    // the command's own streams
+    void applyTo(ProcessBuilder pb) {
+        ProcessBuilder.Redirect stdout = pb.redirectOutput();
+        ProcessBuilder.Redirect stderr = pb.redirectError();
+        Target in = targets[0];
+        if (in.file != null) {
+            // Opened again too, see redirect()
+            pb.redirectInput(ProcessBuilder.Redirect.from(in.file));
+        }
+
+        Target out = targets[1];
+        if (out.file != null) {
+            pb.redirectOutput(redirect(out));
+        } else if (out.inherited == 2) {
+            // A piped stderr is copied by the shell, which then does the same
+            // with stdout (see inherited)
+            pb.redirectOutput(stderr == ProcessBuilder.Redirect.INHERIT
+                    ? ProcessBuilder.Redirect.appendTo(STDERR_FILE)
+                    : stderr);
+        }
+
+        Target err = targets[2];
+        if (err == out) {
+            pb.redirectErrorStream(true);
+        } else if (err.file != null) {
+            pb.redirectError(redirect(err));
+        } else if (err.inherited == 1 && stdout == ProcessBuilder.Redirect.INHERIT) {
+            // 2>&1 took the shell's stdout before stdout itself was moved
+            pb.redirectError(ProcessBuilder.Redirect.appendTo(STDOUT_FILE));
+        } else if (err.inherited == 1 && stdout == ProcessBuilder.Redirect.PIPE) {
+            // ... or the pipe to the next stage, which then reads stderr
+            pb.redirectError(ProcessBuilder.Redirect.PIPE);
+        }
+    }
+
+    // The JDK can only hand a child a file by name, so the file resolve()
+    // opened is opened a second time, by the JDK, when the process starts.
+    // The first open is what truncates it and reports a bad target before
+    // anything runs; appending to it afterwards writes the same way. If the
+    // path is replaced in between, the child writes to what is there then,
+    // and if it can no longer be opened start() fails with a
+    // FileNotFoundException as the cause, which callers report as a
+    // redirection error rather than as the command not being found.
+    private static ProcessBuilder.Redirect redirect(Target target) {
+        return ProcessBuilder.Redirect.appendTo(target.file);
+    }
+
+    // Which of the command's own streams (0, 1 or 2) descriptor fd ends up
+    // on, or -1 for a file: where the shell sends what it reads from a
+    // process's piped stdout or stderr
+    int inherited(int fd) {
+        Target target = targets[fd];
+        return target.file != null ? -1 : target.inherited;
+    }
+
+    // The file given with <, or null
+    FileChannel inputChannel() {
+        return targets[0].channel;
+    }
+
+    InputStream input(InputStream stdin) {
+        Target in = targets[0];
+        return in.channel != null ? Channels.newInputStream(in.channel) : stdin;
+    }
+
+    // Where a built-in's descriptor 1 or 2 writes, given the streams it
+    // would have had
+    OutputStream output(int fd, OutputStream stdout, OutputStream stderr) {
+        Target target = targets[fd];
+        if (target.channel == null) {
+            return target.inherited == 2 ? stderr : stdout;
+        }
+        if (target.output == null) {
+            target.output = new FileOutput(target.channel);
+        }
+        return target.output;
+    }
+
+    // Flushes what built-ins wrote and closes the files
+    @Override
+    public synchronized void close() {
+        for (Target target : opened) {
+            try {
+                if (target.output != null) {
+                    target.output.flush();
+                }
+            } catch (IOException e) {
+                // Nothing more can be written to it
+            }
+            try {
+                target.channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+        opened.clear();
+    }
+}
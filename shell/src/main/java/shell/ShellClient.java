@@ -0,0 +1,124 @@
+package shell;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Runs command lines in a session of a ShellDaemon and writes their output
+// here. It loads nothing of the shell but this class and the commands run in
+// the daemon's warm JVM, but a client JVM still takes about as long to start
+// as the shell (opening a Unix domain socket alone initializes the JDK's
+// SecureRandom): the daemon pays off for callers that keep a connection
+// open, or connect from a JVM of their own as DaemonLoad does.
+//
+//   java -cp shell.jar shell.ShellClient SOCKET [-c COMMANDS]
+//
+// Lines are read from COMMANDS or stdin and sent one at a time; the client
+// exits with the status of the last one.
+public final class ShellClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(5);
+    private ByteBuffer payload = ByteBuffer.allocate(8192);
+    private boolean ended = false;
+
+    // Opens a session that starts in directory
+    ShellClient(Path socket, File directory) throws IOException {
+        channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        send(directory.getAbsolutePath());
+    }
+
+    // Runs one command line, writing what it prints to out and err, and
+    // returns its exit status
+    int run(String line, OutputStream out, OutputStream err) throws IOException {
+        if (line.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("more than one line: " + line);
+        }
+        send(line);
+        while (true) {
+            byte type = readFrame();
+            switch (type) {
+                case ShellDaemon.STDOUT -> out.write(payload.array(), 0, payload.limit());
+                case ShellDaemon.STDERR -> err.write(payload.array(), 0, payload.limit());
+                case ShellDaemon.STATUS, ShellDaemon.EXIT -> {
+                    ended = type == ShellDaemon.EXIT;
+                    out.flush();
+                    err.flush();
+                    return payload.getInt(0);
+                }
+                default -> throw new IOException("unknown frame type " + type);
+            }
+        }
+    }
+
+    // True once the session has exited
+    boolean ended() {
+        return ended;
+    }
+
+    private void send(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    // Reads a frame's payload into payload and returns its type
+    private byte readFrame() throws IOException {
+        header.clear();
+        readFully(header);
+        byte type = header.get(0);
+        int length = header.getInt(1);
+        if (length > payload.capacity()) {
+            payload = ByteBuffer.allocate(length);
+        }
+        payload.clear().limit(length);
+        readFully(payload);
+        return type;
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("the daemon closed the connection");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && !(args.length == 3 && args[1].equals("-c"))) {
+            System.err.println("usage: ShellClient SOCKET [-c COMMANDS]");
+            System.exit(2);
+        }
+        BufferedReader lines = args.length == 3
+                ? new BufferedReader(new StringReader(args[2]))
+                : new BufferedReader(new InputStreamReader(System.in));
+        int status = 0;
+        try (ShellClient client = new ShellClient(Paths.get(args[0]), new File(System.getProperty("user.dir")))) {
+            String line;
+            while (!client.ended() && (line = lines.readLine()) != null) {
+                status = client.run(line, System.out, System.err);
+            }
+        } catch (IOException e) {
+            System.err.println("shell: " + args[0] + ": " + e.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+}
@@ -0,0 +1,249 @@
+package shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+// Serves shell sessions on a Unix domain socket ("shell --daemon SOCKET"):
+// each connection gets its own ShellSession, so a client pays for a
+// connection instead of a JVM start, and sessions find the classes loaded,
+// compiled and their PATH lookups made by the ones before them.
+//
+// The client sends lines: first the directory to start in, then one command
+// line per line. The server answers with frames of a type byte, a 4-byte
+// big-endian length and that many bytes:
+//
+//   'O'  output the command wrote to stdout
+//   'E'  output the command wrote to stderr
+//   'S'  the line's exit status (4 bytes), after each line
+//   'X'  the same for a line that ended the session (exit); the server
+//        closes the connection after it
+//
+// The socket is readable and writable by its owner only: anyone who can
+// connect runs commands as the daemon's user. Sessions start with the
+// daemon's environment and have nothing on stdin.
+// Each connection is served on its own thread: a virtual one when the JDK
+// has them, like pipeline stages (see StageScope), otherwise a pooled
+// platform thread.
+final class ShellDaemon {
+
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte STATUS = 'S';
+    static final byte EXIT = 'X';
+
+    // Output is sent when the session flushes or this much is waiting
+    private static final int FRAME_SIZE = 32 * 1024;
+
+    private final Map<String, String> environment = System.getenv();
+    // Resolves PATH misses for every client; each session has its own table
+    // in front of it (see ShellSession.forClient)
+    private final CommandHashTable commands =
+            new CommandHashTable(ShellSession.pathDirectories(environment.get("PATH")));
+    private final ExecutorService sessions =
+            StageScope.createExecutor(System.getProperty("shell.executor", "virtual"), "shell-session-");
+
+    // Listens on socket until the JVM is stopped; returns an exit status if
+    // it can't
+    static int serve(Path socket) {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        try {
+            if (Files.exists(socket)) {
+                // Left behind by a daemon that was killed, unless one still
+                // answers on it
+                try {
+                    SocketChannel.open(address).close();
+                    System.err.println("shell: " + socket + ": a daemon is already listening");
+                    return 1;
+                } catch (IOException e) {
+                    Files.delete(socket);
+                }
+            }
+            try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                bindPrivately(server, socket);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> socket.toFile().delete()));
+                System.err.println("shell: listening on " + socket);
+                new ShellDaemon().accept(server);
+            }
+        } catch (IOException e) {
+            System.err.println("shell: " + socket + ": " + e.getMessage());
+        }
+        return 1;
+    }
+
+    // Whoever can connect runs commands as this user, so the socket is only
+    // for its owner. It is bound in a directory no one else can enter, made
+    // owner-only, and then moved into place, so there is no moment when the
+    // umask's permissions let someone else connect.
+    private static void bindPrivately(ServerSocketChannel server, Path socket) throws IOException {
+        if (!socket.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            return;
+        }
+        Path parent = socket.toAbsolutePath().getParent();
+        Path directory = Files.createTempDirectory(parent, ".shell-daemon",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        try {
+            Path bound = directory.resolve("socket");
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.move(bound, socket);
+        } finally {
+            Files.deleteIfExists(directory.resolve("socket"));
+            Files.delete(directory);
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        while (true) {
+            SocketChannel client = server.accept();
+            sessions.execute(() -> serve(client));
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            Connection connection = new Connection(channel);
+            String dir = connection.readLine();
+            if (dir == null) {
+                return;
+            }
+            File directory = new File(dir);
+            if (!directory.isDirectory()) {
+                connection.send(STDERR, ("shell: " + dir + ": No such file or directory\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                connection.sendStatus(EXIT, 1);
+                return;
+            }
+            try (ShellSession session = ShellSession.forClient(directory, environment,
+                    new FrameOutput(connection, STDOUT), new FrameOutput(connection, STDERR), commands)) {
+                String line;
+                while ((line = connection.readLine()) != null) {
+                    ShellSession.Result result = session.execute(line);
+                    connection.sendStatus(result.exit() ? EXIT : STATUS, result.status());
+                    if (result.exit()) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The client went away; its session is closed with the connection
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // One client's socket. The session's thread reads lines while its
+    // background jobs may be writing frames, so reads and writes go through
+    // the channel directly: its streams would share one lock between them.
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(8192).flip();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private final ByteBuffer header = ByteBuffer.allocate(5);
+        private final ByteBuffer[] frame = new ByteBuffer[2];
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // The next line without its newline, or null at the end of input
+        String readLine() throws IOException {
+            while (true) {
+                if (!input.hasRemaining()) {
+                    input.clear();
+                    int n = channel.read(input);
+                    input.flip();
+                    if (n < 0) {
+                        return line.size() > 0 ? takeLine() : null;
+                    }
+                }
+                byte b = input.get();
+                if (b == '\n') {
+                    return takeLine();
+                }
+                line.write(b);
+            }
+        }
+
+        private String takeLine() {
+            String text = line.toString(StandardCharsets.UTF_8);
+            line.reset();
+            return text;
+        }
+
+        void send(byte type, byte[] bytes) throws IOException {
+            send(type, bytes, 0, bytes.length);
+        }
+
+        void sendStatus(byte type, int status) throws IOException {
+            send(type, ByteBuffer.allocate(4).putInt(status).array());
+        }
+
+        synchronized void send(byte type, byte[] bytes, int offset, int length) throws IOException {
+            header.clear();
+            header.put(type).putInt(length).flip();
+            frame[0] = header;
+            frame[1] = ByteBuffer.wrap(bytes, offset, length);
+            while (frame[1].hasRemaining() || header.hasRemaining()) {
+                channel.write(frame);
+            }
+        }
+    }
+
+    // A session's stdout or stderr: what is written goes out in frames of
+    // one type when the session flushes or the buffer fills
+    private static final class FrameOutput extends OutputStream {
+        private final Connection connection;
+        private final byte type;
+        private final byte[] buffer = new byte[FRAME_SIZE];
+        private int count = 0;
+
+        FrameOutput(Connection connection, byte type) {
+            this.connection = connection;
+            this.type = type;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (count > 0) {
+                connection.send(type, buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+}
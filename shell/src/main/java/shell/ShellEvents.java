@@ -0,0 +1,228 @@
+package shell;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Java Flight Recorder events for the shell's own work, so a session can be
+// profiled like any other JVM service:
+//
+//   java -XX:StartFlightRecording=filename=shell.jfr -jar shell.jar
+//   jfr print --categories Shell shell.jfr
+//
+// Loading the first event class sets up JFR's metadata, a few hundred
+// milliseconds on a cold JVM, so call sites only create events once the
+// recorder is running: the factories return null before that. Stack traces
+// are off: the call sites are fixed and known.
+final class ShellEvents {
+
+    private ShellEvents() {
+    }
+
+    // Whether JFR has been started, at launch or later with jcmd JFR.start
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // The factories below return a begun event, or null when not recording
+
+    static Parse parse() {
+        return begin(recording() ? new Parse() : null);
+    }
+
+    static PathLookup pathLookup() {
+        return begin(recording() ? new PathLookup() : null);
+    }
+
+    static Pipeline pipeline() {
+        return begin(recording() ? new Pipeline() : null);
+    }
+
+    static HistoryIO historyIO(String operation, String path) {
+        HistoryIO event = begin(recording() ? new HistoryIO() : null);
+        if (event != null) {
+            event.operation = operation;
+            event.path = path;
+        }
+        return event;
+    }
+
+    private static <T extends Event> T begin(T event) {
+        if (event != null) {
+            event.begin();
+        }
+        return event;
+    }
+
+    // Times a ProcessBuilder.start() for shellstats, and for JFR while it is
+    // recording. Create it just before start().
+    static final class SpawnTimer {
+        private final long started = System.nanoTime();
+        private final int processes;
+        private final Spawn event;
+        private volatile boolean done;
+
+        SpawnTimer(String command, int processes) {
+            this.processes = processes;
+            this.event = recording() ? new Spawn() : null;
+            if (event != null) {
+                event.command = command;
+                event.processes = processes;
+                event.begin();
+            }
+        }
+
+        // Call once the processes have started. Given the stream the shell
+        // reads their output from, returns it wrapped to time the first
+        // byte; without one there is nothing more to time.
+        InputStream started(InputStream output) {
+            long elapsed = System.nanoTime() - started;
+            ShellStats.SPAWN.record(elapsed);
+            ShellStats.processes.addAndGet(processes);
+            if (event != null) {
+                event.start = elapsed;
+            }
+            if (output == null) {
+                complete(false);
+                return null;
+            }
+            return new FilterInputStream(output) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    complete(b >= 0);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    complete(n > 0);
+                    return n;
+                }
+            };
+        }
+
+        private void complete(boolean sawByte) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (sawByte) {
+                ShellStats.FIRST_BYTE.since(started);
+            }
+            if (event != null) {
+                event.firstByte = sawByte;
+                event.end();
+                event.commit();
+            }
+        }
+    }
+
+    @Name("shell.Parse")
+    @Label("Parse")
+    @Category("Shell")
+    @StackTrace(false)
+    static final class Parse extends Event {
+        @Label("Length")
+        int length;
+
+        @Label("Stages")
+        int stages;
+
+        @Label("Syntax Error")
+        boolean failed;
+    }
+
+    @Name("shell.PathLookup")
+    @Label("PATH Lookup")
+    @Category("Shell")
+    @StackTrace(false)
+    static final class PathLookup extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Found")
+        boolean found;
+
+        @Label("Cached")
+        @Description("Answered from the hash table without searching PATH")
+        boolean cached;
+    }
+
+    @Name("shell.Spawn")
+    @Label("Process Spawn")
+    @Category("Shell")
+    @Description("From ProcessBuilder.start() until the shell reads the first byte of output")
+    @StackTrace(false)
+    static final class Spawn extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Processes")
+        int processes;
+
+        @Label("Start")
+        @Description("Time spent in ProcessBuilder.start()")
+        @Timespan
+        long start;
+
+        @Label("First Byte Seen")
+        @Description("False when the output went straight to a terminal or file, and the event ends at start()")
+        boolean firstByte;
+    }
+
+    @Name("shell.Pipeline")
+    @Label("Pipeline")
+    @Category("Shell")
+    @StackTrace(false)
+    static final class Pipeline extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Stages")
+        int stages;
+
+        @Label("Background")
+        boolean background;
+
+        @Label("Exit Status")
+        int status;
+    }
+
+    @Name("shell.HistoryIO")
+    @Label("History I/O")
+    @Category("Shell")
+    @StackTrace(false)
+    static final class HistoryIO extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("File")
+        String path;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Size")
+        @Description("Size of the file afterwards")
+        @DataAmount
+        long bytes;
+
+        void finish(int entries, long bytes) {
+            this.entries = entries;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package shell;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+// The shell's standard output: one large buffer in front of descriptor 1,
+// written out only when the shell is about to wait (at the prompt, before
+// reading input), before something else writes to the same descriptor (a
+// child process, cat's transferTo), at the end of a pipeline, or when it
+// fills. Built-in output such as a long history listing becomes a few big
+// writes instead of a write and flush per line. System.out is pointed at it
+// by install(); anything that must appear right away calls flush(). Writes
+// to System.err flush it first, so the two still come out in order.
+class ShellOutput extends OutputStream {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    ShellOutput(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    // Replaces System.out with a non-flushing PrintStream over a ShellOutput,
+    // and System.err with one that flushes it, keeping their encodings
+    static void install(WritableByteChannel stdout) {
+        ShellOutput out = new ShellOutput(stdout);
+        OutputStream fd2 = new FileOutputStream(FileDescriptor.err);
+        OutputStream err = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.flush();
+                fd2.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.flush();
+                fd2.write(b, off, len);
+            }
+        };
+        System.setOut(new PrintStream(out, false, encoding("sun.stdout.encoding")));
+        System.setErr(new PrintStream(err, true, encoding("sun.stderr.encoding")));
+    }
+
+    private static Charset encoding(String property) {
+        String name = System.getProperty(property);
+        return name != null ? Charset.forName(name) : Charset.defaultCharset();
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            // A reader that went away loses what was buffered, not the shell
+            buffer.clear();
+        }
+    }
+
+    // Appends value right-aligned in width columns, like %Nd, without going
+    // through a Formatter
+    static StringBuilder appendPadded(StringBuilder sb, long value, int width) {
+        int start = sb.length();
+        sb.append(value);
+        for (int pad = width - (sb.length() - start); pad > 0; pad--) {
+            sb.insert(start, ' ');
+        }
+        return sb;
+    }
+}
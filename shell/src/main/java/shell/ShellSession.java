@@ -0,0 +1,1546 @@
+package shell;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// One shell: its working directory, environment, history, jobs and I/O
+// streams. Nothing in it is global, so a JVM can run any number of sessions
+// side by side, e.g. to run commands from a service without starting a JVM
+// for each:
+//
+//   try (ShellSession session = new ShellSession()) {
+//       session.execute("cd /tmp");
+//       ShellSession.Result result = session.execute("ls | wc -l");
+//       System.out.println(result.status() + " " + result.output());
+//   }
+//
+// A session runs one command line at a time; calls from several threads
+// queue up. Its commands read an empty standard input, as background jobs
+// do, and write to the session's streams: by default a buffer returned with
+// each Result, or the streams it was given. Processes started by a session
+// have their output copied into those streams, except for the session Main
+// runs on the terminal, whose children share the shell's own descriptors.
+// shellstats and the JFR events still count every session in the JVM.
+public final class ShellSession implements Closeable {
+
+    // What a command line did: its exit status, whether it was exit, and
+    // what it wrote when the session collects its output ("" otherwise).
+    // Background jobs' output turns up in the Result of a later line.
+    public record Result(int status, boolean exit, String output, String error) {
+    }
+
+    enum ShellType {
+        TYPE, ECHO, EXIT, PWD, CD, CAT, HISTORY, HASH, JOBS, WAIT, FG, BG, PARALLEL,
+        SHELLSTATS, HEAD, TAIL, WC, GREP, SORT, UNIQ, NONE
+    }
+
+    private static final Map<String, ShellType> builtins =
+            Map.ofEntries(
+                    Map.entry("type", ShellType.TYPE),
+                    Map.entry("echo", ShellType.ECHO),
+                    Map.entry("exit", ShellType.EXIT),
+                    Map.entry("pwd", ShellType.PWD),
+                    Map.entry("cd", ShellType.CD),
+                    Map.entry("history", ShellType.HISTORY),
+                    Map.entry("hash", ShellType.HASH),
+                    Map.entry("jobs", ShellType.JOBS),
+                    Map.entry("wait", ShellType.WAIT),
+                    Map.entry("fg", ShellType.FG),
+                    Map.entry("bg", ShellType.BG),
+                    Map.entry("parallel", ShellType.PARALLEL),
+                    Map.entry("shellstats", ShellType.SHELLSTATS));
+
+    // Programs that are also implemented in the shell; in pipelines they run
+    // in-process unless they are given options only the real program knows
+    private static final Map<String, ShellType> externals =
+            Map.of(
+                    "cat", ShellType.CAT,
+                    "head", ShellType.HEAD,
+                    "tail", ShellType.TAIL,
+                    "wc", ShellType.WC,
+                    "grep", ShellType.GREP,
+                    "sort", ShellType.SORT,
+                    "uniq", ShellType.UNIQ);
+
+    static final int DEFAULT_HISTSIZE = 1000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // The direct buffer copyChannel reads through, allocated the first time
+    // one is needed and handed back after each copy. A copy running while
+    // another holds it (stages of one pipeline) gets a buffer of its own.
+    private static final AtomicReference<ByteBuffer> spareCopyBuffer = new AtomicReference<>();
+
+    // Where the JDK looks for a command given by its bare name
+    private static final String JVM_PATH = System.getenv("PATH");
+
+    private File currentDir;
+    private final Map<String, String> environment;
+    private final History commandHistory;
+    private final Map<String, Integer> fileAppendIndex = new HashMap<>(); // Track last appended index per file
+    private final Parser parser = new Parser();
+    private final JobTable jobTable;
+    private volatile int lastStatus = 0; // Exit status of the last command, like $?
+    boolean interactive = false; // Prompting, so jobs are announced
+    private volatile PipelineMetrics.CpuClock timing; // While `time` runs a pipeline
+
+    // PATH lookups, rebuilt when the environment's PATH changes
+    private String hashedPath;
+    private CommandHashTable commandHash;
+
+    private final InputStream stdin;
+    private final PrintStream stdout;
+    private final PrintStream stderr;
+    private final ByteArrayOutputStream capturedOut; // null when writing to given streams
+    private final ByteArrayOutputStream capturedErr;
+
+    // Only for the session on the process's own descriptors: children
+    // inherit them, cat writes to descriptor 1 through this channel, and
+    // the terminal is put back in cooked mode before a child gets it
+    private final boolean sharesStdio;
+    private final WritableByteChannel stdoutChannel;
+    private final Terminal terminal;
+
+    // A session in the JVM's working directory and environment that
+    // collects its output
+    public ShellSession() {
+        this(new File(System.getProperty("user.dir")), System.getenv());
+    }
+
+    // A session that collects its output
+    public ShellSession(File directory, Map<String, String> environment) {
+        this(directory, environment, new ByteArrayOutputStream(), new ByteArrayOutputStream(), true);
+    }
+
+    // A session that writes to out and err; its Results have no output
+    public ShellSession(File directory, Map<String, String> environment, OutputStream out, OutputStream err) {
+        this(directory, environment, out, err, false);
+    }
+
+    private ShellSession(File directory, Map<String, String> environment, OutputStream out, OutputStream err,
+                         boolean capture) {
+        this(directory, environment, InputStream.nullInputStream(), printStream(out), printStream(err),
+                capture ? (ByteArrayOutputStream) out : null, capture ? (ByteArrayOutputStream) err : null,
+                false, null, null);
+    }
+
+    private ShellSession(File directory, Map<String, String> environment, InputStream in, PrintStream out,
+                         PrintStream err, ByteArrayOutputStream capturedOut, ByteArrayOutputStream capturedErr,
+                         boolean sharesStdio, WritableByteChannel stdoutChannel, Terminal terminal) {
+        this.currentDir = directory.getAbsoluteFile();
+        this.environment = new HashMap<>(environment);
+        this.commandHistory = new History(historyLimit(this.environment, "HISTSIZE", DEFAULT_HISTSIZE),
+                ignoreDuplicateHistory(this.environment));
+        this.stdin = in;
+        this.stdout = out;
+        this.stderr = err;
+        this.capturedOut = capturedOut;
+        this.capturedErr = capturedErr;
+        this.sharesStdio = sharesStdio;
+        this.stdoutChannel = stdoutChannel;
+        this.terminal = terminal;
+        this.jobTable = new JobTable(err);
+    }
+
+    // The session Main runs: on System.in, System.out and System.err as they
+    // are now, whose descriptors its children inherit. stdout is descriptor
+    // 1's channel, for cat; terminal is the one to give back before a child
+    // runs. Either may be null.
+    static ShellSession onStdio(WritableByteChannel stdout, Terminal terminal) {
+        return new ShellSession(new File(System.getProperty("user.dir")), System.getenv(), System.in,
+                System.out, System.err, null, null, true, stdout, terminal);
+    }
+
+    // A session for a ShellDaemon client. While its PATH is the daemon's its
+    // own hash table resolves misses through the daemon's, shared by all
+    // clients, so it profits from the lookups earlier clients made without
+    // seeing or clearing their entries
+    static ShellSession forClient(File directory, Map<String, String> environment, OutputStream out,
+                                  OutputStream err, CommandHashTable commands) {
+        ShellSession session = new ShellSession(directory, environment, out, err, false);
+        session.hashedPath = session.environment.get("PATH");
+        session.commandHash = new CommandHashTable(commands);
+        return session;
+    }
+
+    // Runs one command line. Like an interactive shell it is added to the
+    // session's history first.
+    public synchronized Result execute(String line) throws IOException, InterruptedException {
+        if (!line.trim().isEmpty()) {
+            commandHistory.add(line.trim());
+        }
+        boolean exit = run(line);
+        stdout.flush();
+        stderr.flush();
+        return new Result(lastStatus, exit, collect(capturedOut), collect(capturedErr));
+    }
+
+    private static String collect(ByteArrayOutputStream captured) {
+        if (captured == null) {
+            return "";
+        }
+        // Pumps of background jobs may be writing to it at the same time
+        synchronized (captured) {
+            String text = captured.toString(Charset.defaultCharset());
+            captured.reset();
+            return text;
+        }
+    }
+
+    public synchronized File directory() {
+        return currentDir;
+    }
+
+    // The variables commands are started with; changes apply to the
+    // commands that start afterwards
+    public Map<String, String> environment() {
+        return environment;
+    }
+
+    // Exit status of the last command
+    public int status() {
+        return lastStatus;
+    }
+
+    // Stops the session's background jobs
+    @Override
+    public void close() {
+        jobTable.shutdown();
+    }
+
+    History history() {
+        return commandHistory;
+    }
+
+    static Set<String> builtinNames() {
+        return builtins.keySet();
+    }
+
+    // The directories of a PATH value
+    static String[] pathDirectories(String path) {
+        return path != null ? path.split(File.pathSeparator) : new String[0];
+    }
+
+    // Prints a notice for each background job that has finished since the last call
+    void reportFinishedJobs() {
+        jobTable.reportFinished(stdout);
+    }
+
+    // Where history -a and the HISTFILE journal (for file) start appending:
+    // the first entry not written to it yet, or that came from no file
+    synchronized int appendStart(String file) {
+        int start = fileAppendIndex.getOrDefault(file, commandHistory.loadedCount());
+        // Entries that already fell out of the history can't be appended
+        return Math.max(start, commandHistory.first());
+    }
+
+    // Records that file now has every entry
+    synchronized void appended(String file) {
+        fileAppendIndex.put(file, commandHistory.size());
+    }
+
+    // Runs one input line and sets lastStatus; returns true when it was exit
+    synchronized boolean run(String input) throws IOException, InterruptedException {
+        Parser.Pipeline pipeline = null;
+        ShellEvents.Parse event = ShellEvents.parse();
+        long start = System.nanoTime();
+        try {
+            pipeline = parser.parse(input);
+        } catch (Parser.SyntaxException e) {
+            stderr.println("shell: " + e.getMessage());
+            lastStatus = 2;
+            return false;
+        } finally {
+            ShellStats.PARSE.since(start);
+            if (event != null) {
+                event.length = input.length();
+                event.stages = pipeline != null ? pipeline.commands.size() : 0;
+                event.failed = pipeline == null;
+                event.commit();
+            }
+        }
+        return execute(pipeline, input);
+    }
+
+    private boolean execute(Parser.Pipeline pipeline, String input)
+            throws IOException, InterruptedException {
+        if (pipeline.timed && !pipeline.background) {
+            return executeTimed(pipeline, input);
+        }
+        if (pipeline.isEmpty()) {
+            return false;
+        }
+        ShellStats.pipelines.incrementAndGet();
+        ShellStats.commands.addAndGet(pipeline.commands.size());
+
+        if (pipeline.background) {
+            startJob(pipeline, input);
+            return false;
+        }
+
+        ShellEvents.Pipeline event = ShellEvents.pipeline();
+        long start = System.nanoTime();
+        try {
+            return executeForeground(pipeline);
+        } finally {
+            ShellStats.PIPELINE.since(start);
+            if (event != null) {
+                event.command = input.trim();
+                event.stages = pipeline.commands.size();
+                event.status = lastStatus;
+                event.commit();
+            }
+        }
+    }
+
+    private boolean executeForeground(Parser.Pipeline pipeline) throws IOException, InterruptedException {
+        if (pipeline.commands.size() > 1) {
+            executeMixedPipeline(pipeline);
+            return false;
+        }
+
+        Parser.Command command = pipeline.commands.get(0);
+        Redirections redirections;
+        try {
+            redirections = Redirections.resolve(command.redirects, currentDir);
+        } catch (Redirections.RedirectException e) {
+            stderr.println("shell: " + e.getMessage());
+            lastStatus = 1;
+            return false;
+        }
+        try (redirections) {
+            return executeCommand(command, redirections);
+        }
+    }
+
+    // time [-p] [-v] PIPELINE: real, user and sys time on stderr, user and
+    // sys covering the shell and the processes it waited for; with -v a
+    // pipeline (or single external command) also gets a line per stage
+    private boolean executeTimed(Parser.Pipeline pipeline, String input)
+            throws IOException, InterruptedException {
+        PipelineMetrics.CpuClock clock = new PipelineMetrics.CpuClock();
+        long start = System.nanoTime();
+        boolean exit = false;
+        timing = clock;
+        try {
+            if (pipeline.stageMetrics && pipeline.commands.size() == 1
+                    && !builtins.containsKey(pipeline.commands.get(0).name())) {
+                executeMixedPipeline(pipeline);
+            } else {
+                pipeline.timed = false;
+                exit = execute(pipeline, input);
+            }
+        } finally {
+            timing = null;
+        }
+        long real = System.nanoTime() - start;
+        long[] cpu = clock.stop();
+        stdout.flush();
+        PipelineMetrics.printTimes(stderr, real, cpu[0], cpu[1], pipeline.posixTime);
+        return exit;
+    }
+
+    // Runs a command on its own, with its redirections already opened
+    private boolean executeCommand(Parser.Command command, Redirections redirections)
+            throws IOException, InterruptedException {
+        List<String> parts = command.words;
+        String name = command.name();
+        String[] arguments = command.arguments();
+        OutputStream output = redirections.output(1, stdout, stderr);
+        PrintStream out = printStream(output);
+        PrintStream err = printStream(redirections.output(2, stdout, stderr));
+
+        if (parts.isEmpty()) {
+            // Only redirections: the files are created and that's all
+            lastStatus = 0;
+        } else if (externals.containsKey(name)) {
+            lastStatus = switch (externals.getOrDefault(name, ShellType.NONE)) {
+                case CAT -> catInProcess(parts, redirections.inputChannel() != null)
+                        ? cat(arguments, redirections.inputChannel(), output, out)
+                        : nullCommand(parts, redirections);
+                default -> nullCommand(parts, redirections);
+            };
+        } else {
+            switch (builtins.getOrDefault(name, ShellType.NONE)) {
+                case EXIT -> {
+                    return exitBuiltin(arguments);
+                }
+                case ECHO -> lastStatus = echo(arguments, out);
+                case TYPE -> lastStatus = type(arguments, out);
+                case PWD -> lastStatus = pwd(out);
+                case CD -> lastStatus = cd(arguments, out);
+                case HISTORY -> lastStatus = history(arguments, out, err);
+                case HASH -> lastStatus = hash(arguments, out, err);
+                case JOBS -> lastStatus = jobs(arguments, out, err);
+                case WAIT -> lastStatus = waitBuiltin(arguments);
+                case FG -> lastStatus = fg(arguments);
+                case BG -> lastStatus = bg(arguments);
+                case PARALLEL -> {
+                    // Inputs may come from the terminal, read in cooked mode
+                    releaseTerminal();
+                    lastStatus = parallel(arguments, redirections.input(stdin), out, err);
+                }
+                case SHELLSTATS -> lastStatus = shellstats(arguments, out, err);
+                default -> lastStatus = nullCommand(parts, redirections);
+            }
+        }
+        out.flush();
+        err.flush();
+        return false;
+    }
+
+    // Built-ins print through a PrintStream; a redirected one is only
+    // flushed when the redirection is closed
+    private static PrintStream printStream(OutputStream out) {
+        return out instanceof PrintStream ? (PrintStream) out : new PrintStream(out, false);
+    }
+
+    // A child is about to run in the foreground: give it the terminal in
+    // its normal (cooked) mode
+    private void releaseTerminal() {
+        if (terminal != null) {
+            terminal.suspend();
+        }
+    }
+
+    // exit [N]: N defaults to the status of the last command
+    private boolean exitBuiltin(String[] args) {
+        if (args.length > 0) {
+            try {
+                lastStatus = Integer.parseInt(args[0]) & 0xff;
+            } catch (NumberFormatException e) {
+                stderr.println("exit: " + args[0] + ": numeric argument required");
+                lastStatus = 2;
+            }
+        }
+        return true;
+    }
+
+    // Reads HISTSIZE/HISTFILESIZE; a negative value means unlimited, like in bash
+    static int historyLimit(Map<String, String> environment, String name, int defaultValue) {
+        String value = environment.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int limit = Integer.parseInt(value.trim());
+            return limit < 0 ? Integer.MAX_VALUE : limit;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // HISTCONTROL=ignoredups (or ignoreboth) skips a command equal to the previous one
+    private static boolean ignoreDuplicateHistory(Map<String, String> environment) {
+        String control = environment.get("HISTCONTROL");
+        if (control == null) {
+            return false;
+        }
+        for (String option : control.split(":")) {
+            if (option.equals("ignoredups") || option.equals("ignoreboth")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The hash table for the environment's PATH, started afresh when PATH
+    // has changed since the last command
+    private CommandHashTable commands() {
+        synchronized (environment) {
+            String path = environment.get("PATH");
+            if (commandHash == null || !Objects.equals(path, hashedPath)) {
+                hashedPath = path;
+                commandHash = new CommandHashTable(pathDirectories(path));
+            }
+            return commandHash;
+        }
+    }
+
+    // Looks a command up on the session's PATH
+    private File lookup(String command) {
+        return commands().lookup(command);
+    }
+
+    // A builder for a PATH command run in this session's directory and
+    // environment. The JDK searches the JVM's own PATH for a bare name, not
+    // the child's, so while the session's PATH differs the command is exec'd
+    // by sh, which searches the PATH it was given. Either way the program
+    // gets the name as typed in argv[0], as it would from any other shell.
+    private ProcessBuilder processBuilder(List<String> command) {
+        Map<String, String> env;
+        synchronized (environment) {
+            env = new HashMap<>(environment);
+        }
+        if (!Objects.equals(env.get("PATH"), JVM_PATH) && command.get(0).indexOf('/') < 0) {
+            List<String> viaShell = new ArrayList<>(command.size() + 4);
+            Collections.addAll(viaShell, "/bin/sh", "-c", "exec \"$@\"", "sh");
+            viaShell.addAll(command);
+            command = viaShell;
+        }
+        PipelineMetrics.CpuClock clock = timing;
+        ProcessBuilder pb = new ProcessBuilder(clock != null ? clock.wrap(command) : command);
+        pb.directory(currentDir);
+        pb.environment().clear();
+        pb.environment().putAll(env);
+        return pb;
+    }
+
+    synchronized void executeMixedPipeline(Parser.Pipeline pipeline) throws IOException, InterruptedException {
+        // Stages may read the terminal, so give it back in cooked mode
+        releaseTerminal();
+        stdout.flush();
+        
+        PipelineMetrics metrics = new PipelineMetrics(pipeline.commands, pipeline.stageMetrics);
+        try (StageScope scope = new StageScope()) {
+            AtomicInteger status = new AtomicInteger();
+            Process tail = runPipelineStages(pipeline.commands, scope, stdin, status, metrics);
+            StageScope.report(scope.join(), stderr);
+            // The pipeline's status is its last stage's, as in sh
+            lastStatus = tail != null ? tail.waitFor() : status.get();
+            stdout.flush();
+        }
+        metrics.print(stderr);
+    }
+
+    // Runs a pipeline ending in & without waiting for it. Its first stage
+    // reads nothing rather than competing with the prompt for the terminal.
+    private void startJob(Parser.Pipeline pipeline, String input) throws IOException {
+        String line = input.trim();
+        String text = line.substring(0, line.lastIndexOf('&')).trim();
+        stdout.flush();
+        ShellStats.backgroundJobs.incrementAndGet();
+        ShellEvents.Pipeline event = ShellEvents.pipeline();
+        long start = System.nanoTime();
+        StageScope scope = new StageScope();
+        AtomicInteger status = new AtomicInteger();
+        Process tail;
+        try {
+            tail = runPipelineStages(pipeline.commands, scope, InputStream.nullInputStream(), status,
+                    new PipelineMetrics(pipeline.commands, false));
+        } catch (IOException | RuntimeException e) {
+            scope.close();
+            throw e;
+        }
+        JobTable.Job job = jobTable.start(text, scope, () -> {
+            int code;
+            try {
+                code = tail != null ? tail.waitFor() : status.get();
+            } catch (InterruptedException e) {
+                code = 130;
+            }
+            ShellStats.PIPELINE.since(start);
+            if (event != null) {
+                event.command = text;
+                event.stages = pipeline.commands.size();
+                event.background = true;
+                event.status = code;
+                event.commit();
+            }
+            return code;
+        });
+        if (interactive) {
+            List<Process> processes = job.processes();
+            stdout.println(processes.isEmpty()
+                    ? "[" + job.id + "]"
+                    : "[" + job.id + "] " + processes.get(processes.size() - 1).pid());
+        }
+        lastStatus = 0;
+    }
+    
+    // "a | b" for the stages from first to last
+    private static String segmentText(List<Parser.Command> commands, int first, int last) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            if (i > first) {
+                sb.append(" | ");
+            }
+            sb.append(String.join(" ", commands.get(i).words));
+        }
+        return sb.toString();
+    }
+
+    // Returns the last stage's process, or null when the last stage is a
+    // built-in (which sets status itself) or the pipeline failed to start
+    private Process runPipelineStages(List<Parser.Command> commands, StageScope scope, InputStream input,
+                                      AtomicInteger status, PipelineMetrics metrics) throws IOException {
+        int last = commands.size() - 1;
+        StagePipe.Sink[] pipeOuts = new StagePipe.Sink[last];
+        StagePipe.Source[] pipeIns = new StagePipe.Source[last];
+
+        // A stage whose redirections can't be opened doesn't run, like in sh;
+        // it is handled in-process as a stage that does nothing
+        Redirections[] redirections = new Redirections[last + 1];
+        boolean[] inProcess = new boolean[last + 1];
+        boolean[] isolated = new boolean[last + 1]; // Not joined to its neighbours by an OS pipe
+        for (int i = 0; i <= last; i++) {
+            Parser.Command cmd = commands.get(i);
+            try {
+                redirections[i] = Redirections.resolve(cmd.redirects, currentDir);
+                scope.closeOnShutdown(redirections[i]);
+                inProcess[i] = isBuiltinStage(cmd);
+            } catch (Redirections.RedirectException e) {
+                stderr.println("shell: " + e.getMessage());
+                inProcess[i] = true;
+            }
+            isolated[i] = inProcess[i] || Redirections.movesStdio(cmd);
+        }
+        
+        // Java pipes are only needed next to a built-in or a stage with its
+        // own stdin or stdout; other external commands are connected by OS pipes
+        for (int i = 0; i < last; i++) {
+            if (isolated[i] || isolated[i + 1]) {
+                StagePipe pipe = new StagePipe();
+                pipeOuts[i] = pipe.sink();
+                pipeIns[i] = pipe.source();
+                scope.closeOnShutdown(pipeOuts[i]);
+                scope.closeOnShutdown(pipeIns[i]);
+            }
+        }
+        
+        int i = 0;
+        while (i <= last) {
+            Parser.Command cmd = commands.get(i);
+            
+            // Check if it's a built-in command
+            if (inProcess[i]) {
+                String cmdName = cmd.name();
+                String[] args = cmd.arguments();
+                final InputStream finalInput = i == 0 ? input : pipeIns[i - 1];
+                final OutputStream finalOutput = i == last ? stdout : pipeOuts[i];
+                final InputStream meteredInput = metrics.input(i, finalInput);
+                final OutputStream meteredOutput = metrics.output(i, finalOutput);
+                final Redirections stageRedirections = redirections[i];
+                final int index = i;
+                
+                final PipelineMetrics.CpuClock clock = timing;
+                scope.fork(() -> {
+                    long[] cpu = clock != null ? clock.threadStarted() : null;
+                    metrics.started(index);
+                    int code = 1;
+                    PrintStream err = stderr;
+                    try {
+                        if (stageRedirections != null) {
+                            InputStream in = stageRedirections.input(meteredInput);
+                            OutputStream out = stageRedirections.output(1, meteredOutput, stderr);
+                            err = printStream(stageRedirections.output(2, meteredOutput, stderr));
+                            code = executeBuiltinInPipeline(cmdName, args, in, out, err);
+                        }
+                        if (index == last) {
+                            status.set(code);
+                        }
+                    } catch (StagePipe.ClosedException e) {
+                        // The next stage stopped reading (head has all it
+                        // wants): end quietly like SIGPIPE would, without
+                        // tearing down the stages that are still running
+                        if (index == last) {
+                            status.set(1);
+                        }
+                    } catch (IOException e) {
+                        // Anything else is the stage's own failure, reported
+                        // the way the program would
+                        err.println(cmdName + ": " + Filters.reason(e));
+                        err.flush();
+                        if (index == last) {
+                            status.set(1);
+                        }
+                    } finally {
+                        metrics.finished(index, code);
+                        if (clock != null) {
+                            clock.threadFinished(cpu);
+                        }
+                        if (stageRedirections != null) {
+                            stageRedirections.close();
+                        }
+                        // Close output stream if it's a pipe (not stdout)
+                        if (index < last) {
+                            closeQuietly(finalOutput);
+                        }
+                        // Closing our end tells the writer to stop; with pooled
+                        // threads it can't rely on this thread dying
+                        if (index > 0) {
+                            closeQuietly(finalInput);
+                        }
+                    }
+                });
+                i++;
+                continue;
+            }
+            
+            // External commands up to the next built-in form one segment that
+            // the kernel connects directly, without copying through the JVM
+            int end = i;
+            while (!isolated[i] && end < last && !isolated[end + 1]) {
+                end++;
+            }
+            
+            List<ProcessBuilder> builders = new ArrayList<>();
+            for (int j = i; j <= end; j++) {
+                if (lookup(commands.get(j).name()) == null) {
+                    stdout.println(commandNotFoundText(commands.get(j).name()));
+                    ShellStats.spawnFailures.incrementAndGet();
+                    for (int k = i; k <= end; k++) {
+                        redirections[k].close();
+                    }
+                    // Stop the stages that already started, like a failed stage would
+                    scope.shutdown();
+                    status.set(127);
+                    return null;
+                }
+                ProcessBuilder pb = processBuilder(commands.get(j).words);
+                pb.redirectError(sharesStdio ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE);
+                if (j == last) {
+                    pb.redirectOutput(sharesStdio ? ProcessBuilder.Redirect.INHERIT : ProcessBuilder.Redirect.PIPE);
+                }
+                redirections[j].applyTo(pb);
+                builders.add(pb);
+            }
+            
+            List<Process> segment;
+            ShellEvents.SpawnTimer spawn = new ShellEvents.SpawnTimer(segmentText(commands, i, end), builders.size());
+            try {
+                segment = builders.size() == 1
+                        ? List.of(builders.get(0).start())
+                        : ProcessBuilder.startPipeline(builders);
+            } catch (IOException e) {
+                String redirectFailure = redirectFailure(e);
+                if (redirectFailure != null) {
+                    stderr.println("shell: " + redirectFailure);
+                    scope.shutdown();
+                    status.set(1);
+                    return null;
+                }
+                // Found on PATH but couldn't be run (not a valid executable,
+                // or it disappeared since the lookup)
+                ShellStats.spawnFailures.incrementAndGet();
+                stderr.println("shell: " + e.getMessage());
+                for (int j = i; j <= end; j++) {
+                    commands().forget(commands.get(j).name());
+                }
+                scope.shutdown();
+                status.set(127);
+                return null;
+            } finally {
+                // The processes opened the files for themselves
+                for (int j = i; j <= end; j++) {
+                    redirections[j].close();
+                }
+            }
+            Process first = segment.get(0);
+            Process tail = segment.get(segment.size() - 1);
+            // What the shell reads from the segment for the next built-in,
+            // or for the session's own output at the end of the pipeline;
+            // with the shell's descriptors the output of the last stage goes
+            // to the terminal or a file, out of sight
+            InputStream tailOutput = null;
+            for (int j = 0; j < segment.size(); j++) {
+                scope.add(segment.get(j));
+                metrics.watch(i + j, segment.get(j));
+                InputStream output = pipedOutput(segment.get(j), builders.get(j), redirections[i + j],
+                        i + j == end, scope);
+                if (output != null) {
+                    tailOutput = output;
+                }
+            }
+            tailOutput = spawn.started(tailOutput);
+            
+            // Connect input of the segment
+            if (i > 0) {
+                final InputStream in = pipeIns[i - 1];
+                final OutputStream out = metrics.feed(i, first.getOutputStream());
+                scope.fork(() -> pipeData(in, out, true));
+            } else {
+                closeQuietly(first.getOutputStream());
+            }
+            
+            // Connect output of the segment to the next built-in
+            if (tailOutput != null) {
+                final InputStream in = metrics.drain(end, tailOutput);
+                final OutputStream out = end < last ? metrics.pumpOutput(end, pipeOuts[end]) : stdout;
+                final boolean next = end < last;
+                scope.fork(() -> pipeData(in, out, next));
+            } else if (end < last) {
+                // Its output went to a file: the next stage reads nothing
+                closeQuietly(pipeOuts[end]);
+            }
+            
+            if (end == last) {
+                return tail;
+            }
+            i = end + 1;
+        }
+        return null;
+    }
+    
+    // Starts copying what a process writes to a pipe to where its
+    // redirections send it: this session's stderr here, while what goes to
+    // the next stage (or to this session's stdout, after the last stage) is
+    // returned for the caller to copy, null when there is none. A session on
+    // the shell's descriptors only has such a pipe between stages, or for
+    // 2>&1 ahead of a moved stdout.
+    private InputStream pipedOutput(Process process, ProcessBuilder pb, Redirections redirections, boolean tail,
+                                    StageScope scope) {
+        InputStream next = null;
+        if (tail && pb.redirectOutput() == ProcessBuilder.Redirect.PIPE) {
+            if (redirections.inherited(1) == 2) {
+                scope.fork(() -> pipeData(process.getInputStream(), stderr, false));
+            } else {
+                next = process.getInputStream();
+            }
+        }
+        if (pb.redirectError() == ProcessBuilder.Redirect.PIPE && !pb.redirectErrorStream()) {
+            if (tail && redirections.inherited(2) == 1) {
+                next = process.getErrorStream();
+            } else {
+                scope.fork(() -> pipeData(process.getErrorStream(), stderr, false));
+            }
+        }
+        return next;
+    }
+
+    // cat's options (-n, -A...) are left to the real cat, and so are no
+    // files or "-" when there is no input to copy for it but the terminal
+    private static boolean catInProcess(List<String> words, boolean hasInput) {
+        if (words.size() == 1) {
+            return hasInput;
+        }
+        return words.stream().skip(1)
+                .noneMatch(arg -> arg.length() > 1 && arg.startsWith("-") || arg.equals("-") && !hasInput);
+    }
+
+    private boolean isBuiltinStage(Parser.Command cmd) {
+        String name = cmd.name();
+        if (builtins.containsKey(name)) {
+            return true;
+        }
+        ShellType type = externals.get(name);
+        if (type == ShellType.CAT) {
+            return catInProcess(cmd.words, true);
+        }
+        return type != null && filter(type, cmd.arguments()) != null;
+    }
+
+    // The in-process version of an external command, or null (see Filters.create)
+    private Filters.Filter filter(ShellType type, String[] args) {
+        synchronized (environment) {
+            return Filters.create(type, args, currentDir, environment);
+        }
+    }
+    
+    private int executeBuiltinInPipeline(String cmdName, String[] args, InputStream input,
+                                         OutputStream output, PrintStream err) throws IOException {
+        if (cmdName.isEmpty()) {
+            // Only redirections
+            return 0;
+        }
+        PrintStream out = new PrintStream(output, false);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+        
+        switch (builtins.containsKey(cmdName) ? builtins.get(cmdName) : externals.get(cmdName)) {
+            case ECHO -> {
+                if (args.length > 0) {
+                    out.println(String.join(" ", args));
+                } else {
+                    out.println();
+                }
+            }
+            case TYPE -> {
+                // Read and discard input from pipeline
+                while (reader.ready() && reader.readLine() != null) {
+                    // Consume input but don't use it
+                }
+                
+                if (args.length >= 1) {
+                    String cmdToCheck = args[0];
+                    if (builtins.containsKey(cmdToCheck)) {
+                        out.println(cmdToCheck + " is a shell builtin");
+                    } else {
+                        File file = lookup(cmdToCheck);
+                        if (file != null) {
+                            out.println(cmdToCheck + " is " + file.getAbsolutePath());
+                        } else {
+                            out.println(cmdToCheck + ": not found");
+                            return 1;
+                        }
+                    }
+                }
+            }
+            case PWD -> {
+                out.println(currentDir.getAbsolutePath());
+            }
+            case HISTORY -> {
+                // Check if -a flag is present (append)
+                if (args.length >= 2 && args[0].equals("-a")) {
+                    // -a flag doesn't make sense in pipeline, ignore it
+                    return 0;
+                }
+                
+                // Check if -w flag is present (write)
+                if (args.length >= 2 && args[0].equals("-w")) {
+                    // -w flag doesn't make sense in pipeline, ignore it
+                    return 0;
+                }
+                
+                // Check if -r flag is present (read)
+                if (args.length >= 2 && args[0].equals("-r")) {
+                    // -r flag doesn't make sense in pipeline, ignore it
+                    return 0;
+                }
+                
+                int limit = commandHistory.size();
+                if (args.length > 0) {
+                    try {
+                        limit = Integer.parseInt(args[0]);
+                    } catch (NumberFormatException e) {
+                        // Use default (all history)
+                    }
+                }
+                printHistory(limit, out);
+            }
+            case HASH -> {
+                return hash(args, out, err);
+            }
+            case JOBS -> {
+                return jobs(args, out, err);
+            }
+            case SHELLSTATS -> {
+                return shellstats(args, out, err);
+            }
+            case PARALLEL -> {
+                out.flush();
+                return parallel(args, input, output, err);
+            }
+            case CAT -> {
+                out.flush();
+                // If no args, copy stdin through as raw bytes
+                if (args.length == 0) {
+                    input.transferTo(output);
+                } else {
+                    WritableByteChannel target = outputChannel(output);
+                    int status = 0;
+                    for (String file : args) {
+                        if (file.equals("-")) {
+                            // Standard input, as with no files
+                            input.transferTo(output);
+                            continue;
+                        }
+                        FileChannel in = openForCat(file, err);
+                        if (in == null) {
+                            status = 1;
+                            continue;
+                        }
+                        try (in) {
+                            copyChannel(in, target);
+                        }
+                    }
+                    return status;
+                }
+            }
+            case HEAD, TAIL, WC, GREP, SORT, UNIQ -> {
+                out.flush();
+                return filter(externals.get(cmdName), args).run(input, output, err);
+            }
+            default -> {
+                // Other built-ins that don't make sense in pipelines
+            }
+        }
+        
+        out.flush();
+        return 0;
+    }
+    
+    private static void pipeData(InputStream in, OutputStream out, boolean closeOut) {
+        try {
+            // A stage pipe at either end is copied to or from directly
+            if (in instanceof StagePipe.Source) {
+                ((StagePipe.Source) in).transferTo(out);
+                return;
+            }
+            if (out instanceof StagePipe.Sink) {
+                ((StagePipe.Sink) out).transferFrom(in);
+                return;
+            }
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                // Only pass it on once the source has nothing more ready
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Stream closed or error
+        } finally {
+            closeQuietly(in);
+            if (closeOut) {
+                closeQuietly(out);
+            }
+        }
+    }
+    
+    private static void closeQuietly(Closeable c) {
+        try {
+            if (c != null) {
+                c.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String typeText(String command) {
+        return command + " is a shell builtin";
+    }
+
+    private static String notFoundText(String command) {
+        return command + ": not found";
+    }
+
+    private static String commandNotFoundText(String command) {
+        return command + ": command not found";
+    }
+
+    int type(String[] command, PrintStream out) {
+        if (command.length >= 1) {
+            String cmdToCheck = command[0];
+            if (builtins.containsKey(cmdToCheck)) {
+                out.println(typeText(cmdToCheck));
+                return 0;
+            }
+            File file = lookup(cmdToCheck);
+            if (file != null) {
+                out.println(cmdToCheck + " is " + file.getAbsolutePath());
+                return 0;
+            }
+            out.println(notFoundText(cmdToCheck));
+        } else {
+            out.println("type: missing argument");
+        }
+        return 1;
+    }
+
+    // Runs a PATH command in the foreground; returns its exit status, or 127
+    // if there is no such command
+    private int nullCommand(List<String> parts, Redirections redirections) throws IOException {
+        String command = parts.get(0);
+        File file = lookup(command);
+        if (file != null) {
+            ProcessBuilder pb = processBuilder(parts);
+            if (sharesStdio) {
+                pb.inheritIO();
+            }
+            // Redirected streams go straight to their files
+            redirections.applyTo(pb);
+            // The child writes to the same descriptor as the buffered output
+            stdout.flush();
+            releaseTerminal();
+            try (StageScope scope = new StageScope()) {
+                ShellEvents.SpawnTimer spawn = new ShellEvents.SpawnTimer(command, 1);
+                Process program = pb.start();
+                scope.add(program);
+                InputStream output = spawn.started(pipedOutput(program, pb, redirections, true, scope));
+                if (output != null) {
+                    scope.fork(() -> pipeData(output, stdout, false));
+                }
+                if (pb.redirectInput() == ProcessBuilder.Redirect.PIPE) {
+                    closeQuietly(program.getOutputStream());
+                }
+                scope.join();
+                return program.waitFor();
+            } catch (IOException e) {
+                String redirectFailure = redirectFailure(e);
+                if (redirectFailure != null) {
+                    stderr.println("shell: " + redirectFailure);
+                    return 1;
+                }
+                ShellStats.spawnFailures.incrementAndGet();
+                commands().forget(command);
+                if (file.exists()) {
+                    // There, but not something that can be run
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    stderr.println("shell: " + file + ": "
+                            + String.valueOf(cause.getMessage()).replaceFirst("^error=\\d+, ", ""));
+                    return 126;
+                }
+                // The hashed file disappeared between lookup and exec
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 130;
+            }
+        }
+        stdout.println(commandNotFoundText(command));
+        return 127;
+    }
+
+    // When start() failed because a redirection's file couldn't be opened
+    // again for the process (see Redirections.applyTo), "FILE: REASON" from
+    // the JDK's "FILE (REASON)"; null when it was the program itself
+    private static String redirectFailure(IOException e) {
+        if (!(e.getCause() instanceof FileNotFoundException)) {
+            return null;
+        }
+        String message = String.valueOf(e.getCause().getMessage());
+        int paren = message.lastIndexOf(" (");
+        return paren > 0 && message.endsWith(")")
+                ? message.substring(0, paren) + ": " + message.substring(paren + 2, message.length() - 1)
+                : message;
+    }
+
+    private int hash(String[] args, PrintStream out, PrintStream err) {
+        if (args.length == 0) {
+            commands().printTable(out);
+            return 0;
+        }
+
+        // -r forgets everything, -s shows cache statistics
+        if (args[0].equals("-r")) {
+            commands().clear();
+            return 0;
+        }
+        if (args[0].equals("-s")) {
+            commands().printStats(out);
+            return 0;
+        }
+
+        // -d forgets the named commands, otherwise look them up and remember them
+        int status = 0;
+        if (args[0].equals("-d")) {
+            for (int i = 1; i < args.length; i++) {
+                if (!commands().forget(args[i])) {
+                    err.println("hash: " + args[i] + ": not found");
+                    status = 1;
+                }
+            }
+            return status;
+        }
+        for (String name : args) {
+            if (builtins.containsKey(name)) {
+                continue;
+            }
+            if (!commands().add(name)) {
+                err.println("hash: " + name + ": not found");
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    // jobs [-l] [JOBSPEC...]: -l adds the pids of each job's processes
+    private int jobs(String[] args, PrintStream out, PrintStream err) {
+        boolean pids = args.length > 0 && args[0].equals("-l");
+        List<JobTable.Job> selected = new ArrayList<>();
+        int status = 0;
+        for (int i = pids ? 1 : 0; i < args.length; i++) {
+            JobTable.Job job = jobTable.find(args[i]);
+            if (job == null) {
+                err.println("jobs: " + args[i] + ": no such job");
+                status = 1;
+            } else {
+                selected.add(job);
+            }
+        }
+        if (args.length == (pids ? 1 : 0)) {
+            selected = jobTable.jobs();
+        }
+        for (JobTable.Job job : selected) {
+            jobTable.print(job, out);
+            if (pids) {
+                for (Process p : job.processes()) {
+                    out.println("      " + p.pid());
+                }
+            }
+        }
+        return status;
+    }
+
+    // wait [JOBSPEC|PID...]: without arguments waits for every job and
+    // returns 0, otherwise returns the status of the last one named
+    private int waitBuiltin(String[] args) throws InterruptedException {
+        releaseTerminal();
+        stdout.flush();
+        if (args.length == 0) {
+            for (JobTable.Job job : jobTable.jobs()) {
+                job.waitFor();
+                jobTable.remove(job);
+            }
+            return 0;
+        }
+        int status = 0;
+        for (String spec : args) {
+            JobTable.Job job = jobTable.find(spec);
+            if (job == null) {
+                stderr.println("wait: " + spec + ": no such job");
+                status = 127;
+                continue;
+            }
+            status = job.waitFor();
+            jobTable.remove(job);
+        }
+        return status;
+    }
+
+    // fg [JOBSPEC]: resumes the job if it was stopped and waits for it
+    private int fg(String[] args) throws InterruptedException {
+        JobTable.Job job = findJob("fg", args);
+        if (job == null) {
+            return 1;
+        }
+        stdout.println(job.command);
+        stdout.flush();
+        releaseTerminal();
+        jobTable.resume(job);
+        int status = job.waitFor();
+        jobTable.remove(job);
+        return status;
+    }
+
+    // bg [JOBSPEC]: lets a stopped job carry on in the background
+    private int bg(String[] args) {
+        JobTable.Job job = findJob("bg", args);
+        if (job == null) {
+            return 1;
+        }
+        if (job.isDone()) {
+            stderr.println("bg: job " + job.id + " has already completed");
+            return 1;
+        }
+        jobTable.resume(job);
+        stdout.println("[" + job.id + "]+ " + job.command + " &");
+        return 0;
+    }
+
+    private int parallel(String[] args, InputStream in, OutputStream out, PrintStream err) throws IOException {
+        Parallel parallel;
+        try {
+            parallel = Parallel.parse(args, this::processBuilder, this::lookup);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+        return parallel.run(in, out, err);
+    }
+
+    // shellstats [-r]: counters and latency percentiles for every session in
+    // the JVM; -r prints them and starts over
+    private int shellstats(String[] args, PrintStream out, PrintStream err) {
+        boolean reset = false;
+        for (String arg : args) {
+            if (arg.equals("-r")) {
+                reset = true;
+            } else {
+                err.println("shellstats: " + arg + ": invalid option");
+                err.println("shellstats: usage: shellstats [-r]");
+                return 2;
+            }
+        }
+        ShellStats.print(out);
+        if (reset) {
+            ShellStats.reset();
+        }
+        return 0;
+    }
+
+    // The job named by fg or bg's argument, or the current job
+    private JobTable.Job findJob(String builtin, String[] args) {
+        String spec = args.length > 0 ? args[0] : "%+";
+        JobTable.Job job = jobTable.find(spec);
+        if (job == null) {
+            stderr.println(builtin + ": " + (args.length > 0 ? spec : "current") + ": no such job");
+        }
+        return job;
+    }
+
+    private int pwd(PrintStream out) {
+        out.println(currentDir.getAbsolutePath());
+        return 0;
+    }
+
+    private int cd(String[] command, PrintStream out) {
+        if (command.length >= 1) {
+            String target = command[0];
+            File targetDir;
+            
+            if (target.equals("~")) {
+                String home = environment.get("HOME");
+                targetDir = (home != null) ? new File(home) : new File(System.getProperty("user.home"));
+            } else if (new File(target).isAbsolute()) {
+                targetDir = new File(target);
+            } else {
+                targetDir = new File(currentDir, target);
+            }
+            
+            try {
+                Path normalizedPath = targetDir.toPath().toRealPath();
+                targetDir = normalizedPath.toFile();
+            } catch (IOException e) {
+                // If we can't normalize (path doesn't exist), use the original
+            }
+            
+            if (targetDir.exists() && targetDir.isDirectory()) {
+                currentDir = targetDir;
+                return 0;
+            }
+            out.println("cd: " + target + ": No such file or directory");
+        } else {
+            out.println("cd: missing argument");
+        }
+        return 1;
+    }
+
+    private int echo(String[] output, PrintStream out) {
+        if (output.length > 0) {
+            out.println(String.join(" ", output));
+        } else {
+            out.println();
+        }
+        return 0;
+    }
+
+    // stdin is the file given with <, or null; without either, cat has nothing to copy
+    private int cat(String[] files, FileChannel stdin, OutputStream output, PrintStream out)
+            throws IOException {
+        out.flush();
+        WritableByteChannel target = outputChannel(output);
+        if (files.length == 0 && stdin != null) {
+            copyChannel(stdin, target);
+            return 0;
+        }
+        int status = 0;
+        for (String file : files) {
+            if (file.equals("-")) {
+                copyChannel(stdin, target);
+                continue;
+            }
+            FileChannel in = openForCat(file, out);
+            if (in == null) {
+                status = 1;
+                continue;
+            }
+            try (in) {
+                copyChannel(in, target);
+            } catch (IOException e) {
+                out.println("cat: " + file + ": " + e.getMessage());
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    // A channel onto a built-in's output, so files can be copied to it with
+    // transferTo: stdout's own, a redirected file's, or an adapter
+    private WritableByteChannel outputChannel(OutputStream output) throws IOException {
+        if (output == stdout && stdoutChannel != null) {
+            return stdoutChannel;
+        }
+        if (output instanceof Redirections.FileOutput) {
+            return ((Redirections.FileOutput) output).channel();
+        }
+        if (output instanceof StagePipe.Sink) {
+            return (StagePipe.Sink) output;
+        }
+        return Channels.newChannel(output);
+    }
+
+    private FileChannel openForCat(String file, PrintStream err) {
+        Path filePath = currentDir.toPath().resolve(file);
+        if (Files.isDirectory(filePath)) {
+            err.println("cat: " + file + ": Is a directory");
+            return null;
+        }
+        try {
+            return FileChannel.open(filePath, StandardOpenOption.READ);
+        } catch (IOException e) {
+            err.println("cat: " + file + ": No such file or directory");
+            return null;
+        }
+    }
+
+    // Copies a file as bytes; regular files go through transferTo so the
+    // kernel can move the data without it ever entering the heap
+    private static void copyChannel(FileChannel in, WritableByteChannel out) throws IOException {
+        if (out instanceof StagePipe.Sink) {
+            // Read into the pipe's ring rather than through a buffer of
+            // transferTo's and then into the ring
+            ((StagePipe.Sink) out).transferFrom(in);
+            return;
+        }
+        long position = 0;
+        long size = in.size();
+        while (position < size) {
+            long n = in.transferTo(position, size - position, out);
+            if (n <= 0) {
+                break;
+            }
+            position += n;
+        }
+
+        // Files without a size (/proc, FIFOs) or that grew meanwhile are read
+        // through a fixed-size buffer so memory use stays constant
+        if (position > 0) {
+            in.position(position);
+        }
+        ByteBuffer buffer = spareCopyBuffer.getAndSet(null);
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+        }
+        try {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } finally {
+            buffer.clear();
+            spareCopyBuffer.set(buffer);
+        }
+    }
+
+    private int history(String[] args, PrintStream out, PrintStream err) {
+        // Check if -a flag is present (append)
+        if (args.length >= 2 && args[0].equals("-a")) {
+            String filename = args[1];
+            return appendHistoryToFile(filename, err);
+        }
+        
+        // Check if -w flag is present (write/overwrite)
+        if (args.length >= 2 && args[0].equals("-w")) {
+            String filename = args[1];
+            return writeHistoryToFile(filename, err);
+        }
+        
+        // Check if -r flag is present (read/load)
+        if (args.length >= 2 && args[0].equals("-r")) {
+            String filename = args[1];
+            return readHistoryFromFile(filename, err);
+        }
+        
+        int limit = commandHistory.size();
+        if (args.length > 0) {
+            try {
+                limit = Integer.parseInt(args[0]);
+            } catch (NumberFormatException e) {
+                // Use default (all history)
+            }
+        }
+        printHistory(limit, out);
+        return 0;
+    }
+    
+    // The last `limit` entries as "%5d  %s" lines, formatted by hand and
+    // printed in large chunks rather than one printf per entry
+    private void printHistory(int limit, PrintStream out) {
+        int start = Math.max(commandHistory.first(), commandHistory.size() - limit);
+        StringBuilder chunk = new StringBuilder(16 * 1024);
+        for (int i = start; i < commandHistory.size(); i++) {
+            ShellOutput.appendPadded(chunk, i + 1, 5).append("  ").append(commandHistory.get(i)).append('\n');
+            if (chunk.length() >= 8 * 1024) {
+                out.print(chunk);
+                chunk.setLength(0);
+            }
+        }
+        out.print(chunk);
+    }
+
+    private int readHistoryFromFile(String filename, PrintStream err) {
+        try {
+            long start = System.nanoTime();
+            ShellEvents.HistoryIO event = ShellEvents.historyIO("read", filename);
+            int before = commandHistory.loadedCount();
+            Path file = currentDir.toPath().resolve(filename);
+            commandHistory.load(file);
+            ShellStats.HISTORY_IO.since(start);
+            if (event != null) {
+                event.finish(commandHistory.loadedCount() - before, Files.size(file));
+            }
+            return 0;
+        } catch (IOException e) {
+            err.println("history: " + filename + ": cannot read file");
+            return 1;
+        }
+    }
+    
+    private int writeHistoryToFile(String filename, PrintStream err) {
+        try {
+            long start = System.nanoTime();
+            ShellEvents.HistoryIO event = ShellEvents.historyIO("write", filename);
+            Path file = currentDir.toPath().resolve(filename);
+            writeHistory(commandHistory, file.toString());
+            ShellStats.HISTORY_IO.since(start);
+            if (event != null) {
+                event.finish(commandHistory.size() - commandHistory.first(), Files.size(file));
+            }
+            return 0;
+        } catch (IOException e) {
+            err.println("history: " + filename + ": cannot write to file");
+            return 1;
+        }
+    }
+    
+    static void writeHistory(History history, String filename) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename, false))) {
+            int size = history.size();
+            for (int i = history.first(); i < size; i++) {
+                writer.write(history.get(i));
+                writer.newLine();
+            }
+        }
+    }
+    
+    private int appendHistoryToFile(String filename, PrintStream err) {
+        try {
+            // Determine the starting index for this file
+            // If we've appended to this file before, start from where we left off
+            // Otherwise, start from the commands entered in this session (after loaded history)
+            long start = System.nanoTime();
+            ShellEvents.HistoryIO event = ShellEvents.historyIO("append", filename);
+            Path file = currentDir.toPath().resolve(filename);
+            int startIndex = appendStart(file.toString());
+            
+            // Append only new commands from this session to the file
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file.toFile(), true))) {
+                for (int i = startIndex; i < commandHistory.size(); i++) {
+                    writer.write(commandHistory.get(i));
+                    writer.newLine();
+                }
+            }
+            
+            // Update the tracking for this file to the current history size
+            appended(file.toString());
+            ShellStats.HISTORY_IO.since(start);
+            if (event != null) {
+                event.finish(commandHistory.size() - startIndex, Files.size(file));
+            }
+            return 0;
+        } catch (IOException e) {
+            err.println("history: " + filename + ": cannot write to file");
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package shell;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters and latency histograms for the session, printed by `shellstats`.
+// Everything is allocated up front and recording is a few atomic updates,
+// so it stays on for the whole session: nothing is allocated per command.
+final class ShellStats {
+
+    // A latency histogram with log-linear buckets: exact below 16ns, then
+    // 8 buckets per power of two, so a percentile is off by at most 12.5%
+    static final class Latency {
+        private static final int LINEAR = 16;
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+        final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Latency(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                return;
+            }
+            buckets.incrementAndGet(bucket(nanos));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+                // Lost a race with another larger value; try again
+            }
+        }
+
+        // Records the time since start, a System.nanoTime() value
+        void since(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        // The smallest bucket bound that covers fraction p of the values
+        long percentile(double p) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(p * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        long mean() {
+            long n = count.get();
+            return n == 0 ? 0 : total.get() / n;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+
+        private static int bucket(long value) {
+            if (value < LINEAR) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value); // 4 and up
+            int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+            int sub = (bucket - LINEAR) % SUB_BUCKETS;
+            long width = 1L << (exponent - 3);
+            return (SUB_BUCKETS + sub) * width + width - 1;
+        }
+    }
+
+    // Interactive: from Enter to the next prompt. Batch: from reading a line
+    // to being ready for the next one.
+    static final Latency PROMPT_TO_PROMPT = new Latency("prompt-to-prompt");
+    static final Latency PARSE = new Latency("parse");
+    static final Latency PATH_LOOKUP = new Latency("path lookup");
+    static final Latency SPAWN = new Latency("spawn");               // ProcessBuilder.start()
+    static final Latency FIRST_BYTE = new Latency("spawn to first byte");
+    static final Latency PIPELINE = new Latency("pipeline");
+    static final Latency HISTORY_IO = new Latency("history I/O");
+
+    private static final Latency[] LATENCIES = {
+            PROMPT_TO_PROMPT, PARSE, PATH_LOOKUP, SPAWN, FIRST_BYTE, PIPELINE, HISTORY_IO
+    };
+
+    static final AtomicLong commands = new AtomicLong();
+    static final AtomicLong pipelines = new AtomicLong();
+    static final AtomicLong backgroundJobs = new AtomicLong();
+    static final AtomicLong processes = new AtomicLong();
+    static final AtomicLong spawnFailures = new AtomicLong();
+    static final AtomicLong bytesPiped = new AtomicLong(); // Copied by the shell between stages
+
+    private ShellStats() {
+    }
+
+    static void print(PrintStream out) {
+        StringBuilder sb = new StringBuilder(1024);
+        counter(sb, "commands", commands.get());
+        counter(sb, "pipelines", pipelines.get());
+        counter(sb, "background jobs", backgroundJobs.get());
+        counter(sb, "processes spawned", processes.get());
+        counter(sb, "spawn failures", spawnFailures.get());
+        counter(sb, "bytes piped", bytesPiped.get());
+        sb.append('\n');
+        sb.append(String.format("%-20s %8s %9s %9s %9s %9s%n", "latency", "count", "p50", "p99", "mean", "max"));
+        for (Latency latency : LATENCIES) {
+            sb.append(String.format("%-20s %8d %9s %9s %9s %9s%n", latency.name, latency.count(),
+                    duration(latency.percentile(0.50)), duration(latency.percentile(0.99)),
+                    duration(latency.mean()), duration(latency.max())));
+        }
+        out.print(sb);
+    }
+
+    static void reset() {
+        for (Latency latency : LATENCIES) {
+            latency.reset();
+        }
+        commands.set(0);
+        pipelines.set(0);
+        backgroundJobs.set(0);
+        processes.set(0);
+        spawnFailures.set(0);
+        bytesPiped.set(0);
+    }
+
+    private static void counter(StringBuilder sb, String name, long value) {
+        sb.append(name);
+        for (int pad = 20 - name.length(); pad > 0; pad--) {
+            sb.append(' ');
+        }
+        ShellOutput.appendPadded(sb, value, 12).append('\n');
+    }
+
+    static String duration(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + "ns";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%.1fus", nanos / 1e3);
+        }
+        if (nanos < 1_000_000_000) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+        return String.format("%.3fs", nanos / 1e9);
+    }
+}
@@ -0,0 +1,390 @@
+package shell;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// sort with -r -n -f -u (and -S/-T for its memory limit and temporary
+// directory), comparing bytes like sort in the C locale. Lines are kept in
+// memory up to the limit; past it each batch is sorted and spilled to a
+// temporary file, and the files are merged at the end.
+class Sort implements Filters.Filter {
+
+    private static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+    private static final int LINE_OVERHEAD = 32; // array header and reference
+    private static final int MERGE_WIDTH = 64;   // runs merged at once
+
+    private final Comparator<byte[]> order;
+    private final Comparator<byte[]> keyOrder; // what -u considers equal
+    private final boolean unique;
+    private final long memoryLimit;
+    private final Path tempDir;
+    private final List<String> files;
+    private final File dir;
+
+    private Sort(Comparator<byte[]> order, Comparator<byte[]> keyOrder, boolean unique, long memoryLimit,
+                 Path tempDir, List<String> files, File dir) {
+        this.order = order;
+        this.keyOrder = keyOrder;
+        this.unique = unique;
+        this.memoryLimit = memoryLimit;
+        this.tempDir = tempDir;
+        this.files = files;
+        this.dir = dir;
+    }
+
+    static Filters.Filter parse(String[] args, File dir, Map<String, String> environment) {
+        if (!collatesBytewise(environment)) {
+            // Locale collation is left to sort
+            return null;
+        }
+        Filters.Options options = new Filters.Options(args);
+        boolean reverse = false;
+        boolean numeric = false;
+        boolean fold = false;
+        boolean unique = false;
+        long memoryLimit = Math.min(DEFAULT_MEMORY_LIMIT, Runtime.getRuntime().maxMemory() / 4);
+        String tempDir = environment.get("TMPDIR");
+        for (char c = options.next(); c != 0; c = options.next()) {
+            switch (c) {
+                case 'r' -> reverse = true;
+                case 'n' -> numeric = true;
+                case 'f' -> fold = true;
+                case 'u' -> unique = true;
+                case 'S' -> {
+                    memoryLimit = parseSize(options.value());
+                    if (memoryLimit <= 0) {
+                        return null;
+                    }
+                }
+                case 'T' -> {
+                    tempDir = options.value();
+                    if (tempDir == null) {
+                        return null;
+                    }
+                }
+                default -> {
+                    // Keys, field separators, -o and the rest are left to sort
+                    return null;
+                }
+            }
+        }
+
+        Comparator<byte[]> key = numeric ? Sort::compareNumeric : fold ? Sort::compareFolded : Arrays::compareUnsigned;
+        // Lines with equal keys are ordered by their bytes, unless -u makes them duplicates
+        Comparator<byte[]> order = unique || (!numeric && !fold) ? key : key.thenComparing(Arrays::compareUnsigned);
+        if (reverse) {
+            order = order.reversed();
+            key = key.reversed();
+        }
+        Path temp = Path.of(tempDir != null && !tempDir.isEmpty() ? tempDir : System.getProperty("java.io.tmpdir"));
+        return new Sort(order, key, unique, memoryLimit, temp, options.operands, dir);
+    }
+
+    // LC_ALL, then LC_COLLATE, then LANG decide; C, POSIX and C.UTF-8 compare
+    // bytes (C.UTF-8 by code point, which is the same order)
+    static boolean collatesBytewise(Map<String, String> environment) {
+        for (String name : new String[] {"LC_ALL", "LC_COLLATE", "LANG"}) {
+            String value = environment.get(name);
+            if (value != null && !value.isEmpty()) {
+                return value.equals("C") || value.equals("POSIX") || value.startsWith("C.");
+            }
+        }
+        return true;
+    }
+
+    // -S: bytes, or with a K/M/G suffix (K is the default unit, as in sort)
+    private static long parseSize(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        char unit = Character.toUpperCase(value.charAt(value.length() - 1));
+        long multiplier = switch (unit) {
+            case 'B' -> 1;
+            case 'K' -> 1024;
+            case 'M' -> 1024 * 1024;
+            case 'G' -> 1024 * 1024 * 1024;
+            default -> Character.isDigit(unit) ? 1024 : -1;
+        };
+        if (multiplier < 0) {
+            return -1;
+        }
+        long number = Filters.parseCount(Character.isDigit(unit) ? value : value.substring(0, value.length() - 1));
+        return number < 0 ? -1 : number * multiplier;
+    }
+
+    @Override
+    public int run(InputStream stdin, OutputStream output, PrintStream err) throws IOException {
+        List<String> inputs = files.isEmpty() ? List.of("-") : files;
+        List<byte[]> batch = new ArrayList<>();
+        List<Path> runs = new ArrayList<>();
+        long batchBytes = 0;
+        try {
+            for (String name : inputs) {
+                InputStream in;
+                try {
+                    in = Filters.open(name, stdin, dir);
+                } catch (IOException e) {
+                    err.println("sort: cannot read: " + name + ": " + Filters.reason(e));
+                    return 2;
+                }
+                try {
+                    LineReader lines = new LineReader(in, null);
+                    while (lines.next()) {
+                        batch.add(Arrays.copyOfRange(lines.buffer(), lines.start(), lines.end()));
+                        batchBytes += lines.length() + LINE_OVERHEAD;
+                        if (batchBytes >= memoryLimit) {
+                            Path run = spill(batch, err);
+                            if (run == null) {
+                                return 2;
+                            }
+                            runs.add(run);
+                            batch.clear();
+                            batchBytes = 0;
+                        }
+                    }
+                } finally {
+                    Filters.closeInput(in, stdin);
+                }
+            }
+
+            BufferedOutputStream out = Filters.buffered(output);
+            if (runs.isEmpty()) {
+                batch.sort(order);
+                write(batch, out);
+            } else {
+                if (!batch.isEmpty()) {
+                    Path run = spill(batch, err);
+                    if (run == null) {
+                        return 2;
+                    }
+                    runs.add(run);
+                    batch.clear();
+                }
+                // Merge in rounds so no more than MERGE_WIDTH files are open
+                while (runs.size() > MERGE_WIDTH) {
+                    List<Path> group = new ArrayList<>(runs.subList(0, MERGE_WIDTH));
+                    runs.subList(0, MERGE_WIDTH).clear();
+                    Path merged = createRun(err);
+                    if (merged == null) {
+                        return 2;
+                    }
+                    runs.add(merged);
+                    try (OutputStream file = Filters.buffered(Files.newOutputStream(merged))) {
+                        merge(group, file, false);
+                    } finally {
+                        deleteAll(group);
+                    }
+                }
+                merge(runs, out, unique);
+            }
+            out.flush();
+            return 0;
+        } finally {
+            deleteAll(runs);
+        }
+    }
+
+    // Sorts batch into a new temporary file; null when none can be created
+    private Path spill(List<byte[]> batch, PrintStream err) throws IOException {
+        batch.sort(order);
+        Path run = createRun(err);
+        if (run == null) {
+            return null;
+        }
+        try (OutputStream out = Filters.buffered(Files.newOutputStream(run))) {
+            write(batch, out);
+        }
+        return run;
+    }
+
+    // A new temporary file for a sorted run, or null after saying why there
+    // can't be one, as sort does
+    private Path createRun(PrintStream err) {
+        try {
+            return Files.createTempFile(tempDir, "sort", ".run");
+        } catch (IOException e) {
+            err.println("sort: cannot create temporary file in '" + tempDir + "': " + Filters.reason(e));
+            return null;
+        }
+    }
+
+    private void write(List<byte[]> lines, OutputStream out) throws IOException {
+        byte[] previous = null;
+        for (byte[] line : lines) {
+            if (unique && previous != null && keyOrder.compare(previous, line) == 0) {
+                continue;
+            }
+            out.write(line);
+            out.write('\n');
+            previous = line;
+        }
+    }
+
+    private static final class Run {
+        final LineReader reader;
+        final InputStream in;
+        final int index;
+        byte[] line;
+
+        Run(InputStream in, int index) {
+            this.in = in;
+            this.reader = new LineReader(in, null);
+            this.index = index;
+        }
+
+        boolean advance() throws IOException {
+            if (!reader.next()) {
+                line = null;
+                return false;
+            }
+            line = Arrays.copyOfRange(reader.buffer(), reader.start(), reader.end());
+            return true;
+        }
+    }
+
+    // k-way merge; ties go to the earlier run so equal lines keep their order
+    private void merge(List<Path> runs, OutputStream out, boolean dropDuplicates) throws IOException {
+        PriorityQueue<Run> heads = new PriorityQueue<>(
+                Comparator.<Run, byte[]>comparing(r -> r.line, order).thenComparingInt(r -> r.index));
+        List<Run> open = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = new Run(Files.newInputStream(runs.get(i)), i);
+                open.add(run);
+                if (run.advance()) {
+                    heads.add(run);
+                }
+            }
+            byte[] previous = null;
+            while (!heads.isEmpty()) {
+                Run run = heads.poll();
+                byte[] line = run.line;
+                if (!dropDuplicates || previous == null || keyOrder.compare(previous, line) != 0) {
+                    out.write(line);
+                    out.write('\n');
+                    previous = line;
+                }
+                if (run.advance()) {
+                    heads.add(run);
+                }
+            }
+        } finally {
+            for (Run run : open) {
+                run.in.close();
+            }
+        }
+    }
+
+    private static void deleteAll(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Nothing more to do about it
+            }
+        }
+    }
+
+    static byte upper(byte b) {
+        return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+    }
+
+    private static int compareFolded(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (upper(a[i]) & 0xff) - (upper(b[i]) & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    // -n: an optional minus sign, digits and a fraction after leading
+    // blanks; a line without a number counts as zero. Numbers of any length
+    // compare exactly, digit by digit.
+    static int compareNumeric(byte[] a, byte[] b) {
+        int[] x = numberBounds(a);
+        int[] y = numberBounds(b);
+        boolean xZero = x[1] == x[2] && x[3] == x[4];
+        boolean yZero = y[1] == y[2] && y[3] == y[4];
+        boolean xNegative = x[0] == 1 && !xZero;
+        boolean yNegative = y[0] == 1 && !yZero;
+        if (xNegative != yNegative) {
+            return xNegative ? -1 : 1;
+        }
+        int magnitude = compareMagnitude(a, x, b, y);
+        return xNegative ? -magnitude : magnitude;
+    }
+
+    // {negative, integer start, integer end, fraction start, fraction end},
+    // without leading zeros of the integer part or trailing zeros of the fraction
+    private static int[] numberBounds(byte[] line) {
+        int i = 0;
+        while (i < line.length && (line[i] == ' ' || line[i] == '\t')) {
+            i++;
+        }
+        int negative = 0;
+        if (i < line.length && line[i] == '-') {
+            negative = 1;
+            i++;
+        }
+        while (i < line.length && line[i] == '0') {
+            i++;
+        }
+        int intStart = i;
+        while (i < line.length && line[i] >= '0' && line[i] <= '9') {
+            i++;
+        }
+        int intEnd = i;
+        int fracStart = i;
+        int fracEnd = i;
+        if (i < line.length && line[i] == '.') {
+            fracStart = ++i;
+            while (i < line.length && line[i] >= '0' && line[i] <= '9') {
+                i++;
+            }
+            fracEnd = i;
+            while (fracEnd > fracStart && line[fracEnd - 1] == '0') {
+                fracEnd--;
+            }
+        }
+        return new int[] {negative, intStart, intEnd, fracStart, fracEnd};
+    }
+
+    private static int compareMagnitude(byte[] a, int[] x, byte[] b, int[] y) {
+        int xInt = x[2] - x[1];
+        int yInt = y[2] - y[1];
+        if (xInt != yInt) {
+            return xInt - yInt;
+        }
+        for (int i = 0; i < xInt; i++) {
+            int diff = a[x[1] + i] - b[y[1] + i];
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        int xFrac = x[4] - x[3];
+        int yFrac = y[4] - y[3];
+        for (int i = 0; i < Math.max(xFrac, yFrac); i++) {
+            int da = i < xFrac ? a[x[3] + i] : '0';
+            int db = i < yFrac ? b[y[3] + i] : '0';
+            if (da != db) {
+                return da - db;
+            }
+        }
+        return 0;
+    }
+}
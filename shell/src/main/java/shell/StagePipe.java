@@ -0,0 +1,399 @@
+package shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+// The pipe between two pipeline stages when the shell does the copying: a
+// ring buffer with one writing stage (the sink) and one reading stage (the
+// source). Neither side takes a lock. Each only writes its own position and
+// reads the other's, and a side that has to wait parks until the other one
+// unparks it, so nothing polls or sleeps.
+//
+// Waking the other side costs a context switch, so a waiting reader is woken
+// once a quarter of the ring is filled, or when the writer flushes or closes
+// (like any buffered stream, what hasn't been flushed may wait), and a
+// waiting writer once a quarter of it is free. On one core the other side
+// can't run before this one blocks anyway, so there it is only woken when
+// the ring is full (or empty) and the data moves in ring-sized batches. The
+// pumps (transferFrom) and channel writes wake the reader after every
+// transfer.
+//
+// The writer may be a different thread from one write to the next (parallel
+// writes from whichever thread finished a command) as long as writes never
+// overlap; the same goes for the reader.
+//
+// Besides the stream methods both ends move bytes straight between the ring
+// and a ByteBuffer, a channel or another stream (Sink.transferFrom,
+// Source.transferTo), so a pump needs no buffer of its own. Closing the source
+// makes writes fail with "Pipe closed", which is how a stage that stopped
+// reading (head) stops the one feeding it.
+final class StagePipe {
+
+    static final int DEFAULT_CAPACITY = 65536;
+
+    // Spinning only helps when the other side can run at the same time
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+
+    private final byte[] buffer;
+    private final int mask;
+    private final int wakeAt;
+
+    // Total bytes written and read. Each is written by one side only and
+    // padded onto a cache line of its own, so the two sides don't slow each
+    // other down by writing next to each other.
+    private final Position written = new Position();
+    private final Position read = new Position();
+
+    private volatile boolean writerClosed = false;
+    private volatile boolean readerClosed = false;
+    private volatile Thread parkedWriter;
+    private volatile Thread parkedReader;
+
+    private final Sink sink = new Sink();
+    private final Source source = new Source();
+
+    StagePipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // capacity is rounded up to a power of two
+    StagePipe(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+        wakeAt = SPINS > 0 ? size / 4 : size;
+    }
+
+    Sink sink() {
+        return sink;
+    }
+
+    Source source() {
+        return source;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class Position {
+        private long p1, p2, p3, p4, p5, p6, p7;
+        volatile long value;
+        private long q1, q2, q3, q4, q5, q6, q7;
+    }
+
+    // A write after the reader closed its end, or either end used after the
+    // pipeline was shut down: what a stage that is told to stop sees, not an
+    // error of its own
+    static final class ClosedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ClosedException() {
+            super("Pipe closed");
+        }
+    }
+
+    // The writing end
+    final class Sink extends OutputStream implements WritableByteChannel {
+        private long position = 0; // Same as written.value, without the volatile read
+        private long readSeen = 0; // read.value as last seen; only ever behind
+        private ByteBuffer view;   // The ring, for channels to read into
+
+        // Free bytes in the ring, waiting for the reader to make room
+        private int awaitSpace() throws IOException {
+            int spins = 0;
+            while (true) {
+                if (readerClosed || writerClosed) {
+                    throw new ClosedException();
+                }
+                int free = buffer.length - (int) (position - readSeen);
+                if (free > 0) {
+                    return free;
+                }
+                readSeen = read.value;
+                if (readSeen != position - buffer.length) {
+                    continue;
+                }
+                if (spins++ < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                // Checked again after saying we are parked, or the reader
+                // could make room in between without knowing to wake us
+                parkedWriter = Thread.currentThread();
+                if (read.value == readSeen && !readerClosed && !writerClosed) {
+                    LockSupport.park(this);
+                }
+                parkedWriter = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        // Hands n more bytes to the reader
+        private void publish(int n) {
+            position += n;
+            written.value = position;
+            Thread reader = parkedReader;
+            if (reader != null && position - read.value >= wakeAt) {
+                LockSupport.unpark(reader);
+            }
+        }
+
+        private void wakeReader() {
+            Thread reader = parkedReader;
+            if (reader != null) {
+                LockSupport.unpark(reader);
+            }
+        }
+
+        // How much of len fits at the write position before the ring wraps
+        private int chunk(int len) throws IOException {
+            int free = awaitSpace();
+            return Math.min(len, Math.min(free, buffer.length - ((int) position & mask)));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            awaitSpace();
+            buffer[(int) position & mask] = (byte) b;
+            publish(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = chunk(len);
+                System.arraycopy(b, off, buffer, (int) position & mask, n);
+                publish(n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        // Writes all of src, waiting for room as needed
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int total = src.remaining();
+            while (src.hasRemaining()) {
+                int n = chunk(src.remaining());
+                src.get(buffer, (int) position & mask, n);
+                publish(n);
+            }
+            wakeReader();
+            return total;
+        }
+
+        // Reads in until its end straight into the ring; returns the count
+        long transferFrom(InputStream in) throws IOException {
+            long total = 0;
+            while (true) {
+                int n = chunk(Integer.MAX_VALUE);
+                n = in.read(buffer, (int) position & mask, n);
+                if (n < 0) {
+                    return total;
+                }
+                publish(n);
+                wakeReader();
+                total += n;
+            }
+        }
+
+        long transferFrom(ReadableByteChannel in) throws IOException {
+            if (view == null) {
+                view = ByteBuffer.wrap(buffer);
+            }
+            long total = 0;
+            while (true) {
+                int n = chunk(Integer.MAX_VALUE);
+                int index = (int) position & mask;
+                view.limit(index + n).position(index);
+                n = in.read(view);
+                if (n < 0) {
+                    return total;
+                }
+                publish(n);
+                wakeReader();
+                total += n;
+            }
+        }
+
+        // Lets a waiting reader have what has been written so far
+        @Override
+        public void flush() {
+            wakeReader();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !writerClosed;
+        }
+
+        // What has been written stays readable; then the reader sees the end
+        @Override
+        public void close() {
+            if (!writerClosed) {
+                writerClosed = true;
+                // Counted once rather than with an atomic add per write
+                ShellStats.bytesPiped.addAndGet(position);
+            }
+            wakeBoth();
+        }
+    }
+
+    // The reading end
+    final class Source extends InputStream implements ReadableByteChannel {
+        private long position = 0;    // Same as read.value, without the volatile read
+        private long writtenSeen = 0; // written.value as last seen
+
+        // Bytes ready to read, waiting for the writer; -1 once it has closed
+        // and everything is read
+        private int awaitData() throws IOException {
+            int spins = 0;
+            while (true) {
+                if (readerClosed) {
+                    throw new ClosedException();
+                }
+                if (writerSeenPosition() > position) {
+                    return (int) (writtenSeen - position);
+                }
+                if (writerClosed) {
+                    // Whatever it wrote before closing is visible now
+                    if (writerSeenPosition() > position) {
+                        continue;
+                    }
+                    return -1;
+                }
+                if (spins++ < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                parkedReader = Thread.currentThread();
+                if (written.value == position && !writerClosed && !readerClosed) {
+                    LockSupport.park(this);
+                }
+                parkedReader = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        private long writerSeenPosition() {
+            if (writtenSeen == position) {
+                writtenSeen = written.value;
+            }
+            return writtenSeen;
+        }
+
+        // Hands n bytes of room back to the writer
+        private void consume(int n) {
+            position += n;
+            read.value = position;
+            Thread writer = parkedWriter;
+            if (writer != null && buffer.length - (written.value - position) >= wakeAt) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+        // How much of the ready bytes can be read before the ring wraps,
+        // at most len; -1 at the end
+        private int chunk(int len) throws IOException {
+            int ready = awaitData();
+            if (ready < 0) {
+                return -1;
+            }
+            return Math.min(len, Math.min(ready, buffer.length - ((int) position & mask)));
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (awaitData() < 0) {
+                return -1;
+            }
+            int b = buffer[(int) position & mask] & 0xff;
+            consume(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = chunk(len);
+            if (n < 0) {
+                return -1;
+            }
+            System.arraycopy(buffer, (int) position & mask, b, off, n);
+            consume(n);
+            return n;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            int n = chunk(dst.remaining());
+            if (n < 0) {
+                return -1;
+            }
+            dst.put(buffer, (int) position & mask, n);
+            consume(n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return readerClosed ? 0 : (int) (written.value - position);
+        }
+
+        // Writes everything straight from the ring to out until the writer
+        // closes the pipe, flushing out whenever the pipe is empty so what
+        // arrived doesn't wait in out's buffer while the writer is slow
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            long total = 0;
+            int n;
+            while ((n = chunk(Integer.MAX_VALUE)) >= 0) {
+                out.write(buffer, (int) position & mask, n);
+                consume(n);
+                total += n;
+                if (written.value == position) {
+                    out.flush();
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !readerClosed;
+        }
+
+        // The writer's next write fails; what is still in the ring is dropped
+        @Override
+        public void close() {
+            readerClosed = true;
+            wakeBoth();
+        }
+    }
+
+    // Either end may be closed by a third thread (StageScope shutting the
+    // pipeline down) while both sides wait
+    private void wakeBoth() {
+        Thread writer = parkedWriter;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+        Thread reader = parkedReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package shell;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the stages and stream pumps of one pipeline on a shared executor.
+// If a stage fails the whole pipeline is shut down: its pipes are closed,
+// its processes destroyed and the other stages interrupted, so nothing is
+// left running once join() returns.
+class StageScope implements AutoCloseable {
+
+    interface Stage {
+        void run() throws Exception;
+    }
+
+    // "virtual" (default, when the JDK has virtual threads) or "platform"
+    private static volatile ExecutorService executor =
+            createExecutor(System.getProperty("shell.executor", "virtual"));
+
+    private final List<Closeable> resources = new ArrayList<>();
+    private final List<Process> processes = new ArrayList<>();
+    private final Set<Thread> workers = new HashSet<>();
+    private int active = 0;
+    private boolean shutdown = false;
+    private boolean joined = false;
+    private Throwable failure;
+
+    static ExecutorService createExecutor(String kind) {
+        return createExecutor(kind, "pipeline-stage-");
+    }
+
+    // A virtual thread per task, or cached daemon platform threads named
+    // threadName and a number
+    static ExecutorService createExecutor(String kind, String threadName) {
+        if (kind.equals("virtual")) {
+            try {
+                // Looked up reflectively so the shell still runs on JDKs before 21
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // No virtual threads, use the pooled platform threads below
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread t = new Thread(task, threadName + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        return Executors.newCachedThreadPool(factory);
+    }
+
+    // Replaces the executor used for all pipelines started from now on
+    static void setExecutor(ExecutorService newExecutor) {
+        executor = newExecutor;
+    }
+
+    synchronized void closeOnShutdown(Closeable resource) {
+        resources.add(resource);
+    }
+
+    synchronized void add(Process process) {
+        processes.add(process);
+        if (shutdown) {
+            destroy(process);
+        }
+    }
+
+    // Destroys the process and its children. Under `time` a command runs
+    // in a sh that waits for it, and destroying only that sh would leave
+    // the command running; the children are found first, while they are
+    // still the process's.
+    static void destroy(Process process) {
+        process.descendants().forEach(ProcessHandle::destroy);
+        process.destroy();
+    }
+
+    synchronized List<Process> processes() {
+        return new ArrayList<>(processes);
+    }
+
+    void fork(Stage stage) {
+        synchronized (this) {
+            active++;
+        }
+        try {
+            executor.execute(() -> runStage(stage));
+        } catch (RejectedExecutionException e) {
+            fail(e);
+            finished(null);
+        }
+    }
+
+    private void runStage(Stage stage) {
+        Thread self = Thread.currentThread();
+        synchronized (this) {
+            if (shutdown) {
+                finished(null);
+                return;
+            }
+            workers.add(self);
+        }
+        try {
+            stage.run();
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            finished(self);
+            // Don't leak an interrupt from shutdown() into a pooled thread
+            Thread.interrupted();
+        }
+    }
+
+    private synchronized void finished(Thread worker) {
+        if (worker != null) {
+            workers.remove(worker);
+        }
+        active--;
+        notifyAll();
+    }
+
+    private void fail(Throwable t) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = t;
+            }
+        }
+        shutdown();
+    }
+
+    // Stops everything that is still running in this pipeline
+    void shutdown() {
+        List<Closeable> toClose;
+        List<Process> toDestroy;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            toClose = new ArrayList<>(resources);
+            toDestroy = new ArrayList<>(processes);
+        }
+        // Blocked reads and writes only return once their streams are gone
+        for (Process p : toDestroy) {
+            destroy(p);
+        }
+        for (Closeable c : toClose) {
+            try {
+                c.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    // Waits for every stage and process, returning the first failure or null
+    Throwable join() throws InterruptedException {
+        synchronized (this) {
+            joined = true;
+        }
+        try {
+            synchronized (this) {
+                while (active > 0) {
+                    wait();
+                }
+            }
+            List<Process> toWait;
+            synchronized (this) {
+                toWait = new ArrayList<>(processes);
+            }
+            for (Process p : toWait) {
+                p.waitFor();
+            }
+        } catch (InterruptedException e) {
+            shutdown();
+            throw e;
+        }
+        synchronized (this) {
+            return failure;
+        }
+    }
+
+    // Prints what join() returned, except a closed pipe: that is the normal
+    // way for a stage to stop early (head has read enough)
+    static void report(Throwable failure, PrintStream err) {
+        if (failure != null && !(failure instanceof StagePipe.ClosedException)) {
+            err.println("pipeline: " + failure);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Closed without a completed join (e.g. a process failed to start):
+        // tear down whatever was started and wait for the stages to notice
+        synchronized (this) {
+            if (joined && active == 0) {
+                return;
+            }
+        }
+        shutdown();
+        boolean interrupted = false;
+        synchronized (this) {
+            while (active > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package shell;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Tab completion for command names (builtins and PATH executables, kept in
+// a trie that is built in the background at startup) and for file paths
+// (through a small cache of directory listings).
+class TabCompletion {
+
+    // PATH directory mtimes are re-checked at most this often
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    private static final int DIRECTORY_CACHE_SIZE = 32;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte FILE = 1;
+    private static final byte DIRECTORY = 2;
+
+    // A directory's names, and the type of each once a completion needed
+    // it. Java can't read the types the directory entries carry, so each is
+    // looked up at most once per listing instead of on every Tab.
+    private static final class Listing {
+        final long mtime;
+        final String[] names; // sorted
+        final byte[] types;
+
+        Listing(long mtime, String[] names) {
+            this.mtime = mtime;
+            this.names = names;
+            this.types = new byte[names.length];
+        }
+    }
+
+    private final String[] directories;
+    private final CompletionTrie commands = new CompletionTrie();
+    // How many PATH directories (or the builtins) provide each command name
+    private final Map<String, Integer> sources = new HashMap<>();
+    private final List<Set<String>> dirCommands = new ArrayList<>();
+    // Only the refresh in progress uses these, outside the lock
+    private final long[] dirMtimes;
+    private long lastRefresh = -1;
+    private boolean refreshing;
+    private boolean built; // the first refresh has finished
+
+    private final Map<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size() > DIRECTORY_CACHE_SIZE;
+        }
+    };
+
+    TabCompletion(Collection<String> builtins, String[] directories) {
+        this.directories = directories;
+        this.dirMtimes = new long[directories.length];
+        for (int i = 0; i < directories.length; i++) {
+            dirCommands.add(new HashSet<>());
+        }
+        for (String name : builtins) {
+            addCommand(name);
+        }
+    }
+
+    // Lists the PATH directories off the prompt thread
+    synchronized void buildInBackground() {
+        if (refreshing) {
+            return;
+        }
+        refreshing = true;
+        Thread builder = new Thread(this::refresh, "completion-index");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    // Only the first Tab waits, for the index built at startup. After that
+    // PATH changes are picked up in the background and show from the next
+    // Tab on.
+    synchronized List<String> completeCommand(String prefix) {
+        if (System.currentTimeMillis() - lastRefresh >= REFRESH_INTERVAL_MS) {
+            buildInBackground();
+        }
+        boolean interrupted = false;
+        while (!built) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return commands.complete(prefix);
+    }
+
+    // Completes the last path in `word` relative to `base`. Candidates are
+    // whole words; directories end with a slash.
+    synchronized List<String> completePath(File base, String word) {
+        int slash = word.lastIndexOf('/');
+        String dirPart = word.substring(0, slash + 1);
+        String prefix = word.substring(slash + 1);
+
+        File dir;
+        if (dirPart.isEmpty()) {
+            dir = base;
+        } else if (dirPart.startsWith("~/")) {
+            dir = new File(System.getProperty("user.home"), dirPart.substring(2));
+        } else if (new File(dirPart).isAbsolute()) {
+            dir = new File(dirPart);
+        } else {
+            dir = new File(base, dirPart);
+        }
+
+        List<String> result = new ArrayList<>();
+        Listing listing = list(dir);
+        String[] names = listing.names;
+        int from = Arrays.binarySearch(names, prefix);
+        for (int i = from >= 0 ? from : -from - 1; i < names.length && names[i].startsWith(prefix); i++) {
+            // Hidden files only when asked for
+            if (names[i].startsWith(".") && !prefix.startsWith(".")) {
+                continue;
+            }
+            if (listing.types[i] == UNKNOWN) {
+                listing.types[i] = new File(dir, names[i]).isDirectory() ? DIRECTORY : FILE;
+            }
+            result.add(dirPart + names[i] + (listing.types[i] == DIRECTORY ? "/" : ""));
+        }
+        return result;
+    }
+
+    private Listing list(File dir) {
+        String key = dir.getAbsolutePath();
+        long mtime = dir.lastModified();
+        Listing listing = listings.get(key);
+        if (listing == null || listing.mtime != mtime) {
+            String[] names = dir.list();
+            if (names == null) {
+                names = new String[0];
+            }
+            Arrays.sort(names);
+            listing = new Listing(mtime, names);
+            listings.put(key, listing);
+        }
+        return listing;
+    }
+
+    // Re-lists the PATH directories whose mtime changed since the last
+    // look. The directories are read without the lock, which is only taken
+    // to update the trie, so completion never waits on the file system.
+    private void refresh() {
+        long started = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < directories.length; i++) {
+                File dir = new File(directories[i]);
+                long mtime = dir.lastModified();
+                if (mtime == dirMtimes[i]) {
+                    continue;
+                }
+                dirMtimes[i] = mtime;
+
+                Set<String> now = new HashSet<>();
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.isFile() && file.canExecute()) {
+                            now.add(file.getName());
+                        }
+                    }
+                }
+                update(i, now);
+            }
+        } finally {
+            synchronized (this) {
+                lastRefresh = started;
+                refreshing = false;
+                built = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void update(int dirIndex, Set<String> now) {
+        Set<String> before = dirCommands.get(dirIndex);
+        for (String name : before) {
+            if (!now.contains(name)) {
+                removeCommand(name);
+            }
+        }
+        for (String name : now) {
+            if (!before.contains(name)) {
+                addCommand(name);
+            }
+        }
+        dirCommands.set(dirIndex, now);
+    }
+
+    private void addCommand(String name) {
+        if (sources.merge(name, 1, Integer::sum) == 1) {
+            commands.add(name);
+        }
+    }
+
+    private void removeCommand(String name) {
+        Integer count = sources.get(name);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            sources.remove(name);
+            commands.remove(name);
+        } else {
+            sources.put(name, count - 1);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Puts the controlling terminal into raw mode once per session instead of
+// forking stty around every prompt. Cooked mode is only restored while a
+// foreground child runs (so it gets normal line editing and signals) and on
+// exit.
+class Terminal {
+
+    // raw input without echo, but keep output processing so "\n" still
+    // moves to the start of the next line for builtin output
+    private static final String RAW_SETTINGS = "raw -echo opost";
+
+    private String savedSettings; // "stty -g" output from before raw mode
+    private boolean available;
+    private boolean raw;
+    private int columns; // 0 when the tty doesn't say
+
+    // Switches to raw mode for the session, returns false if there is no usable tty
+    synchronized boolean enableRawMode() {
+        if (savedSettings != null) {
+            return available;
+        }
+        // Save the current settings, switch and get the size in one shell start
+        String saved = stty("stty -g < /dev/tty && stty " + RAW_SETTINGS + " < /dev/tty && stty size < /dev/tty");
+        if (saved != null) {
+            int newline = saved.indexOf('\n');
+            readColumns(saved.substring(newline + 1));
+            saved = saved.substring(0, newline + 1);
+        }
+        savedSettings = saved != null ? saved.trim() : "";
+        available = saved != null && !savedSettings.isEmpty();
+        raw = available;
+        if (available) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::suspend));
+        }
+        return available;
+    }
+
+    // Makes sure the terminal is raw before reading a line. The window may
+    // have been resized meanwhile, so the size is read again with it.
+    synchronized void resume() {
+        if (available && !raw) {
+            String size = stty("stty " + RAW_SETTINGS + " < /dev/tty && stty size < /dev/tty");
+            raw = size != null;
+            if (raw) {
+                readColumns(size);
+            }
+        }
+    }
+
+    // Whether standard input is a terminal, the way a shell decides to
+    // prompt. System.console() can't tell: it also needs standard output to
+    // be one, so it is only used to skip the fork when both are.
+    static boolean stdinIsTerminal() {
+        if (System.console() != null) {
+            return true;
+        }
+        return run("test -t 0", ProcessBuilder.Redirect.INHERIT) != null;
+    }
+
+    // The terminal's width as of the last switch to raw mode, 0 if unknown
+    synchronized int columns() {
+        return columns;
+    }
+
+    // "ROWS COLUMNS" from stty size
+    private void readColumns(String size) {
+        String[] fields = size.trim().split(" ");
+        try {
+            columns = fields.length == 2 ? Integer.parseInt(fields[1]) : 0;
+        } catch (NumberFormatException e) {
+            columns = 0;
+        }
+    }
+
+    // Gives the terminal back in its original mode, e.g. before a child process runs
+    synchronized void suspend() {
+        if (available && raw) {
+            stty("stty " + savedSettings + " < /dev/tty");
+            raw = false;
+        }
+    }
+
+    // Runs an stty command line, returning its output or null if it failed
+    private static String stty(String command) {
+        return run(command, ProcessBuilder.Redirect.PIPE);
+    }
+
+    private static String run(String command, ProcessBuilder.Redirect input) {
+        try {
+            Process p = new ProcessBuilder("/bin/sh", "-c", command)
+                    .redirectInput(input)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            p.getOutputStream().close();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (InputStream in = p.getInputStream()) {
+                in.transferTo(buffer);
+            }
+            return p.waitFor() == 0 ? buffer.toString() : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// The in-process filters against the programs they stand in for: each
+// command line runs both ways on the same input, in the C locale, and must
+// print the same bytes and exit with the same status. Lines the programs
+// would word differently on stderr only compare stdout. Skipped where the
+// programs aren't GNU's.
+class FiltersTest {
+
+    // Duplicates, mixed case, numbers sort -n reads differently from sort,
+    // regex metacharacters, a tab, CRLF endings and no final newline
+    private static final String TEXT = String.join("\n",
+            "apple 10",
+            "banana 2",
+            "Apple 10",
+            "apple 10",
+            "cherry -3",
+            "  date 1.5",
+            "banana 2",
+            "",
+            "elderberry 007",
+            "fig +4",
+            "grape 10e2",
+            "a.b [x] $y",
+            "foo bar baz",
+            "foobar",
+            "bar",
+            "crlf line\r",
+            "tab\there",
+            "ab\r",
+            "x",
+            "x",
+            "X",
+            "banana bandana",
+            "last line without newline");
+
+    private static final Map<String, String> ENVIRONMENT = Map.of("LC_ALL", "C");
+
+    @TempDir
+    static Path dir;
+
+    @BeforeAll
+    static void writeInputs() throws IOException {
+        Files.writeString(dir.resolve("text"), TEXT);
+        Files.writeString(dir.resolve("a"), "one\ntwo\nthree x\n");
+        Files.writeString(dir.resolve("b"), "four\nfive x\n");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "head", "head -n 3", "head -3", "head -n 0", "head -c 20", "head -n 100", "head -n 2 a b",
+            "tail", "tail -n 3", "tail -n +5", "tail -c 15", "tail -n 0", "tail -c +30", "tail -n 1 a b",
+            "wc", "wc -l", "wc -w", "wc -c", "wc -lw", "wc a b", "wc -l a",
+            "grep apple", "grep -i apple", "grep -v a", "grep -c an", "grep -n 'a.b'", "grep -x bar",
+            "grep -w bar", "grep -F a.b", "grep -e foo -e x", "grep '^b'", "grep 'b$'", "grep 'e$'",
+            "grep -E 'ap+le|fig'", "grep 'ap*le'", "grep '[[:digit:]]\\{2\\}'", "grep -E '[0-9]{2}'",
+            "grep '\\(an\\)\\1'", "grep -E '(an)\\1'", "grep -m 2 a", "grep -l x a b", "grep -H x a",
+            "grep -q zzz", "grep -ic BANANA", "grep '\\[x\\]'", "grep 'x*'", "grep '\\<bar'", "grep nomatch",
+            "sort", "sort -r", "sort -n", "sort -rn", "sort -f", "sort -u", "sort -fu", "sort -nu",
+            "uniq", "uniq -c", "uniq -d", "uniq -u", "uniq -i", "uniq -ic"})
+    void matchesTheProgram(String line) throws Exception {
+        List<String> words = words(line);
+        assumeTrue(isGnu(words.get(0)), words.get(0) + " is not GNU's");
+        Filters.Filter filter = Filters.create(ShellSession.ShellType.valueOf(words.get(0).toUpperCase()),
+                words.subList(1, words.size()).toArray(new String[0]), dir.toFile(), ENVIRONMENT);
+        assertNotNull(filter, line + " should run in-process");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int status;
+        try (InputStream in = Files.newInputStream(dir.resolve("text"))) {
+            status = filter.run(in, out, new PrintStream(new ByteArrayOutputStream()));
+        }
+
+        // Through a pipe, as in a pipeline: wc pads its counts for input of
+        // unknown size, and grep -q may stop reading early
+        ProcessBuilder pb = new ProcessBuilder(words)
+                .directory(dir.toFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        pb.environment().putAll(ENVIRONMENT);
+        Process process = pb.start();
+        try (OutputStream in = process.getOutputStream()) {
+            in.write(TEXT.getBytes(StandardCharsets.ISO_8859_1));
+        } catch (IOException e) {
+            // It stopped reading
+        }
+        byte[] expected = process.getInputStream().readAllBytes();
+
+        assertEquals(new String(expected, StandardCharsets.ISO_8859_1), out.toString(StandardCharsets.ISO_8859_1), line);
+        assertEquals(process.waitFor(), status, line + ": status");
+    }
+
+    // grep's $ is the end of the line, before the newline only: a line that
+    // ends "b\r" doesn't end with b
+    @Test
+    void dollarDoesNotMatchBeforeCarriageReturn() throws IOException {
+        Filters.Filter grep = Grep.parse(new String[] {"b$"}, dir.toFile());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int status = grep.run(new ByteArrayInputStream("ab\r\nb\n".getBytes(StandardCharsets.US_ASCII)), out,
+                new PrintStream(new ByteArrayOutputStream()));
+        assertEquals("b\n", out.toString(StandardCharsets.US_ASCII));
+        assertEquals(0, status);
+    }
+
+    // Words split on spaces, with single quotes
+    private static List<String> words(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == ' ' && !quoted) {
+                words.add(word.toString());
+                word.setLength(0);
+            } else {
+                word.append(c);
+            }
+        }
+        words.add(word.toString());
+        return words;
+    }
+
+    private static boolean isGnu(String program) {
+        try {
+            Process process = new ProcessBuilder(program, "--version")
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            String version = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            return process.waitFor() == 0 && version.contains("GNU");
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+// Translation of POSIX basic and extended regular expressions to Java's,
+// checked by what the result matches
+class GrepTest {
+
+    @ParameterizedTest(name = "BRE {0} on \"{1}\"")
+    @CsvSource({
+            // Groups, intervals and alternation need a backslash; bare they are literal
+            "\\(ab\\)\\1, abab, true",
+            "(ab), (ab), true",
+            "(ab), ab, false",
+            "a\\{2\\}, aa, true",
+            "a\\{2\\}, a, false",
+            "a{2}, a{2}, true",
+            "a\\|b, b, true",
+            "a|b, a|b, true",
+            "a|b, b, false",
+            "a+, a+, true",
+            "a+, aa, false",
+            "a\\+, aa, true",
+            "a?, a?, true",
+            // * is literal at the start of the expression or of a group
+            "*a, *a, true",
+            "\\(*a\\), *a, true",
+            "a*, '', true",
+            // ^ and $ are anchors only at the ends
+            "^ab, ab, true",
+            "^ab, cab, false",
+            "a^b, a^b, true",
+            "ab$, ab, true",
+            "ab$, abc, false",
+            "a$b, a$b, true",
+            // Escaped characters are literal
+            "a\\.b, a.b, true",
+            "a\\.b, axb, false",
+            "a.b, axb, true",
+            "\\[x\\], [x], true",
+            "\\<foo\\>, a foo b, true",
+            "\\<foo\\>, afoo, false",
+            // Bracket expressions, with classes and a leading ]
+            "[[:digit:]][[:alpha:]], 1a, true",
+            "[[:digit:]], a, false",
+            "[[:xdigit:]], F, true",
+            "[]a], ], true",
+            "[^]a], b, true",
+            "[^]a], ], false",
+            "[a\\], \\, true",
+            "[[], [, true",
+            "[a&&b], &, true"})
+    void basic(String pattern, String input, boolean matches) {
+        assertMatches(pattern, false, input, matches);
+    }
+
+    @ParameterizedTest(name = "ERE {0} on \"{1}\"")
+    @CsvSource({
+            "(ab)\\1, abab, true",
+            "\\(ab\\), (ab), true",
+            "a{2}, aa, true",
+            "a\\{2\\}, a{2}, true",
+            "a|b, b, true",
+            "a+, aa, true",
+            "a\\+, a+, true",
+            "colou?r, color, true",
+            "^(a|b)c$, bc, true",
+            "^(a|b)c$, abc, false",
+            "(*a), *a, true",
+            "[[:space:]]x, ' x', true"})
+    void extended(String pattern, String input, boolean matches) {
+        assertMatches(pattern, true, input, matches);
+    }
+
+    // Left to grep, which reports "Unmatched [" in its own words
+    @Test
+    void unterminatedBracketIsNotTranslated() {
+        assertNull(Grep.toJava("[a", false));
+        assertNull(Grep.toJava("x[", true));
+        assertNull(Grep.toJava("[[:digit:]", false));
+        assertNull(Grep.parse(new String[] {"[a"}, null));
+    }
+
+    @Test
+    void metacharacters() {
+        assertFalse(Grep.hasMetacharacters("plain text", false));
+        assertFalse(Grep.hasMetacharacters("a+b|c", false));
+        assertTrue(Grep.hasMetacharacters("a+b|c", true));
+        assertTrue(Grep.hasMetacharacters("a.b", false));
+        assertTrue(Grep.hasMetacharacters("end$", false));
+    }
+
+    private static void assertMatches(String pattern, boolean extended, String input, boolean matches) {
+        String translated = Grep.toJava(pattern, extended);
+        assertNotNull(translated, pattern);
+        assertEquals(matches, Pattern.compile(translated).matcher(input).find(), pattern + " -> " + translated);
+    }
+}
@@ -0,0 +1,59 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// The journal keeps every entry in order while it compacts the file
+// behind the writes
+class HistoryJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void entriesReachTheFileOnFlush() throws Exception {
+        Path file = dir.resolve("history");
+        HistoryJournal journal = new HistoryJournal(file, HistoryJournal.SyncPolicy.NEVER, 100);
+        journal.append("echo one");
+        journal.append("ls -l");
+        assertEquals("", Files.readString(file));
+        journal.flush();
+        assertEquals("echo one\nls -l\n", Files.readString(file));
+        journal.close();
+    }
+
+    // Entries flushed while a compaction runs are written once it is done;
+    // none are lost or reordered, and the file ends up cut down
+    @Test
+    void compactionKeepsTheLastLines() throws Exception {
+        Path file = dir.resolve("history");
+        int maxLines = 1000;
+        String padding = "x".repeat(100);
+        HistoryJournal journal = new HistoryJournal(file, HistoryJournal.SyncPolicy.BATCH, maxLines);
+        int entries = 30_000; // About 3M, past the 1M threshold more than once
+        for (int i = 0; i < entries; i++) {
+            journal.append(i + " " + padding);
+            if (i % 10 == 0) {
+                journal.flush();
+            }
+        }
+        journal.close();
+
+        List<String> lines = Files.readAllLines(file);
+        assertTrue(lines.size() >= maxLines && lines.size() < entries, lines.size() + " lines");
+        // The end of the file is every entry since the last compaction, in order
+        List<String> expected = new ArrayList<>();
+        for (int i = entries - lines.size(); i < entries; i++) {
+            expected.add(i + " " + padding);
+        }
+        assertEquals(expected, lines);
+    }
+}
@@ -0,0 +1,72 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+// Reverse search over a history that keeps only its last HISTSIZE entries
+class HistorySearchTest {
+
+    @Test
+    void findsTheNewestMatchFirst() {
+        History history = new History(100, false);
+        HistorySearch search = new HistorySearch(history);
+        history.add("git status");
+        history.add("ls -l");
+        history.add("git commit -m x");
+        history.add("echo hi");
+        assertEquals(2, search.search("git", history.size()));
+        assertEquals(0, search.search("git", 2));
+        assertEquals(-1, search.search("git", 0));
+        assertEquals(1, search.search("l", history.size()));
+        assertEquals(3, search.search("hi", history.size()));
+        assertEquals(-1, search.search("svn", history.size()));
+    }
+
+    @Test
+    void evictedEntriesAreNotFound() {
+        History history = new History(3, false);
+        HistorySearch search = new HistorySearch(history);
+        history.add("make test");
+        history.add("a");
+        history.add("b");
+        history.add("c");
+        assertEquals(-1, search.search("make", history.size()));
+        assertEquals(-1, search.search("ma", history.size()));
+        assertEquals(3, search.search("c", history.size()));
+    }
+
+    // Entries with trigrams nobody searches for don't pile up in the index
+    @Test
+    void postingsStayBoundedByTheHistory() {
+        int capacity = 500;
+        History history = new History(capacity, false);
+        HistorySearch search = new HistorySearch(history);
+        Random random = new Random(3);
+        long most = 0;
+        for (int i = 0; i < 100_000; i++) {
+            history.add(randomWord(random) + " " + i);
+            if (i % 50 == 0) {
+                search.catchUp();
+                most = Math.max(most, search.postingsCount());
+            }
+        }
+        search.catchUp();
+        // About 12 trigrams an entry, at most twice HISTSIZE entries' worth
+        assertTrue(most < 2L * capacity * 14, most + " postings");
+        int last = history.size() - 1;
+        assertEquals(last, search.search(" " + last, history.size()));
+        assertEquals(-1, search.search(" 50000", history.size()));
+    }
+
+    private static String randomWord(Random random) {
+        char[] word = new char[8];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}
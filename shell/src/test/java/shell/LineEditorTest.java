@@ -0,0 +1,289 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// What LineEditor.render() writes, played into a model of an xterm: after
+// every render the screen must show the prompt and the line, wrapped at
+// the terminal's width, with nothing left over, and the cursor where the
+// line's cursor is
+class LineEditorTest {
+
+    private static final String PROMPT = "$ ";
+
+    @Test
+    void lineFillingARowMovesToTheNext() {
+        Xterm term = new Xterm(10);
+        LineEditor editor = new LineEditor(PROMPT, 10);
+        term.write(PROMPT);
+        editor.insert("abcdefgh");
+        // The last column leaves the cursor there until the next character,
+        // so the editor moves it down itself
+        assertEquals("abcdefgh\r\n", editor.render());
+        term.write("abcdefgh\r\n");
+        term.assertShows(editor, PROMPT);
+    }
+
+    @Test
+    void homeOnAWrappedLineGoesUpRows() {
+        Xterm term = new Xterm(10);
+        LineEditor editor = new LineEditor(PROMPT, 10);
+        term.write(PROMPT);
+        editor.insert("a".repeat(25));
+        term.write(editor.render());
+        editor.home();
+        String out = editor.render();
+        assertTrue(out.startsWith("\033[2A"), out);
+        term.write(out);
+        term.assertShows(editor, PROMPT);
+    }
+
+    @Test
+    void shorterLineClearsTheRowsBelow() {
+        Xterm term = new Xterm(10);
+        LineEditor editor = new LineEditor(PROMPT, 10);
+        term.write(PROMPT);
+        editor.insert("x".repeat(30));
+        term.write(editor.render());
+        editor.set("short");
+        String out = editor.render();
+        assertTrue(out.contains("\033[J"), out);
+        term.write(out);
+        term.assertShows(editor, PROMPT);
+    }
+
+    // On one row the unchanged end is shifted by the terminal, not rewritten
+    @Test
+    void insertOnOneRowShiftsTheRest() {
+        Xterm term = new Xterm(80);
+        LineEditor editor = new LineEditor(PROMPT, 80);
+        term.write(PROMPT);
+        editor.insert("echo hello world");
+        term.write(editor.render());
+        for (int i = 0; i < 6; i++) {
+            editor.left();
+        }
+        term.write(editor.render());
+        editor.insert('X');
+        String out = editor.render();
+        assertEquals("\033[@X", out);
+        term.write(out);
+        term.assertShows(editor, PROMPT);
+    }
+
+    @Test
+    void eraseClearsEveryRowOfTheLine() {
+        Xterm term = new Xterm(10);
+        LineEditor editor = new LineEditor(PROMPT, 10);
+        term.write(PROMPT);
+        editor.insert("y".repeat(23));
+        term.write(editor.render());
+        editor.home();
+        editor.right();
+        term.write(editor.render());
+        term.write(editor.erase());
+        term.write(PROMPT);
+        term.write(editor.render());
+        term.assertShows(editor, PROMPT);
+    }
+
+    // Random edits, rendered after some of them, on terminals of several
+    // widths; 0 is a terminal that didn't say, where lines are kept short
+    @ParameterizedTest
+    @ValueSource(ints = {0, 7, 10, 13, 80})
+    void randomEditsKeepTheScreenRight(int columns) {
+        Random random = new Random(columns * 31L + 5);
+        Xterm term = new Xterm(columns > 0 ? columns : 1000);
+        LineEditor editor = new LineEditor(PROMPT, columns);
+        term.write(PROMPT);
+        int maxLength = columns > 0 ? 4 * columns + 3 : 120;
+        for (int step = 0; step < 20_000; step++) {
+            String op = edit(editor, random, maxLength);
+            if (op.equals("erase")) {
+                term.write(editor.erase());
+                term.write(PROMPT);
+            }
+            if (random.nextInt(5) > 0) {
+                term.write(editor.render());
+                term.assertShows(editor, PROMPT, "step " + step + " after " + op);
+            }
+        }
+    }
+
+    private static String edit(LineEditor editor, Random random, int maxLength) {
+        int choice = random.nextInt(16);
+        if (editor.length() >= maxLength && choice < 3) {
+            choice = 13;
+        }
+        switch (choice) {
+            case 0, 1 -> editor.insert(random.nextInt(5) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+            case 2 -> editor.insert(word(random));
+            case 3 -> editor.backspace();
+            case 4 -> editor.delete();
+            case 5 -> editor.left();
+            case 6 -> editor.right();
+            case 7 -> editor.home();
+            case 8 -> editor.end();
+            case 9 -> editor.wordLeft();
+            case 10 -> editor.wordRight();
+            case 11 -> editor.deleteWordBefore();
+            case 12 -> editor.killToEnd();
+            case 13 -> editor.killToStart();
+            case 14 -> {
+                // A recalled history entry, often much like the line
+                String text = editor.text();
+                editor.set(random.nextBoolean() && !text.isEmpty()
+                        ? text.substring(0, random.nextInt(text.length())) + word(random)
+                        : word(random) + " " + word(random));
+            }
+            default -> {
+                return "erase";
+            }
+        }
+        return "edit " + choice;
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[1 + random.nextInt(12)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    // The parts of an xterm the editor uses: printing with the deferred
+    // wrap at the last column, CR, LF, BS, cursor motion (CUU, CUD, CUF,
+    // CUB), erasing (EL, ED) and inserting and deleting characters (ICH,
+    // DCH). The screen grows as needed, so it never scrolls. Motion while a
+    // wrap is pending is counted as an error: terminals disagree on it.
+    static final class Xterm {
+        private final int columns;
+        private final List<char[]> rows = new ArrayList<>();
+        private int row;
+        private int column;
+        private boolean wrapPending;
+
+        Xterm(int columns) {
+            this.columns = columns;
+            rows.add(blank());
+        }
+
+        void write(String output) {
+            for (int i = 0; i < output.length(); i++) {
+                char c = output.charAt(i);
+                if (c == '\033') {
+                    assertEquals('[', output.charAt(i + 1), "escape in " + printable(output));
+                    int end = i + 2;
+                    while (!Character.isLetter(output.charAt(end)) && output.charAt(end) != '@') {
+                        end++;
+                    }
+                    String parameter = output.substring(i + 2, end);
+                    control(output.charAt(end), parameter.isEmpty() ? 1 : Integer.parseInt(parameter), output);
+                    i = end;
+                } else if (c == '\r') {
+                    column = 0;
+                    wrapPending = false;
+                } else if (c == '\n') {
+                    down(1);
+                    wrapPending = false;
+                } else if (c == '\b') {
+                    assertFalse(wrapPending, "backspace with a wrap pending in " + printable(output));
+                    column = Math.max(0, column - 1);
+                } else {
+                    print(c);
+                }
+            }
+        }
+
+        private void print(char c) {
+            if (wrapPending) {
+                down(1);
+                column = 0;
+                wrapPending = false;
+            }
+            rows.get(row)[column] = c;
+            if (column == columns - 1) {
+                wrapPending = true;
+            } else {
+                column++;
+            }
+        }
+
+        private void control(char command, int n, String output) {
+            if (command != 'K' && command != 'J') {
+                assertFalse(wrapPending, "motion with a wrap pending in " + printable(output));
+            }
+            wrapPending = false;
+            char[] line = rows.get(row);
+            switch (command) {
+                case 'A' -> row = Math.max(0, row - n);
+                case 'B' -> down(n);
+                case 'C' -> column = Math.min(columns - 1, column + n);
+                case 'D' -> column = Math.max(0, column - n);
+                case 'K' -> Arrays.fill(line, column, columns, ' ');
+                case 'J' -> {
+                    Arrays.fill(line, column, columns, ' ');
+                    for (int r = row + 1; r < rows.size(); r++) {
+                        Arrays.fill(rows.get(r), ' ');
+                    }
+                }
+                case '@' -> {
+                    int shift = Math.min(n, columns - column);
+                    System.arraycopy(line, column, line, column + shift, columns - column - shift);
+                    Arrays.fill(line, column, column + shift, ' ');
+                }
+                case 'P' -> {
+                    int shift = Math.min(n, columns - column);
+                    System.arraycopy(line, column + shift, line, column, columns - column - shift);
+                    Arrays.fill(line, columns - shift, columns, ' ');
+                }
+                default -> throw new AssertionError("unexpected CSI " + command + " in " + printable(output));
+            }
+        }
+
+        private void down(int n) {
+            row += n;
+            while (rows.size() <= row) {
+                rows.add(blank());
+            }
+        }
+
+        private char[] blank() {
+            char[] line = new char[columns];
+            Arrays.fill(line, ' ');
+            return line;
+        }
+
+        void assertShows(LineEditor editor, String prompt) {
+            assertShows(editor, prompt, "");
+        }
+
+        void assertShows(LineEditor editor, String prompt, String context) {
+            String full = prompt + editor.text();
+            for (int r = 0; r < rows.size(); r++) {
+                int from = Math.min(full.length(), r * columns);
+                int to = Math.min(full.length(), from + columns);
+                String expected = String.format("%-" + columns + "s", full.substring(from, to));
+                assertEquals(expected, new String(rows.get(r)), context + ": row " + r + " of \"" + full + "\"");
+            }
+            int position = prompt.length() + editor.cursor();
+            assertFalse(wrapPending, context + ": wrap pending");
+            assertEquals(position / columns, row, context + ": cursor row");
+            assertEquals(position % columns, column, context + ": cursor column");
+        }
+
+        private static String printable(String output) {
+            return output.replace("\033", "\\e").replace("\r", "\\r").replace("\n", "\\n").replace("\b", "\\b");
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+// Lines turned into pipelines: words with their quoting resolved, the
+// stages, the redirections in the order written, & and time
+class ParserTest {
+
+    private final Parser parser = new Parser();
+
+    @Test
+    void plainWords() throws Exception {
+        assertWords("echo hello world", "echo", "hello", "world");
+        assertWords("  echo\t a  ", "echo", "a");
+        assertTrue(parser.parse("").isEmpty());
+        assertTrue(parser.parse("   ").isEmpty());
+    }
+
+    @Test
+    void quotingAndBackslashes() throws Exception {
+        assertWords("echo 'a  b' \"c  d\"", "echo", "a  b", "c  d");
+        assertWords("echo 'a'b\"c\"", "echo", "abc");
+        assertWords("echo a\\ b", "echo", "a b");
+        assertWords("echo 'a\\b'", "echo", "a\\b");
+        // In double quotes a backslash only escapes $ ` " \ and newline
+        assertWords("echo \"a\\b\" \"a\\\"b\" \"a\\\\b\"", "echo", "a\\b", "a\"b", "a\\b");
+        assertWords("echo \"it's\" 'say \"hi\"'", "echo", "it's", "say \"hi\"");
+        assertWords("echo '' \"\"", "echo", "", "");
+        assertWords("echo a\\", "echo", "a\\");
+    }
+
+    // Operators inside quotes or escaped are part of the word
+    @Test
+    void quotedOperatorsAreWords() throws Exception {
+        assertWords("echo 'a | b' \"c & d\" e\\>f \\<", "echo", "a | b", "c & d", "e>f", "<");
+        assertWords("echo '#'", "echo", "#");
+    }
+
+    // An unterminated quote runs to the end of the line
+    @Test
+    void unterminatedQuotes() throws Exception {
+        assertWords("echo 'a | b", "echo", "a | b");
+        assertWords("echo \"a > b", "echo", "a > b");
+        assertWords("echo x'y z", "echo", "xy z");
+    }
+
+    @Test
+    void comments() throws Exception {
+        assertWords("echo a # b | c", "echo", "a");
+        assertWords("echo a#b", "echo", "a#b");
+        assertTrue(parser.parse("# only a comment").isEmpty());
+        assertTrue(parser.parse("#!/bin/sh").isEmpty());
+    }
+
+    @Test
+    void pipelines() throws Exception {
+        Parser.Pipeline pipeline = parser.parse("cat f|grep x | wc -l");
+        assertEquals(3, pipeline.commands.size());
+        assertEquals(List.of("cat", "f"), pipeline.commands.get(0).words);
+        assertEquals(List.of("grep", "x"), pipeline.commands.get(1).words);
+        assertEquals(List.of("wc", "-l"), pipeline.commands.get(2).words);
+        assertFalse(pipeline.background);
+    }
+
+    @Test
+    void background() throws Exception {
+        assertTrue(parser.parse("sleep 1 &").background);
+        assertTrue(parser.parse("sleep 1&").background);
+        assertTrue(parser.parse("a | b & # comment").background);
+        assertEquals(List.of("sleep", "1"), parser.parse("sleep 1 &").commands.get(0).words);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @CsvSource(delimiter = ';', value = {
+            "| ls; |",
+            "ls | | wc; |",
+            "ls |; newline",
+            "ls | ; newline",
+            "ls &&  wc; &&",
+            "&; &",
+            "ls & wc; wc",
+            "ls &wc -l; wc",
+            "a & b & c; b",
+            "echo >; newline",
+            "echo > | x; |",
+            "echo < > x; >",
+            "echo 2>& ; newline",
+            "echo 2>&file; file",
+            "echo 2<&file; file",
+            "echo 99999999999>f; 99999999999"})
+    void syntaxErrors(String line, String token) {
+        Parser.SyntaxException e = assertThrows(Parser.SyntaxException.class, () -> parser.parse(line));
+        assertEquals("syntax error near unexpected token `" + token + "'", e.getMessage());
+    }
+
+    @Test
+    void redirections() throws Exception {
+        assertRedirects("cat < in > out", "0<in", "1>out");
+        assertRedirects("cat <in >>out 2>err", "0<in", "1>>out", "2>err");
+        assertRedirects("echo hi 2> err", "2>err");
+        assertRedirects("echo a>b", "1>b");
+        assertRedirects("cat 0<in", "0<in");
+        assertRedirects("echo >'a b'", "1>a b");
+        assertWords("echo a>b", "echo", "a");
+        // Digits only name a descriptor right before < or >
+        assertWords("echo a2>f 2 >g", "echo", "a2", "2");
+        assertRedirects("echo a2>f", "1>f");
+    }
+
+    @Test
+    void duplications() throws Exception {
+        assertRedirects("cmd 2>&1", "2>&1");
+        assertRedirects("cmd >&2", "1>&2");
+        assertRedirects("cmd 0<&1", "0>&1");
+        // Kept in the order written, which decides where each one ends up
+        assertRedirects("cmd >f 2>&1", "1>f", "2>&1");
+        assertRedirects("cmd 2>&1 >f", "2>&1", "1>f");
+    }
+
+    // &>, &>> and >&file send stdout and stderr to the file
+    @Test
+    void bothStreams() throws Exception {
+        assertRedirects("cmd &>f", "1>f", "2>&1");
+        assertRedirects("cmd &>>f", "1>>f", "2>&1");
+        assertRedirects("cmd >&f", "1>f", "2>&1");
+        assertRedirects("cmd >& f", "1>f", "2>&1");
+    }
+
+    // >| overrides noclobber, which is never on
+    @Test
+    void clobber() throws Exception {
+        assertRedirects("echo a >|f", "1>f");
+        assertRedirects("echo a >| f | cat", "1>f");
+    }
+
+    @Test
+    void onlyRedirections() throws Exception {
+        Parser.Command command = parser.parse("> f").commands.get(0);
+        assertEquals("", command.name());
+        assertEquals(0, command.arguments().length);
+        assertFalse(command.isEmpty());
+    }
+
+    @Test
+    void timeKeyword() throws Exception {
+        Parser.Pipeline pipeline = parser.parse("time -p -v sleep 1 | cat");
+        assertTrue(pipeline.timed);
+        assertTrue(pipeline.posixTime);
+        assertTrue(pipeline.stageMetrics);
+        assertEquals(List.of("sleep", "1"), pipeline.commands.get(0).words);
+
+        assertTrue(parser.parse("time ls").timed);
+        assertFalse(parser.parse("time ls").posixTime);
+        assertTrue(parser.parse("time").timed);
+        assertTrue(parser.parse("time").isEmpty());
+        // Only as the first word, unquoted, and whole
+        assertFalse(parser.parse("timeout 1 ls").timed);
+        assertFalse(parser.parse("echo time").timed);
+        assertFalse(parser.parse("'time' ls").timed);
+        assertWords("time echo -p", "echo", "-p");
+    }
+
+    // The scratch buffer shared between lines doesn't leak from one to the next
+    @Test
+    void longQuotedWordsThenShortOnes() throws Exception {
+        String longWord = "x".repeat(1000);
+        assertWords("echo '" + longWord + "'", "echo", longWord);
+        assertWords("echo 'ab'", "echo", "ab");
+        assertWords("echo \"" + longWord + "\" 'y'", "echo", longWord, "y");
+    }
+
+    private void assertWords(String line, String... words) throws Parser.SyntaxException {
+        assertEquals(List.of(words), parser.parse(line).commands.get(0).words, line);
+    }
+
+    // Each as FD<FILE, FD>FILE, FD>>FILE or FD>&FD
+    private void assertRedirects(String line, String... expected) throws Parser.SyntaxException {
+        List<String> actual = new ArrayList<>();
+        for (Parser.Redirect redirect : parser.parse(line).commands.get(0).redirects) {
+            String operator = switch (redirect.kind) {
+                case INPUT -> "<";
+                case OUTPUT -> ">";
+                case APPEND -> ">>";
+                case DUPLICATE -> ">&";
+            };
+            actual.add(redirect.fd + operator + redirect.target);
+        }
+        assertEquals(List.of(expected), actual, line);
+    }
+}
@@ -0,0 +1,184 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Where descriptors end up once a command's redirections are applied left
+// to right, for built-ins and for processes
+class RedirectionsTest {
+
+    @TempDir
+    Path dir;
+
+    private final Parser parser = new Parser();
+
+    @Test
+    void noRedirections() throws Exception {
+        try (Redirections redirections = resolve("cmd")) {
+            assertTrue(redirections.isEmpty());
+            assertEquals(0, redirections.inherited(0));
+            assertEquals(1, redirections.inherited(1));
+            assertEquals(2, redirections.inherited(2));
+        }
+    }
+
+    // >f 2>&1 sends both to f; 2>&1 >f sends stderr where stdout was
+    @Test
+    void orderDecides() throws Exception {
+        try (Redirections redirections = resolve("cmd >f 2>&1")) {
+            assertEquals(-1, redirections.inherited(1));
+            assertEquals(-1, redirections.inherited(2));
+        }
+        try (Redirections redirections = resolve("cmd 2>&1 >f")) {
+            assertEquals(-1, redirections.inherited(1));
+            assertEquals(1, redirections.inherited(2));
+        }
+        try (Redirections redirections = resolve("cmd 2>&1 1>&2")) {
+            assertEquals(1, redirections.inherited(1));
+            assertEquals(1, redirections.inherited(2));
+        }
+        try (Redirections redirections = resolve("cmd >&2")) {
+            assertEquals(2, redirections.inherited(1));
+        }
+    }
+
+    // Files are created and truncated when resolved, before anything runs
+    @Test
+    void filesAreOpenedWhileResolving() throws Exception {
+        Files.writeString(dir.resolve("old"), "old contents\n");
+        Files.writeString(dir.resolve("kept"), "kept\n");
+        try (Redirections redirections = resolve("cmd >new >old >>kept")) {
+            assertTrue(Files.exists(dir.resolve("new")));
+            assertEquals(0, Files.size(dir.resolve("old")));
+            assertEquals("kept\n", Files.readString(dir.resolve("kept")));
+            assertFalse(redirections.isEmpty());
+        }
+    }
+
+    @Test
+    void badTargets() throws Exception {
+        Files.createDirectory(dir.resolve("d"));
+        assertFails("missing: No such file or directory", "cat <missing");
+        assertFails("d: Is a directory", "echo >d");
+        assertFails("nodir/f: No such file or directory", "echo >nodir/f");
+        assertFails("3: only descriptors 0, 1 and 2 can be redirected", "echo 3>f");
+        assertFails("3: Bad file descriptor", "echo >&3");
+    }
+
+    @Test
+    void builtInOutput() throws Exception {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        try (Redirections redirections = resolve("cmd >f 2>&1")) {
+            OutputStream out = redirections.output(1, stdout, stderr);
+            assertSame(out, redirections.output(2, stdout, stderr));
+            out.write("out\n".getBytes());
+            out.write("err\n".getBytes());
+        }
+        assertEquals("out\nerr\n", Files.readString(dir.resolve("f")));
+
+        try (Redirections redirections = resolve("cmd 2>&1 >f")) {
+            assertSame(stdout, redirections.output(2, stdout, stderr));
+            redirections.output(1, stdout, stderr).write("again\n".getBytes());
+        }
+        assertEquals("again\n", Files.readString(dir.resolve("f")));
+
+        try (Redirections redirections = resolve("cmd >&2")) {
+            assertSame(stderr, redirections.output(1, stdout, stderr));
+        }
+    }
+
+    // Writes bigger than the buffer go straight to the file, after what
+    // was buffered before them
+    @Test
+    void largeWritesKeepTheirOrder() throws Exception {
+        byte[] large = "y".repeat(Filters.BUFFER_SIZE * 2).getBytes();
+        try (Redirections redirections = resolve("cmd >f")) {
+            OutputStream out = redirections.output(1, OutputStream.nullOutputStream(), OutputStream.nullOutputStream());
+            out.write('x');
+            out.write(large);
+            out.write('z');
+        }
+        assertEquals("x" + new String(large) + "z", Files.readString(dir.resolve("f")));
+    }
+
+    @Test
+    void builtInInput() throws Exception {
+        Files.writeString(dir.resolve("in"), "from the file\n");
+        InputStream stdin = new ByteArrayInputStream(new byte[0]);
+        try (Redirections redirections = resolve("cmd <in")) {
+            assertEquals("from the file\n", new String(redirections.input(stdin).readAllBytes()));
+        }
+        try (Redirections redirections = resolve("cmd >f")) {
+            assertSame(stdin, redirections.input(stdin));
+            assertNull(redirections.inputChannel());
+        }
+    }
+
+    // The same orders through a real process and its ProcessBuilder
+    @Test
+    void processOutputBothToFile() throws Exception {
+        assertEquals("", run("sh -c 'echo out; echo err >&2' >f 2>&1"));
+        assertEquals("out\nerr\n", Files.readString(dir.resolve("f")));
+    }
+
+    @Test
+    void processStderrToThePipeThenStdoutToFile() throws Exception {
+        assertEquals("err\n", run("sh -c 'echo out; echo err >&2' 2>&1 >f"));
+        assertEquals("out\n", Files.readString(dir.resolve("f")));
+    }
+
+    @Test
+    void processAppendsAndReads() throws Exception {
+        Files.writeString(dir.resolve("in"), "b\na\n");
+        Files.writeString(dir.resolve("f"), "first\n");
+        assertEquals("", run("sort <in >>f"));
+        assertEquals("first\na\nb\n", Files.readString(dir.resolve("f")));
+    }
+
+    @Test
+    void processStderrOnly() throws Exception {
+        assertEquals("out\n", run("sh -c 'echo out; echo err >&2' 2>f"));
+        assertEquals("err\n", Files.readString(dir.resolve("f")));
+    }
+
+    private Redirections resolve(String line) throws Exception {
+        return Redirections.resolve(parser.parse(line).commands.get(0).redirects, dir.toFile());
+    }
+
+    private void assertFails(String message, String line) {
+        Redirections.RedirectException e = assertThrows(Redirections.RedirectException.class, () -> resolve(line));
+        assertEquals(message, e.getMessage(), line);
+    }
+
+    // Runs the command with stdout piped back, as the last stage of a
+    // pipeline would be; returns what came through the pipe
+    private String run(String line) throws Exception {
+        Parser.Command command = parser.parse(line).commands.get(0);
+        ProcessBuilder pb = new ProcessBuilder(command.words).directory(dir.toFile());
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try (Redirections redirections = Redirections.resolve(command.redirects, dir.toFile())) {
+            redirections.applyTo(pb);
+            Process process = pb.start();
+            process.getOutputStream().close();
+            String output = new String(process.getInputStream().readAllBytes())
+                    + new String(process.getErrorStream().readAllBytes());
+            assertEquals(0, process.waitFor(), line);
+            return output;
+        }
+    }
+}
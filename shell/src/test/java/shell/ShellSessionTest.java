@@ -0,0 +1,96 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Command lines through a session that collects its output, for the
+// built-in stages that stand in for programs
+class ShellSessionTest {
+
+    @TempDir
+    Path dir;
+
+    private ShellSession session;
+
+    @BeforeEach
+    void open() throws IOException {
+        Files.writeString(dir.resolve("a"), "from a\n");
+        session = new ShellSession(dir.toFile(), System.getenv());
+    }
+
+    @AfterEach
+    void close() {
+        session.close();
+    }
+
+    // "-" is standard input, wherever it is among the files
+    @Test
+    void catDashReadsThePipe() throws Exception {
+        assertOutput("hello\nfrom a\n", "echo hello | cat - a");
+        assertOutput("from a\nhello\n", "echo hello | cat a -");
+        assertOutput("hello\n", "echo hello | cat -");
+    }
+
+    @Test
+    void catWithoutFilesReadsThePipe() throws Exception {
+        assertOutput("hello\n", "echo hello | cat");
+        assertOutput("HELLO\n", "echo hello | cat | tr a-z A-Z");
+    }
+
+    @Test
+    void catReadsRedirectedInput() throws Exception {
+        assertOutput("from a\n", "cat < a");
+        assertOutput("from a\n", "cat - < a");
+    }
+
+    @Test
+    void catReportsMissingFiles() throws Exception {
+        ShellSession.Result result = session.execute("cat missing a");
+        assertEquals("cat: missing: No such file or directory\nfrom a\n", result.output() + result.error());
+        assertEquals(1, result.status());
+    }
+
+    @Test
+    void syntaxErrorsGoToStderr() throws Exception {
+        ShellSession.Result result = session.execute("echo a | | cat");
+        assertEquals("", result.output());
+        assertEquals("shell: syntax error near unexpected token `|'\n", result.error());
+        assertEquals(2, result.status());
+    }
+
+    // A PATH of the session's own, unlike the JVM's: its commands are found,
+    // and they still see the name as typed in argv[0]
+    @Test
+    void commandsRunFromTheSessionsPath() throws Exception {
+        Path bin = Files.createDirectory(dir.resolve("bin"));
+        Path mine = Files.writeString(bin.resolve("mine"), "#!/bin/sh\necho mine ran\n");
+        mine.toFile().setExecutable(true);
+        Map<String, String> environment = new HashMap<>(System.getenv());
+        environment.put("PATH", bin + ":" + System.getenv("PATH"));
+        try (ShellSession own = new ShellSession(dir.toFile(), environment)) {
+            assertEquals("mine ran\n", own.execute("mine").output());
+            assertEquals("MINE RAN\n", own.execute("mine | tr a-z A-Z").output());
+            ShellSession.Result result = own.execute("ls missing");
+            assertTrue(result.error().startsWith("ls: "), result.error());
+        }
+        ShellSession.Result result = session.execute("ls missing | cat");
+        assertTrue(result.error().startsWith("ls: "), result.error());
+    }
+
+    private void assertOutput(String expected, String line) throws Exception {
+        ShellSession.Result result = session.execute(line);
+        assertEquals(expected, result.output(), line);
+        assertEquals(0, result.status(), line);
+    }
+}
@@ -0,0 +1,213 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+// The ring between two stages: data arrives whole and in order across
+// wraps, and each way of ending the pipe wakes a side parked waiting
+class StagePipeTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Test
+    void readerSeesEverythingThenTheEnd() throws IOException {
+        StagePipe pipe = new StagePipe();
+        pipe.sink().write("hello".getBytes());
+        pipe.sink().close();
+        assertArrayEquals("hello".getBytes(), pipe.source().readAllBytes());
+        assertEquals(-1, pipe.source().read());
+    }
+
+    // A ring far smaller than the data, written and read in odd sizes
+    @Test
+    void dataSurvivesWrapping() {
+        byte[] data = new byte[1 << 20];
+        new Random(42).nextBytes(data);
+        StagePipe pipe = new StagePipe(64);
+        byte[] received = assertTimeoutPreemptively(TIMEOUT, () -> {
+            CompletableFuture<Void> writer = async(() -> {
+                try (StagePipe.Sink sink = pipe.sink()) {
+                    for (int off = 0; off < data.length; off += 37) {
+                        sink.write(data, off, Math.min(37, data.length - off));
+                    }
+                }
+                return null;
+            });
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[53];
+            int n;
+            while ((n = pipe.source().read(chunk, 0, chunk.length)) >= 0) {
+                out.write(chunk, 0, n);
+            }
+            writer.get();
+            return out.toByteArray();
+        });
+        assertArrayEquals(data, received);
+    }
+
+    @Test
+    void transfersMoveEverything() {
+        byte[] data = new byte[300_000];
+        new Random(7).nextBytes(data);
+        StagePipe pipe = new StagePipe(1024);
+        byte[] received = assertTimeoutPreemptively(TIMEOUT, () -> {
+            CompletableFuture<Long> writer = async(() -> {
+                try (StagePipe.Sink sink = pipe.sink()) {
+                    return sink.transferFrom(new ByteArrayInputStream(data));
+                }
+            });
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(data.length, pipe.source().transferTo(out));
+            assertEquals(data.length, writer.get());
+            return out.toByteArray();
+        });
+        assertArrayEquals(data, received);
+    }
+
+    @Test
+    void byteBuffersCrossTheRing() throws IOException {
+        StagePipe pipe = new StagePipe(16);
+        CompletableFuture<Integer> writer = async(() -> {
+            try (StagePipe.Sink sink = pipe.sink()) {
+                return sink.write(ByteBuffer.wrap("0123456789abcdefghijklmnopqrstuvwxyz".getBytes()));
+            }
+        });
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        while (pipe.source().read(dst) >= 0) {
+            // Until the end
+        }
+        writer.join();
+        assertEquals("0123456789abcdefghijklmnopqrstuvwxyz", new String(dst.array(), 0, dst.position()));
+    }
+
+    // head closing its input is how the stage feeding it stops
+    @Test
+    void writeAfterReaderClosedFails() throws IOException {
+        StagePipe pipe = new StagePipe();
+        pipe.source().close();
+        assertThrows(StagePipe.ClosedException.class, () -> pipe.sink().write('x'));
+        assertThrows(StagePipe.ClosedException.class, () -> pipe.sink().write(new byte[10], 0, 10));
+    }
+
+    @Test
+    void readerClosingWakesWriterWaitingForRoom() throws Exception {
+        StagePipe pipe = new StagePipe(16);
+        CompletableFuture<Void> writer = async(() -> {
+            pipe.sink().write(new byte[1000], 0, 1000);
+            return null;
+        });
+        assertParked(writer);
+        pipe.source().close();
+        assertFailsWith(StagePipe.ClosedException.class, writer);
+    }
+
+    @Test
+    void writerClosingWakesReaderWaitingForData() throws Exception {
+        StagePipe pipe = new StagePipe();
+        CompletableFuture<Integer> reader = async(() -> pipe.source().read());
+        assertParked(reader);
+        pipe.sink().close();
+        assertEquals(-1, reader.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    // A third thread (StageScope shutting the pipeline down) closing the
+    // reader's own end wakes it
+    @Test
+    void closingTheSourceWakesItsReader() throws Exception {
+        StagePipe pipe = new StagePipe();
+        CompletableFuture<Integer> reader = async(() -> pipe.source().read());
+        assertParked(reader);
+        pipe.source().close();
+        assertFailsWith(StagePipe.ClosedException.class, reader);
+    }
+
+    @Test
+    void closingTheSinkWakesItsWriter() throws Exception {
+        StagePipe pipe = new StagePipe(16);
+        CompletableFuture<Void> writer = async(() -> {
+            pipe.sink().write(new byte[1000], 0, 1000);
+            return null;
+        });
+        assertParked(writer);
+        pipe.sink().close();
+        assertFailsWith(StagePipe.ClosedException.class, writer);
+    }
+
+    // Less than the wake-up threshold reaches a waiting reader once flushed
+    @Test
+    void flushWakesReader() throws Exception {
+        StagePipe pipe = new StagePipe();
+        CompletableFuture<Integer> reader = async(() -> pipe.source().read(new byte[100], 0, 100));
+        assertParked(reader);
+        pipe.sink().write(new byte[5], 0, 5);
+        pipe.sink().flush();
+        assertEquals(5, reader.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void interruptStopsAWaitingReader() throws Exception {
+        StagePipe pipe = new StagePipe();
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        Thread reader = new Thread(() -> {
+            try {
+                pipe.source().read();
+                failure.complete(null);
+            } catch (IOException e) {
+                failure.complete(e);
+            }
+        });
+        reader.start();
+        assertParked(failure);
+        reader.interrupt();
+        assertEquals(InterruptedIOException.class,
+                failure.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).getClass());
+    }
+
+    private interface Side<T> {
+        T run() throws IOException;
+    }
+
+    // One side of the pipe on a thread of its own
+    private static <T> CompletableFuture<T> async(Side<T> side) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(side.run());
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    // Still waiting a while after starting: blocked on the pipe, not done
+    private static void assertParked(CompletableFuture<?> side) throws InterruptedException {
+        Thread.sleep(100);
+        assertFalse(side.isDone(), "should be waiting on the pipe");
+    }
+
+    private static void assertFailsWith(Class<? extends Throwable> type, CompletableFuture<?> side)
+            throws Exception {
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> side.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertEquals(type, e.getCause().getClass());
+    }
+}
@@ -0,0 +1,54 @@
+package shell;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+// Shutting a pipeline down leaves none of its processes running, and
+// what went wrong is reported the same way wherever the pipeline ran
+class StageScopeTest {
+
+    // Under `time` each command is the child of a sh that reports its CPU
+    // time; the command goes too, not just the sh
+    @Test
+    void shutdownDestroysTimedCommands() throws Exception {
+        PipelineMetrics.CpuClock clock = new PipelineMetrics.CpuClock();
+        Process wrapper = new ProcessBuilder(clock.wrap(List.of("sleep", "60"))).start();
+        ProcessHandle command = null;
+        try (StageScope scope = new StageScope()) {
+            scope.add(wrapper);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (command == null && System.nanoTime() < deadline) {
+                command = wrapper.children().findFirst().orElse(null);
+                Thread.sleep(10);
+            }
+            assertTrue(command != null, "sleep should have started");
+            scope.shutdown();
+        }
+        assertTrue(wrapper.waitFor(10, TimeUnit.SECONDS));
+        command.onExit().get(10, TimeUnit.SECONDS);
+        assertFalse(command.isAlive());
+        clock.stop();
+    }
+
+    // Foreground and background pipelines report the same failures: all
+    // but a closed pipe, which is how a stage stops early
+    @Test
+    void reportSkipsOnlyClosedPipes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(out, true);
+        StageScope.report(null, err);
+        StageScope.report(new StagePipe.ClosedException(), err);
+        assertEquals("", out.toString());
+        StageScope.report(new IOException("No space left on device"), err);
+        assertEquals("pipeline: java.io.IOException: No space left on device\n", out.toString());
+    }
+}